@@ -0,0 +1,1177 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class Benchmarks, which times the parts of BitmapDump and
+ * NeuralNets that most of the running time goes into, so that a change that makes one
+ * of them slower shows up. This file also contains the interface BenchmarkOp, one
+ * operation to be timed.
+ *
+ * Classes in the file:
+ *  Benchmarks
+ *  BenchmarkOp
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public Benchmarks()
+ *  public void runAll(Set<String> selected)
+ *  void benchmarkTrainStep()
+ *  void benchmarkTrainBatch()
+ *  void benchmarkScaling()
+ *  void benchmarkInference()
+ *  void benchmarkBatchInference()
+ *  void benchmarkFloat()
+ *  void benchmarkInt8()
+ *  void benchmarkKernels()
+ *  void benchmarkSigmoid()
+ *  void benchmarkParse()
+ *  void benchmarkLoader()
+ *  void benchmarkWeights()
+ *  void benchmarkDecode()
+ *  double measure(String name, String unit, int opsPerCall, BenchmarkOp op)
+ *  boolean isSelected(String name)
+ *  NeuralNets makeNetwork()
+ *  byte[] makeGlyph(Random random)
+ *  float[] makeTarget(Random random)
+ *  ByteBuffer makeBitmap(int bitCount, int width, int height, Random random)
+ *  void writeWeights(NeuralNets net, String fileName)
+ *  void deleteFixtures()
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * Benchmarks makes all of its fixtures itself, from a fixed seed: glyph-like inputs,
+ * weights files in the "weights.in" format and the binary format (see WeightsFile),
+ * training and input sets in both the text and the binary format (see
+ * DataSetFormat), and bitmaps of every bit depth BitmapDump decodes. The files go in
+ * a temporary directory that is deleted at the end, so the benchmarks need nothing
+ * but the classes and can run anywhere.
+ *
+ * The benchmarks are:
+ *
+ *    trainStep        setInputs, forward and backward for one test case (us/sample)
+ *    trainBatch       forwardBatch and backwardBatch for a mini-batch of BATCH_SIZE
+ *                     test cases (us/sample)
+ *    scaling          ParallelTrainer.trainBatch for a mini-batch of NUM_SAMPLES test
+ *                     cases on 1, 2, 4, ... threads up to the number of processors
+ *                     (us/sample), and the scaling efficiency T1 / (n * Tn) of n
+ *                     threads, where Tn is the time on n threads
+ *    inference        findOutput for one glyph, and Model.findOutput and
+ *                     MappedModel.findOutput for it (us/glyph)
+ *    batchInference   findOutput over a whole input set, and findOutputs for the whole
+ *                     set in one call (glyphs/sec)
+ *    float            a training step and one glyph's forward loop with FloatNetwork,
+ *                     with the sums in float and in double (us/sample, us/glyph)
+ *    int8             QuantizedModel.findOutput for one glyph (us/glyph)
+ *    kernels          Kernels.axpy over every row of the k-j weights, the work of
+ *                     one dense forward loop, with the scalar kernels and with
+ *                     Kernels.INSTANCE if that is not them (us/glyph)
+ *    sigmoid          activationFunction with Math.exp and with FastSigmoid's table,
+ *                     and forward with each (sigmoids/sec, us/sample)
+ *    parse            loading a set: setTestCases on the text file, DataSet.readText
+ *                     and DataSet.mapBinary (samples/sec)
+ *    loader           DataLoader.nextBlock for each block of a shuffled epoch
+ *                     (samples/sec), and a training step like trainStep with the
+ *                     test cases taken from the shuffled blocks (us/sample)
+ *    weights          loading the weights: readWeights on the text file,
+ *                     WeightsFile.read on the binary file and MappedModel.open on
+ *                     it (loads/sec); and saving them: printf per weight, as
+ *                     printResults used to, WeightsFile.writeText and
+ *                     WeightsFile.write (saves/sec)
+ *    decode           BitmapDump.decode of a DIMENSION by DIMENSION bitmap at each
+ *                     bit depth (images/sec)
+ *
+ * Each operation is first run for WARMUP_NANOS so the JIT compiler has compiled it,
+ * then timed for ROUNDS rounds of ROUND_NANOS each. The mean and the best round are
+ * printed. Everything an operation returns is added into sink, so the JIT compiler
+ * cannot leave out the work.
+ *
+ * To run every benchmark, or only the ones named:
+ *
+ *    java Benchmarks [trainStep] [trainBatch] [scaling] [inference] [batchInference]
+ *                    [float] [int8] [kernels] [sigmoid]
+ *                    [parse] [loader] [weights] [decode]
+ */
+public class Benchmarks
+{
+   public static final long SEED = 20150513L;
+   public static final int NUM_SAMPLES = 64;             // samples in the generated sets
+   public static final int BATCH_SIZE = 32;              // for trainBatch
+   public static final int[] BIT_COUNTS = {1, 2, 4, 8, 24, 32};
+   public static final int SIGMOID_POINTS = 1024;        // for sigmoid
+
+   public static final long WARMUP_NANOS = 2000000000L;
+   public static final long ROUND_NANOS = 1000000000L;
+   public static final int ROUNDS = 5;
+   public static final double NANOS_PER_SECOND = 1e9;
+   public static final double NANOS_PER_MICRO = 1e3;
+
+   public static final int FILE_HEADER_BYTES = 14;       // BITMAPFILEHEADER
+   public static final int INFO_HEADER_BYTES = 40;       // BITMAPINFOHEADER
+
+   final Random random;
+   final Path fixtureDir;
+   final String weightsFile, binaryWeightsFile, textSetFile, binarySetFile,
+                textInputFile;
+
+   Set<String> selected;
+   double sink;
+
+   /*
+    * Times the benchmarks named in args, or all of them if there are none.
+    */
+   public static void main(String[] args) throws IOException
+   {
+      Benchmarks benchmarks = new Benchmarks();
+
+      try
+      {
+         benchmarks.runAll(new HashSet<String>(Arrays.asList(args)));
+      }
+      finally
+      {
+         benchmarks.deleteFixtures();
+      }
+
+      return;
+   }
+
+   /*
+    * Creates the fixture directory and writes the fixture files into it.
+    */
+   public Benchmarks() throws IOException
+   {
+      random = new Random(SEED);
+      fixtureDir = Files.createTempDirectory("ocr-benchmarks");
+      weightsFile = fixtureDir.resolve("weights.in").toString();
+      binaryWeightsFile = fixtureDir.resolve("weights.in.bin").toString();
+      binarySetFile = fixtureDir.resolve("OCR_trainingset.bin").toString();
+      textSetFile = fixtureDir.resolve("OCR_trainingset.in").toString();
+      textInputFile = fixtureDir.resolve("OCR_inputset.in").toString();
+
+      DataSetWriter training = new DataSetWriter(binarySetFile, NeuralNets.NUM_INPUTS,
+                                                 NeuralNets.NUM_OUTPUTS);
+      String binaryInputFile = fixtureDir.resolve("OCR_inputset.bin").toString();
+      DataSetWriter input = new DataSetWriter(binaryInputFile, NeuralNets.NUM_INPUTS, 0);
+
+      for (int sample = 0; sample < NUM_SAMPLES; sample++)
+      {
+         byte[] glyph = makeGlyph(random);
+
+         training.writeSample(glyph, makeTarget(random));
+         input.writeSample(glyph, null);
+      }
+
+      training.close();
+      input.close();
+
+      DataSetFormat.exportText(binarySetFile, textSetFile);
+      DataSetFormat.exportText(binaryInputFile, textInputFile);
+
+      NeuralNets net = makeNetwork();
+
+      writeWeights(net, weightsFile);
+      WeightsFile.write(binaryWeightsFile, net.weightskj, net.weightsji);
+   }
+
+   /*
+    * Runs the selected benchmarks (all of them if selected is empty) and prints a
+    * line for each.
+    *
+    * @param selected   names of the benchmarks to run
+    */
+   public void runAll(Set<String> selected) throws IOException
+   {
+      this.selected = selected;
+
+      System.out.printf("%-28s %14s %14s %16s\n", "benchmark", "mean", "best", "unit");
+
+      benchmarkTrainStep();
+      benchmarkTrainBatch();
+      benchmarkScaling();
+      benchmarkInference();
+      benchmarkBatchInference();
+      benchmarkFloat();
+      benchmarkInt8();
+      benchmarkKernels();
+      benchmarkSigmoid();
+      benchmarkParse();
+      benchmarkLoader();
+      benchmarkWeights();
+      benchmarkDecode();
+
+      System.out.printf("(sink %s)\n", sink);   // keeps the results alive
+
+      return;
+   }
+
+   /*
+    * Times one training step -- setInputs, forward and backward -- cycling through the
+    * samples of the training set.
+    */
+   void benchmarkTrainStep() throws IOException
+   {
+      if (!isSelected("trainStep"))
+      {
+         return;
+      }
+
+      final NeuralNets net = makeNetwork();
+      final DataSet tests = DataSet.mapBinary(binarySetFile);
+
+      measure("trainStep", "us/sample", 1, new BenchmarkOp()
+      {
+         int sample = 0;
+
+         public double run()
+         {
+            tests.getSample(sample, net.testInput, net.testOutput);
+            sample = (sample + 1) % tests.getCount();
+
+            net.setInputs();
+            net.forward();
+            net.backward();
+
+            return net.findError();
+         }
+      });
+
+      return;
+   } // void benchmarkTrainStep()
+
+   /*
+    * Times one mini-batch training step of BATCH_SIZE test cases, cycling through the
+    * batches of the training set.
+    */
+   void benchmarkTrainBatch() throws IOException
+   {
+      if (!isSelected("trainBatch"))
+      {
+         return;
+      }
+
+      final NeuralNets net = makeNetwork();
+      final DataSet tests = DataSet.mapBinary(binarySetFile);
+
+      net.batchSize = BATCH_SIZE;
+      net.allocateBatch();
+
+      measure("trainBatch", "us/sample", BATCH_SIZE, new BenchmarkOp()
+      {
+         int first = 0;
+
+         public double run()
+         {
+            net.forwardBatch(tests, first, BATCH_SIZE);
+            first = (first + BATCH_SIZE) % (tests.getCount() - BATCH_SIZE + 1);
+
+            double error = net.findBatchError(BATCH_SIZE);
+
+            net.backwardBatch(BATCH_SIZE);
+
+            return error;
+         }
+      });
+
+      return;
+   } // void benchmarkTrainBatch()
+
+   /*
+    * Times one mini-batch of the whole training set split over 1, 2, 4, ... threads
+    * (and the number of processors, if that is not a power of 2), and prints how much
+    * of the ideal speedup each number of threads gets.
+    */
+   void benchmarkScaling() throws IOException
+   {
+      if (!isSelected("scaling"))
+      {
+         return;
+      }
+
+      final DataSet tests = DataSet.mapBinary(binarySetFile);
+      int maxThreads = Runtime.getRuntime().availableProcessors();
+      List<Integer> threadCounts = new ArrayList<Integer>();
+      double nanosOneThread = 0.0;
+
+      for (int numThreads = 1; numThreads < maxThreads; numThreads *= 2)
+      {
+         threadCounts.add(numThreads);
+      }
+
+      threadCounts.add(maxThreads);
+
+      for (int numThreads : threadCounts)
+      {
+         NeuralNets net = makeNetwork();
+
+         net.batchSize = NUM_SAMPLES;
+
+         final ParallelTrainer trainer = new ParallelTrainer(net, numThreads);
+         double nanos;
+
+         try
+         {
+            nanos = measure("scaling." + numThreads + "threads", "us/sample", NUM_SAMPLES,
+                            new BenchmarkOp()
+            {
+               public double run()
+               {
+                  return trainer.trainBatch(tests, 0, NUM_SAMPLES);
+               }
+            });
+         }
+         finally
+         {
+            trainer.close();
+         }
+
+         if (numThreads == 1)
+         {
+            nanosOneThread = nanos;
+         }
+
+         System.out.printf("%-28s %14.2f %14s %16s\n", "scaling." + numThreads +
+                           "threads.eff", nanosOneThread / (numThreads * nanos), "",
+                           "T1/(n*Tn)");
+      } // for (int numThreads : threadCounts)
+
+      return;
+   } // void benchmarkScaling()
+
+   /*
+    * Times findOutput for one glyph, with the weights read from the weights file, and
+    * Model.findOutput and MappedModel.findOutput for the same glyph and weights.
+    */
+   void benchmarkInference() throws IOException
+   {
+      if (!isSelected("inference"))
+      {
+         return;
+      }
+
+      final NeuralNets net = new NeuralNets(0);
+      BufferedReader in = new BufferedReader(new FileReader(weightsFile));
+
+      net.readWeights(in, net.weightskj, net.numElementskj);
+      net.readWeights(in, net.weightsji, net.numElementsji);
+      in.close();
+
+      final DataSet inputSet = DataSet.readText(textInputFile, 0);
+
+      inputSet.getInputs(0, net.inputs);
+
+      measure("inference", "us/glyph", 1, new BenchmarkOp()
+      {
+         public double run()
+         {
+            return net.findOutput()[0];
+         }
+      });
+
+      final Model model = Model.fromNetwork(net);
+      final double[] inputs = net.inputs.clone();
+      final double[] outputs = new double[NeuralNets.NUM_OUTPUTS];
+
+      measure("inference.model", "us/glyph", 1, new BenchmarkOp()
+      {
+         public double run()
+         {
+            model.findOutput(inputs, outputs);
+
+            return outputs[0];
+         }
+      });
+
+      final MappedModel mapped = MappedModel.open(binaryWeightsFile, false);
+
+      measure("inference.mapped", "us/glyph", 1, new BenchmarkOp()
+      {
+         public double run()
+         {
+            mapped.findOutput(inputs, outputs);
+
+            return outputs[0];
+         }
+      });
+
+      return;
+   } // void benchmarkInference()
+
+   /*
+    * Times running the network over a whole input set, one glyph at a time with
+    * findOutput and then all of them in one call to findOutputs, the way runWithInputs
+    * does.
+    */
+   void benchmarkBatchInference() throws IOException
+   {
+      if (!isSelected("batchInference"))
+      {
+         return;
+      }
+
+      final NeuralNets net = makeNetwork();
+      final DataSet inputSet = DataSet.readText(textInputFile, 0);
+
+      measure("batchInference", "glyphs/sec", inputSet.getCount(), new BenchmarkOp()
+      {
+         public double run()
+         {
+            double sum = 0.0;
+
+            for (int sample = 0; sample < inputSet.getCount(); sample++)
+            {
+               inputSet.getInputs(sample, net.inputs);
+               sum += net.findOutput()[0];
+            }
+
+            return sum;
+         }
+      });
+
+      final int numGlyphs = inputSet.getCount();
+      final double[] inputRows = new double[numGlyphs * NeuralNets.NUM_INPUTS];
+      final double[] outputRows = new double[numGlyphs * NeuralNets.NUM_OUTPUTS];
+
+      for (int sample = 0; sample < numGlyphs; sample++)
+      {
+         inputSet.getInputs(sample, net.inputs);
+         System.arraycopy(net.inputs, 0, inputRows, sample * NeuralNets.NUM_INPUTS,
+                          NeuralNets.NUM_INPUTS);
+      }
+
+      measure("batchInference.findOutputs", "glyphs/sec", numGlyphs, new BenchmarkOp()
+      {
+         public double run()
+         {
+            net.findOutputs(inputRows, outputRows, numGlyphs);
+
+            return outputRows[0];
+         }
+      });
+
+      return;
+   } // void benchmarkBatchInference()
+
+   /*
+    * Times a training step and the forward loop for one glyph with the weights and
+    * nodes as floats (see FloatNetwork), first with the hidden sums in float and then
+    * in double, to compare with trainStep and inference.
+    */
+   void benchmarkFloat() throws IOException
+   {
+      if (!isSelected("float"))
+      {
+         return;
+      }
+
+      final DataSet tests = DataSet.mapBinary(binarySetFile);
+      boolean[] doubleSumsModes = {false, true};
+
+      for (boolean doubleSums : doubleSumsModes)
+      {
+         final NeuralNets net = makeNetwork();
+         final FloatNetwork floatNet = new FloatNetwork(doubleSums);
+         String suffix = doubleSums ? ".doubleSums" : "";
+
+         floatNet.copyFrom(net);
+
+         measure("float.trainStep" + suffix, "us/sample", 1, new BenchmarkOp()
+         {
+            int sample = 0;
+
+            public double run()
+            {
+               floatNet.setCase(tests, sample);
+               sample = (sample + 1) % tests.getCount();
+
+               floatNet.forward();
+               floatNet.backward(net.learningFactorkj, net.learningFactorji);
+
+               return floatNet.findError();
+            }
+         });
+
+         floatNet.copyFrom(net);
+         floatNet.setInputs(tests, 0);
+
+         measure("float.inference" + suffix, "us/glyph", 1, new BenchmarkOp()
+         {
+            public double run()
+            {
+               floatNet.forward();
+
+               return floatNet.outputs[0];
+            }
+         });
+      } // for (boolean doubleSums : doubleSumsModes)
+
+      return;
+   } // void benchmarkFloat()
+
+   /*
+    * Times the forward loop for one glyph with the k-j weights rounded to 8 bit
+    * integers (see QuantizedModel), to compare with inference.
+    */
+   void benchmarkInt8() throws IOException
+   {
+      if (!isSelected("int8"))
+      {
+         return;
+      }
+
+      NeuralNets net = makeNetwork();
+      final QuantizedModel model = new QuantizedModel(net.weightskj, net.weightsji);
+      final DataSet inputSet = DataSet.readText(textInputFile, 0);
+      final byte[] glyph = new byte[NeuralNets.NUM_INPUTS];
+      final double[] outputs = new double[NeuralNets.NUM_OUTPUTS];
+
+      inputSet.getInputs(0, glyph);
+
+      measure("int8.inference", "us/glyph", 1, new BenchmarkOp()
+      {
+         public double run()
+         {
+            model.findOutput(glyph, outputs);
+
+            return outputs[0];
+         }
+      });
+
+      return;
+   } // void benchmarkInt8()
+
+   /*
+    * Times the axpy kernel the way forward() uses it, once with ScalarKernels and once
+    * with the kernels Kernels chose at startup, if they are the vector kernels (run
+    * with "java --add-modules jdk.incubator.vector" after compiling
+    * simd/VectorKernels.java).
+    */
+   void benchmarkKernels() throws IOException
+   {
+      if (!isSelected("kernels"))
+      {
+         return;
+      }
+
+      final NeuralNets net = makeNetwork();
+      final double[] theta = new double[NeuralNets.NUM_HIDDEN];
+      List<Kernels> allKernels = new ArrayList<Kernels>();
+
+      allKernels.add(Kernels.scalar());
+
+      if (!Kernels.INSTANCE.getName().equals(Kernels.scalar().getName()))
+      {
+         allKernels.add(Kernels.INSTANCE);
+      }
+
+      for (final Kernels kernels : allKernels)
+      {
+         measure("kernels." + kernels.getName().split(" ")[0], "us/glyph", 1,
+                 new BenchmarkOp()
+         {
+            public double run()
+            {
+               Arrays.fill(theta, 0.0);
+
+               for (int k = 0; k < NeuralNets.NUM_INPUTS; k++)
+               {
+                  kernels.axpy(1.0 + (k & 0xFF), net.weightskj, k * NeuralNets.NUM_HIDDEN,
+                               theta, 0, NeuralNets.NUM_HIDDEN);
+               }
+
+               return theta[0];
+            }
+         });
+      } // for (Kernels kernels : allKernels)
+
+      return;
+   } // void benchmarkKernels()
+
+   /*
+    * Times activationFunction over SIGMOID_POINTS propagation values from -8 to 8,
+    * first with Math.exp and then with the table of FastSigmoid, and then a whole
+    * forward loop with each.
+    */
+   void benchmarkSigmoid() throws IOException
+   {
+      if (!isSelected("sigmoid"))
+      {
+         return;
+      }
+
+      final NeuralNets net = makeNetwork();
+      final double[] points = new double[SIGMOID_POINTS];
+      final DataSet tests = DataSet.mapBinary(binarySetFile);
+      boolean[] fastModes = {false, true};
+
+      for (int point = 0; point < SIGMOID_POINTS; point++)
+      {
+         points[point] = -8.0 + 16.0 * point / SIGMOID_POINTS;
+      }
+
+      tests.getSample(0, net.testInput, net.testOutput);
+      net.setInputs();
+
+      for (boolean fast : fastModes)
+      {
+         String name = fast ? "sigmoid.table" : "sigmoid.exp";
+
+         net.fastSigmoid = fast;
+
+         measure(name, "sigmoids/sec", SIGMOID_POINTS, new BenchmarkOp()
+         {
+            public double run()
+            {
+               double sum = 0.0;
+
+               for (int point = 0; point < SIGMOID_POINTS; point++)
+               {
+                  sum += net.activationFunction(points[point]);
+               }
+
+               return sum;
+            }
+         });
+
+         measure(name + ".forward", "us/sample", 1, new BenchmarkOp()
+         {
+            public double run()
+            {
+               net.forward();
+
+               return net.outputs[0];
+            }
+         });
+      } // for (boolean fast : fastModes)
+
+      return;
+   } // void benchmarkSigmoid()
+
+   /*
+    * Times loading the whole training set: the old way, with setTestCases reading it
+    * one test case at a time from the text file; parsing the text file into a DataSet;
+    * and mapping the binary file and reading every sample out of it.
+    */
+   void benchmarkParse() throws IOException
+   {
+      if (!isSelected("parse"))
+      {
+         return;
+      }
+
+      final NeuralNets net = new NeuralNets(1);
+
+      measure("parse.setTestCases", "samples/sec", NUM_SAMPLES, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            BufferedReader in = new BufferedReader(new FileReader(textSetFile));
+            int numModels = Integer.parseInt(in.readLine());
+            double sum = 0.0;
+
+            for (int model = 0; model < numModels; model++)
+            {
+               net.setTestCases(in);
+               sum += net.testInput[model];
+            }
+
+            in.close();
+
+            return sum;
+         }
+      });
+
+      measure("parse.readText", "samples/sec", NUM_SAMPLES, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            DataSet tests = DataSet.readText(textSetFile, NeuralNets.NUM_OUTPUTS);
+
+            tests.getSample(tests.getCount() - 1, net.testInput, net.testOutput);
+
+            return net.testInput[0];
+         }
+      });
+
+      measure("parse.mapBinary", "samples/sec", NUM_SAMPLES, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            DataSet tests = DataSet.mapBinary(binarySetFile);
+            double sum = 0.0;
+
+            for (int sample = 0; sample < tests.getCount(); sample++)
+            {
+               tests.getSample(sample, net.testInput, net.testOutput);
+               sum += net.testInput[sample];
+            }
+
+            return sum;
+         }
+      });
+
+      return;
+   } // void benchmarkParse()
+
+   /*
+    * Times a DataLoader shuffling the training set every epoch: handing out the blocks
+    * of an epoch, and a training step -- the same as trainStep's -- on the test cases
+    * of the blocks, so the cost of the loader shows next to trainStep.
+    */
+   void benchmarkLoader() throws IOException
+   {
+      if (!isSelected("loader"))
+      {
+         return;
+      }
+
+      final DataSet tests = DataSet.mapBinary(binarySetFile);
+      final DataLoader loader = new DataLoader(tests, 1, true, SEED, 0);
+      final NeuralNets net = makeNetwork();
+
+      try
+      {
+         measure("loader.nextBlock", "samples/sec", NUM_SAMPLES, new BenchmarkOp()
+         {
+            public double run()
+            {
+               int blockCases = loader.getBlockCases();
+               double sum = 0.0;
+
+               for (int first = 0; first < tests.getCount(); first += blockCases)
+               {
+                  sum += loader.nextBlock().getCount();
+               }
+
+               return sum;
+            }
+         });
+
+         measure("loader.trainStep", "us/sample", 1, new BenchmarkOp()
+         {
+            DataSet block;
+            int sample = 0;
+
+            public double run()
+            {
+               if (sample % loader.getBlockCases() == 0)
+               {
+                  block = loader.nextBlock();
+               }
+
+               block.getSample(sample % loader.getBlockCases(), net.testInput,
+                               net.testOutput);
+               sample = (sample + 1) % tests.getCount();
+
+               net.setInputs();
+               net.forward();
+               net.backward();
+
+               return net.findError();
+            }
+         });
+      } // try
+
+      finally
+      {
+         loader.close();
+      }
+
+      return;
+   } // void benchmarkLoader()
+
+   /*
+    * Times loading the weights: reading the text file with readWeights, the way
+    * setWeights reads "weights.in", reading the binary file with WeightsFile.read,
+    * and mapping it with MappedModel.open. Then times saving them: as text with
+    * printf("%.10f ") for each weight, the way printResults used to, as the same text
+    * with WeightsFile.writeText, and in the binary format with WeightsFile.write.
+    */
+   void benchmarkWeights() throws IOException
+   {
+      if (!isSelected("weights"))
+      {
+         return;
+      }
+
+      final NeuralNets net = new NeuralNets(0);
+
+      measure("weights.readWeights", "loads/sec", 1, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            BufferedReader in = new BufferedReader(new FileReader(weightsFile));
+
+            net.readWeights(in, net.weightskj, net.numElementskj);
+            net.readWeights(in, net.weightsji, net.numElementsji);
+            in.close();
+
+            return net.weightsji[0];
+         }
+      });
+
+      measure("weights.binary", "loads/sec", 1, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            WeightsFile.read(binaryWeightsFile, net.weightskj, net.weightsji);
+
+            return net.weightsji[0];
+         }
+      });
+
+      measure("weights.mapped", "loads/sec", 1, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            return MappedModel.open(binaryWeightsFile, false).weightsji.get(0);
+         }
+      });
+
+      final String savedFile = fixtureDir.resolve("weights.out").toString();
+
+      measure("weights.printf", "saves/sec", 1, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            PrintWriter out = new PrintWriter(new BufferedWriter(new
+                                              FileWriter(savedFile)));
+
+            out.printf("k-j weights: \n");
+
+            for (int kj = 0; kj < net.numElementskj; kj++)
+            {
+               out.printf("%.10f ", net.weightskj[kj]);
+            }
+
+            out.printf("\nj-i weights: ");
+
+            for (int ji = 0; ji < net.numElementsji; ji++)
+            {
+               out.printf("%.10f ", net.weightsji[ji]);
+            }
+
+            out.print("\n");
+            out.close();
+
+            return new File(savedFile).length();
+         }
+      });
+
+      measure("weights.writeText", "saves/sec", 1, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            WeightsFile.writeText(savedFile, net.weightskj, net.weightsji);
+
+            return new File(savedFile).length();
+         }
+      });
+
+      measure("weights.writeBinary", "saves/sec", 1, new BenchmarkOp()
+      {
+         public double run() throws IOException
+         {
+            WeightsFile.write(savedFile, net.weightskj, net.weightsji);
+
+            return new File(savedFile).length();
+         }
+      });
+
+      return;
+   } // void benchmarkWeights()
+
+   /*
+    * Times decoding a DIMENSION by DIMENSION bitmap held in memory, at each bit depth.
+    */
+   void benchmarkDecode() throws IOException
+   {
+      if (!isSelected("decode"))
+      {
+         return;
+      }
+
+      final BitmapDump dibdumper = new BitmapDump(false);
+
+      for (int bitCount : BIT_COUNTS)
+      {
+         final ByteBuffer bitmap = makeBitmap(bitCount, BitmapDump.DIMENSION,
+                                              BitmapDump.DIMENSION, random);
+
+         measure("decode." + bitCount + "bit", "images/sec", 1, new BenchmarkOp()
+         {
+            public double run() throws IOException
+            {
+               return dibdumper.decode(bitmap).getPel(BitmapDump.CENTER,
+                                                      BitmapDump.CENTER);
+            }
+         });
+      }
+
+      return;
+   } // void benchmarkDecode()
+
+   /*
+    * Warms op up, times it for ROUNDS rounds and prints the mean and the best round.
+    * Units ending in "/sec" are printed as a rate, with opsPerCall operations counted
+    * for each call to op; the others are printed as microseconds per operation.
+    * The mean is also returned, in nanoseconds per operation.
+    *
+    * @param name         name of the benchmark
+    * @param unit         unit to print the result in
+    * @param opsPerCall   number of samples, glyphs or images op handles per call
+    * @param op           the operation to time
+    *
+    * @return             mean time per operation, in nanoseconds
+    */
+   double measure(String name, String unit, int opsPerCall, BenchmarkOp op) throws IOException
+   {
+      double[] nanosPerOp = new double[ROUNDS];
+      long start = System.nanoTime();
+
+      try
+      {
+         while (System.nanoTime() - start < WARMUP_NANOS)
+         {
+            sink += op.run();
+         }
+
+         for (int round = 0; round < ROUNDS; round++)
+         {
+            long calls = 0;
+
+            start = System.nanoTime();
+
+            long elapsed = 0;
+
+            while (elapsed < ROUND_NANOS)
+            {
+               sink += op.run();
+               calls++;
+               elapsed = System.nanoTime() - start;
+            }
+
+            nanosPerOp[round] = (double)elapsed / (calls * opsPerCall);
+         } // for (int round = 0; round < ROUNDS; round++)
+      } // try
+
+      catch (IOException e)
+      {
+         throw e;
+      }
+      catch (Exception e)
+      {
+         throw new IOException(name + " failed", e);
+      }
+
+      double mean = 0.0;
+      double best = Double.MAX_VALUE;
+
+      for (int round = 0; round < ROUNDS; round++)
+      {
+         mean += nanosPerOp[round] / ROUNDS;
+         best = Math.min(best, nanosPerOp[round]);
+      }
+
+      if (unit.endsWith("/sec"))
+      {
+         System.out.printf("%-28s %14.1f %14.1f %16s\n", name, NANOS_PER_SECOND / mean,
+                           NANOS_PER_SECOND / best, unit);
+      }
+      else
+      {
+         System.out.printf("%-28s %14.2f %14.2f %16s\n", name, mean / NANOS_PER_MICRO,
+                           best / NANOS_PER_MICRO, unit);
+      }
+
+      return mean;
+   } // double measure(String name, String unit, int opsPerCall, BenchmarkOp op)
+
+   /*
+    * Returns whether the benchmark name was asked for.
+    */
+   boolean isSelected(String name)
+   {
+      return selected.isEmpty() || selected.contains(name);
+   }
+
+   /*
+    * Returns a network with weights drawn from random (between -MAX_WEIGHT / 2.0 and
+    * MAX_WEIGHT / 2.0, like randomizeWeights) and ready to train.
+    */
+   NeuralNets makeNetwork()
+   {
+      NeuralNets net = new NeuralNets(1);
+
+      for (int kj = 0; kj < net.numElementskj; kj++)
+      {
+         net.weightskj[kj] = NeuralNets.MAX_WEIGHT * (random.nextDouble() - 0.5);
+      }
+
+      for (int ji = 0; ji < net.numElementsji; ji++)
+      {
+         net.weightsji[ji] = NeuralNets.MAX_WEIGHT * (random.nextDouble() - 0.5);
+      }
+
+      return net;
+   }
+
+   /*
+    * Returns the pels of a made-up glyph: a blank DIMENSION by DIMENSION image with a
+    * few thick strokes of random gray through the middle, so that about as many pels
+    * are dark as in a scanned character.
+    *
+    * @param random   source of the strokes
+    *
+    * @return         the pels, row by row
+    */
+   byte[] makeGlyph(Random random)
+   {
+      int dimension = BitmapDump.DIMENSION;
+      byte[] glyph = new byte[dimension * dimension];
+      int numStrokes = 2 + random.nextInt(3);
+
+      for (int stroke = 0; stroke < numStrokes; stroke++)
+      {
+         double row = dimension / 4 + random.nextInt(dimension / 2);
+         double col = dimension / 4 + random.nextInt(dimension / 2);
+         double angle = random.nextDouble() * Math.PI;
+         int length = dimension / 4 + random.nextInt(dimension / 3);
+         int width = 3 + random.nextInt(5);
+
+         for (int step = 0; step < length; step++)
+         {
+            for (int across = 0; across < width; across++)
+            {
+               int iRow = (int)(row + step * Math.sin(angle) + across * Math.cos(angle));
+               int iCol = (int)(col + step * Math.cos(angle) - across * Math.sin(angle));
+
+               if (iRow >= 0 && iRow < dimension && iCol >= 0 && iCol < dimension)
+               {
+                  glyph[iRow * dimension + iCol] = (byte)(128 + random.nextInt(128));
+               }
+            }
+         } // for (int step = 0; step < length; step++)
+      } // for (int stroke = 0; stroke < numStrokes; stroke++)
+
+      return glyph;
+   } // byte[] makeGlyph(Random random)
+
+   /*
+    * Returns the expected outputs for a random character number from 1 to 52, in
+    * binary the way the label files give them.
+    */
+   float[] makeTarget(Random random)
+   {
+      float[] target = new float[NeuralNets.NUM_OUTPUTS];
+      int character = 1 + random.nextInt(52);
+
+      for (int i = 0; i < NeuralNets.NUM_OUTPUTS; i++)
+      {
+         target[i] = (character >> (NeuralNets.NUM_OUTPUTS - 1 - i)) & 1;
+      }
+
+      return target;
+   }
+
+   /*
+    * Returns a whole bitmap file in memory, with random pels (and a random color table
+    * for bitCount 8 or less).
+    *
+    * The pel data is made big enough for two bytes per pel, since createArray reads
+    * 8 bit bitmaps that way.
+    *
+    * @param bitCount   bits per pel (biBitCount)
+    * @param width      width in pels
+    * @param height     height in pels
+    * @param random     source of the pels and colors
+    *
+    * @return           the bitmap file, little endian
+    */
+   ByteBuffer makeBitmap(int bitCount, int width, int height, Random random)
+   {
+      int numColors = bitCount <= 8 ? 1 << bitCount : 0;
+      int rowBytes = (width * bitCount + 31) / 32 * 4;
+      int dataBytes = height * Math.max(rowBytes, 2 * width + BitmapDump.QUAD);
+      int offBits = FILE_HEADER_BYTES + INFO_HEADER_BYTES + numColors * BitmapDump.QUAD;
+
+      ByteBuffer bitmap = ByteBuffer.allocate(offBits + dataBytes)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+
+      bitmap.putShort((short)BitmapDump.BM).putInt(offBits + dataBytes)   // file header
+            .putShort((short)0).putShort((short)0).putInt(offBits);
+
+      bitmap.putInt(INFO_HEADER_BYTES).putInt(width).putInt(height)       // info header
+            .putShort((short)1).putShort((short)bitCount).putInt(0).putInt(dataBytes)
+            .putInt(0).putInt(0).putInt(0).putInt(0);
+
+      byte[] rest = new byte[numColors * BitmapDump.QUAD + dataBytes];    // colors, pels
+
+      random.nextBytes(rest);
+      bitmap.put(rest);
+      bitmap.flip();
+
+      return bitmap;
+   } // ByteBuffer makeBitmap(int bitCount, int width, int height, Random random)
+
+   /*
+    * Writes the weights of net to fileName in the "weights.in" format: the k-j weights
+    * on the first line and the j-i weights on the second.
+    */
+   void writeWeights(NeuralNets net, String fileName) throws IOException
+   {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName)));
+
+      for (int kj = 0; kj < net.numElementskj; kj++)
+      {
+         out.print(net.weightskj[kj]);
+         out.print(' ');
+      }
+
+      out.print('\n');
+
+      for (int ji = 0; ji < net.numElementsji; ji++)
+      {
+         out.print(net.weightsji[ji]);
+         out.print(' ');
+      }
+
+      out.print('\n');
+      out.close();
+
+      return;
+   }
+
+   /*
+    * Deletes the fixture files and their directory.
+    */
+   void deleteFixtures() throws IOException
+   {
+      DirectoryStream<Path> files = Files.newDirectoryStream(fixtureDir);
+
+      for (Path file : files)
+      {
+         Files.delete(file);
+      }
+
+      files.close();
+      Files.delete(fixtureDir);
+
+      return;
+   }
+
+}  // public class Benchmarks
+
+/*
+ * One operation for Benchmarks.measure to time. Whatever it returns is kept, so that
+ * the work that goes into it cannot be optimized away.
+ */
+interface BenchmarkOp
+{
+   double run() throws Exception;
+}
@@ -5,19 +5,24 @@
  * 
  * This file contains the class BitmapDump which will open bitmaps and extract the bits
  * as an array of integers. This file also contains the final class RgbQuad that holds
- * the three int values for red, green, and blue, as well as an int value reserved.
+ * the three int values for red, green, and blue, as well as an int value reserved, and
+ * the final class TextSampleWriter that writes converted bitmaps as lines of text.
+ * The decoded bitmaps are returned as BitmapImage objects (see BitmapImage.java).
  * 
  * To use, run the main method. The default bitmap input file name is "test1.bmp" 
- * and the default bitmap output file name is "test2.bmp". The program will write
- * the input bitmap out to imageArray and print imageArray out to the output 
+ * and the default bitmap output file name is "test2.bmp". The program will decode
+ * the input bitmap into a BitmapImage and print its pels out to the output 
  * bitmap file. If the user wishes to choose the input and output file names, 
  * put an array of two strings as the parameter of the main function. The 
  * first element should be the desired input name and the second should be 
- * the desired output name.
+ * the desired output name. To convert a whole directory of bitmaps into one
+ * NeuralNets input file, run the main method with "-batch" as the first element
+ * (see the main method).
  * 
  * Classes in the file:
  *  BitmapDump
  *  RgbQuad
+ *  TextSampleWriter
  *  
  * Methods in this file:
  *  int     swapInt(int v)
@@ -27,16 +32,26 @@
  *  RgbQuad pelToRGB(int pel)
  *  int     rgbToPel(int red, int green, int blue)
  *  int     colorToGrayscale(int pel)
+ *  int     colorTo8BitGrayscale(int pel)
+ *  int[]   findCOM(BitmapImage image)
+ *  int[]   findDifferenceCOM(int[] centerOfMass)
+ *  BitmapImage shiftImage(BitmapImage image, int[] deltaCOM)
+ *  BitmapImage centerImage(BitmapImage image)
  *  void    main(String[] args)
- *  public void readColorTable(int numberOfColors, int[] colorPallet, int[] rgbQuad, 
- *                             DataInputStream in)
- *  public void readFileHeader(DataInputStream in)
- *  public void readInfoHeader(DataInputStream in)
- *  public int setNumColors()
- *  public int[] createArray(DataInputStream in, int i, int j, int k, int[] colorPallet, 
-                             int[] rgbQuad)
- *  public void printImageBytes(int iBytesPerRow)
- *  public void bitmapToFile(int iDeadBytes, String outFileName, int[] rgbQuad)
+ *  public BitmapImage decode(String inFileName)
+ *  public BitmapImage decode(ByteBuffer bitmap)
+ *  public void runBatch(String inPath, String outFileName, String labelFileName,
+ *                       int numWorkers)
+ *  public List<Path> listBitmaps(Path inPath)
+ *  public Map<String, String> readLabels(String labelFileName)
+ *  public String findLabel(Map<String, String> labels, String fileName)
+ *  public ByteBuffer readBitmapFile(String fileName)
+ *  public void readColorTable(int numberOfColors, int[] colorPallet, ByteBuffer in)
+ *  public int setNumColors(BitmapHeader header)
+ *  public int[] createArray(ByteBuffer in, BitmapHeader header, int[] colorPallet)
+ *  public void printImageBytes(BitmapImage image)
+ *  public void bitmapToFile(BitmapImage image, String outFileName)
+ *  public void writeImageLine(BitmapImage image, Writer out)
  *  
  * Notes on reading bitmaps:
  *
@@ -47,6 +62,15 @@
  * unsigned byte and unsigned short, but the unsigned int still poses a problem.
  * We don't do any math with the unsigned int values, so we won't see a problem.
  *
+ * The whole file is read into memory with one bulk read and wrapped in a little endian
+ * ByteBuffer, so the headers can be read without swapping and the pels are decoded
+ * straight out of the buffer one scan line at a time. Only the output side still
+ * needs swapInt and swapShort.
+ *
+ * A BitmapDump holds no state about the bitmap being decoded -- everything lives in 
+ * local variables and in the BitmapImage that is returned -- so one BitmapDump can 
+ * decode many bitmaps at the same time from different threads.
+ *
  * Bitmaps on disk have the following basic structure
  *  BITMAPFILEHEADER (may be missing if file is not saved properly by the creating application)
  *  BITMAPINFO -
@@ -65,13 +89,16 @@
 
 import java.io.*;
 import java.lang.Exception.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
 /*
  * This BitmapDump class gives the capability to open bitmaps and extract the bits as an array 
  * of integers if the given file is a bitmap file type. The default bitmap input file name is 
  * "test1.bmp" and the default bitmap output file name is "test2.bmp". 
  * 
- * The main program will extract the input bitmap by its pixel elements to imageArray and 
- * print imageArray out to an output bitmap file. 
+ * The main program will extract the input bitmap by its pixel elements to a BitmapImage and 
+ * print its pels out to an output bitmap file. 
  * 
  * If the user wishes to choose the input and output file names, put an 
  * array of two strings as the parameter of the main function. The first element 
@@ -114,8 +141,6 @@ public class BitmapDump
    static final int RED = 2;
    static final int RESERVED = 3;
    
-   static final int BYTES_PER_ROW = 0;
-   static final int DEAD_BYTES = 1;
    static final int NUM_OUTPUTS = 2;
    
    static final int BM = 0x4D42;
@@ -140,43 +165,35 @@ public class BitmapDump
    static final int ROW_INDEX = 0;
    static final int COL_INDEX = 1;
    
-   /*
-    * BITMAPFILEHEADER
-    */
-   static int bmpFileHeader_bfType;          // WORD
-   static int bmpFileHeader_bfSize;          // DWORD
-   static int bmpFileHeader_bfReserved1;     // WORD
-   static int bmpFileHeader_bfReserved2;     // WORD
-   static int bmpFileHeader_bfOffBits;       // DWORD
+   static final String BATCH_FLAG = "-batch";
+   static final String WORKERS_FLAG = "-workers";
+   static final int NUM_LABEL_BITS = 6;      // NeuralNets.NUM_OUTPUTS
+   
+   static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
    
    /*
-    * BITMAPINFOHEADER
+    * Whether the headers are printed to the console as they are read. Turned off 
+    * for batch runs.
     */
-   static int bmpInfoHeader_biSize;          // DWORD
-   static int bmpInfoHeader_biWidth;         // LONG
-   static int bmpInfoHeader_biHeight;        // LONG
-   static int bmpInfoHeader_biPlanes;        // WORD
-   static int bmpInfoHeader_biBitCount;      // WORD
-   static int bmpInfoHeader_biCompression;   // DWORD
-   static int bmpInfoHeader_biSizeImage;     // DWORD
-   static int bmpInfoHeader_biXPelsPerMeter; // LONG
-   static int bmpInfoHeader_biYPelsPerMeter; // LONG
-   static int bmpInfoHeader_biClrUsed;       // DWORD
-   static int bmpInfoHeader_biClrImportant;  // DWORD
-   
+   final boolean printHeaders;
    
    /*
-    * The true color pels
+    * Creates a BitmapDump that prints the headers of every bitmap it decodes.
     */
-   static int[][] imageArray;
+   public BitmapDump()
+   {
+      this(true);
+   }
    
-   /* 
-    * If bmpInfoHeader_biHeight is negative then the image is a top down DIB. 
-    * This flag is used to identify it as such. Note that when the image is saved, 
-    * it will be written out in the usual inverted format with a positive 
-    * bmpInfoHeader_biHeight value.
+   /*
+    * Creates a BitmapDump.
+    * 
+    * @param printHeaders   whether to print the headers of each bitmap to the console
     */
-   static boolean topDownDIB = false;
+   public BitmapDump(boolean printHeaders)
+   {
+      this.printHeaders = printHeaders;
+   }
    
    /*
     * This method is used to go between little and big endian integer formats.
@@ -302,8 +319,12 @@ public class BitmapDump
     * 
     * x_centerofmass = sum(x_i*grayscale_i)/sum(grayscale_i)
     * y_centerofmass = sum(y_i*grayscale_i)/sum(grayscale_i)
+    * 
+    * @param image   decoded bitmap
+    * 
+    * @return        row and column of the center of mass
     */
-   public int[] findCOM()
+   public int[] findCOM(BitmapImage image)
    {
       double rowSum, colSum, graySum;
       int rowCOM, colCOM;
@@ -311,14 +332,16 @@ public class BitmapDump
       
       rowSum = colSum = graySum = 0;
       
-      for (int iRow = 0; iRow < bmpInfoHeader_biHeight; iRow++)
+      for (int iRow = 0; iRow < image.getHeight(); iRow++)
       {
-         for (int iColumn = 0; iColumn < bmpInfoHeader_biWidth; iColumn++)
+         for (int iColumn = 0; iColumn < image.getWidth(); iColumn++)
          {
-            rowSum += iRow * imageArray[iRow][iColumn];
-            colSum += iColumn * imageArray[iRow][iColumn];
+            int pel = image.getPel(iRow, iColumn);
+            
+            rowSum += iRow * pel;
+            colSum += iColumn * pel;
             
-            graySum += imageArray[iRow][iColumn];
+            graySum += pel;
          }
       }
       
@@ -346,7 +369,7 @@ public class BitmapDump
    }
    
    /*
-    * Returns imageArray with the image shifted so that the 
+    * Returns a new image with the image shifted so that the 
     * center of mass is at the center of the 101 by 101-pixel
     * image, at (50, 50). 
     * 
@@ -355,14 +378,16 @@ public class BitmapDump
     * on the shifted image wherever there is no corresponding pixel 
     * in (out of bounds of) the unshifted image.
     * 
+    * @param image      decoded bitmap
+    * @param deltaCOM   rows and columns to shift the image by
     * 
-    * At the end, the new image array will be looped through, and
-    * any values that are still null will be set to be the dark 
-    * background.
+    * @return           the shifted image, with the same headers as image
     */
-   public void shiftImage(int[] deltaCOM)
+   public BitmapImage shiftImage(BitmapImage image, int[] deltaCOM)
    {
-      int[][] newImageArray = new int[bmpInfoHeader_biHeight][bmpInfoHeader_biWidth];
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] newPels = new int[height * width];
       int startRow, endRow, startCol, endCol;
       
       startRow = endRow = startCol = endCol = 0;
@@ -370,91 +395,102 @@ public class BitmapDump
       if(deltaCOM[ROW_INDEX] > 0)
       {
          startRow = 0;
-         endRow = bmpInfoHeader_biHeight - deltaCOM[ROW_INDEX];
+         endRow = height - deltaCOM[ROW_INDEX];
       }
       else
       {
          startRow = -deltaCOM[ROW_INDEX];
-         endRow = bmpInfoHeader_biHeight;
+         endRow = height;
       }
       
       if(deltaCOM[COL_INDEX] > 0)
       {
          startCol = 0;
-         endCol = bmpInfoHeader_biWidth - deltaCOM[COL_INDEX];
+         endCol = width - deltaCOM[COL_INDEX];
       }
       else
       {
          startCol = -deltaCOM[COL_INDEX];
-         endCol = bmpInfoHeader_biWidth;
+         endCol = width;
       }
       
       for (int iRow = startRow; iRow < endRow; iRow++)
       {
+         int newRowStart = (iRow + deltaCOM[ROW_INDEX]) * width + deltaCOM[COL_INDEX];
+         
          for (int iColumn = startCol; iColumn < endCol; iColumn++)
          {
-            newImageArray[iRow + deltaCOM[ROW_INDEX]][iColumn + deltaCOM[COL_INDEX]]
-               = imageArray[iRow][iColumn];
+            newPels[newRowStart + iColumn] = image.getPel(iRow, iColumn);
          }
       }
       
-      imageArray = newImageArray;
-      
-      return;
+      return new BitmapImage(image.getHeader(), newPels);
    }
    
    /*
-    * This method runs the program. First, it reads in the file header from the file with
-    * the default name "bitmap.1" and converts it to big endian. From the header, the
-    * program determines whether the file is indeed a bitmap (bmpFileHeader_bfType == BM).
-    * If not, the program does not continue and prints to the console that the file is not
-    * a bitmap type file. If the file is a bitmap, the info header is read in and 
-    * converted to big endian. The height of the bmp is set to positive if the given 
-    * height in the header is negative so that it can be used to create the array.
-    * The number of colors is determined based based on information from the file info
-    * header. The color table is read in, and then the bitmap pixel elements are 
-    * converted into an array of integers. Finally, the program prints the array
-    * if it is small enough and creates an output bitmap file that should be the same
-    * as the input if the program is implemented correctly.
+    * Returns a new image with the center of mass of image moved to the center
+    * (see findCOM, findDifferenceCOM and shiftImage).
     * 
+    * @param image   decoded bitmap
     * 
-    * The variable iDeadBytes serves to count the number of dead
-    * bytes needed to ensure that the number of bytes per row is a multiple of four.
+    * @return        the centered image
+    */
+   public BitmapImage centerImage(BitmapImage image)
+   {
+      return shiftImage(image, findDifferenceCOM(findCOM(image)));
+   }
+   
+   /*
+    * This method runs the program. The named bitmap is decoded by decode, which 
+    * checks that the file is indeed a bitmap, reads in the headers and the color table 
+    * and converts the bitmap pixel elements into a BitmapImage. The image is then 
+    * shifted so that its center of mass is in the middle. Finally, the program prints 
+    * the pels if the image is small enough and creates an output file with the pixel 
+    * elements of the image.
+    * 
+    * If the first argument is "-batch", the program instead converts a whole directory
+    * (or a manifest listing the bitmaps one per line) into a single input file for 
+    * NeuralNets (see runBatch):
+    * 
+    *    java BitmapDump -batch <directory or manifest> <output file> [label file]
+    *                           [-workers <threads>]
+    * 
+    * -workers sets the number of threads for each of the decode and center stages of
+    * the batch pipeline (see BitmapPipeline); it defaults to the number of processors.
     * 
     */
    public static void main(String[] args) throws IOException
    {
       String inFileName, outFileName;
-      int i, j, k;
-      int numberOfColors;
-      int pel;
-      int iBytesPerRow, iPelsPerRow, iDeadBytes;
-      
-      i = j = k = iBytesPerRow = iDeadBytes = 0;  // initialization
+      BitmapImage image;
       
-      /* 
-       * int[] rgbQuad -- array containing values which describes a color
-       * consisting of relative intensities of red, green, and blue
-       * 
-       * rgbQuad[BLUE] = blue, rgbQuad[GREEN] = green, 
-       * rgbQuad[RED] = red, rgbQuad[RESERVED] = reserved
-       *            
-       * Reserved slot not used in the method
-       * 
-       * BLUE     = 0    - index for blue integer
-       * GREEN    = 1    - index for green integer
-       * RED      = 2    - index for red integer
-       * RESERVED = 3    - index for reserved integer
-       */
-      int[] rgbQuad = new int[QUAD]; 
-      
-      /*
-       * Creates the color table, reserving space for the largest possible
-       * color table
-       * 
-       * final int COLOR_MEM = 256;
-       */
-      int[] colorPallet = new int[COLOR_MEM];
+      if (args.length > 0 && args[0].equals(BATCH_FLAG))
+      {
+         List<String> batchArgs = new ArrayList<String>();
+         int numWorkers = Runtime.getRuntime().availableProcessors();
+         
+         for (int arg = 1; arg < args.length; arg++)
+         {
+            if (args[arg].equals(WORKERS_FLAG) && arg + 1 < args.length)
+               numWorkers = Integer.parseInt(args[++arg]);
+            else
+               batchArgs.add(args[arg]);
+         }
+         
+         if (batchArgs.size() < 2 || numWorkers < 1)
+         {
+            System.err.println("Usage: java BitmapDump " + BATCH_FLAG + 
+                               " <directory or manifest> <output file> [label file]" +
+                               " [" + WORKERS_FLAG + " <threads>]");
+            return;
+         }
+         
+         new BitmapDump(false).runBatch(batchArgs.get(0), batchArgs.get(1), 
+                                        batchArgs.size() > 2 ? batchArgs.get(2) : null,
+                                        numWorkers);
+         
+         return;
+      }
 
       BitmapDump dibdumper = new BitmapDump(); // needed to get to the byte- 
                                                // swapping methods
@@ -471,105 +507,365 @@ public class BitmapDump
 
       try // lots of things can go wrong when doing file i/o
       {
-           
-         /*
-          * Open the file that is the first command line parameter
-          */
-         FileInputStream fstream = new FileInputStream(inFileName);
-
-            
-         DataInputStream in = new DataInputStream(fstream); // Convert our input stream to 
-                                                            // a DataInputStream
+         image = dibdumper.centerImage(dibdumper.decode(inFileName));
+      } // try
+      
+      catch (Exception e)
+      {
+         System.err.println("File input error" + e);
+         return;
+      }
          
-            
-         dibdumper.readFileHeader(in);                      // Read and convert bitmap 
-                                                            // file header to big endian
+      dibdumper.printImageBytes(image);
          
-         if(bmpFileHeader_bfType == BM)                     //Confirms that file
-                                                            //is a bitmap type
+      dibdumper.bitmapToFile(image, outFileName);
+     
+      return;
+   }
+   
+   /*
+    * Decodes the bitmap in the file inFileName (see decode(ByteBuffer)). The whole 
+    * file is read in with one bulk read first.
+    * 
+    * @param inFileName    name of the bitmap file
+    * 
+    * @return              the decoded (not yet centered) image
+    */
+   public BitmapImage decode(String inFileName) throws IOException
+   {
+      return decode(readBitmapFile(inFileName));
+   }
+   
+   /*
+    * Decodes a bitmap held in memory. First, it reads in the file header. From the 
+    * header, the program determines whether the file is indeed a bitmap 
+    * (bfType == BM). If not, an IOException is thrown saying that the file is not a
+    * bitmap type file. If the file is a bitmap, the info header is read in. The 
+    * number of colors is determined based based on information from the file info 
+    * header. The color table is read in, and then the bitmap pixel elements are 
+    * converted into an array of grayscale integers.
+    * 
+    * The bitmap buffer itself is not changed (not even its position), so the same 
+    * buffer can be decoded again or by several threads at once.
+    * 
+    * @param bitmap   the entire bitmap file, starting at its current position
+    * 
+    * @return         the decoded (not yet centered) image
+    */
+   public BitmapImage decode(ByteBuffer bitmap) throws IOException
+   {
+      int numberOfColors;
+      
+      /*
+       * Creates the color table, reserving space for the largest possible
+       * color table
+       * 
+       * final int COLOR_MEM = 256;
+       */
+      int[] colorPallet = new int[COLOR_MEM];
+      
+      ByteBuffer in = bitmap.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+      
+      BitmapHeader header = new BitmapHeader(in);   // Read bitmap file and info headers
+      
+      if (printHeaders)
+      {
+         header.printHeader();
+      }
+      
+      /*
+       * Determine the number of colors in the default color table
+       */
+      numberOfColors = setNumColors(header);
+   
+      /*
+       * biClrUsed -  Specifies the number of color indexes in the color table that 
+       * are actually used by the bitmap.
+       * 
+       *     If this value is zero, the bitmap uses the maximum number of colors 
+       *     corresponding to the value of the biBitCount member for the compression mode 
+       *     specified by biCompression.
+       *     
+       *     If biClrUsed is nonzero and the biBitCount member is less than 16, the 
+       *     biClrUsed  member specifies the actual number of colors the graphics 
+       *     engine or device driver accesses.
+       *     
+       *     If biBitCount is 16 or greater, the biClrUsed member specifies the size 
+       *     of the color table used to optimize performance of the system color palettes.
+       *     
+       *     If biBitCount equals 16 or 32, the optimal color palette starts immediately 
+       *     following the three DWORD masks.
+       *     
+       *     If the bitmap is a packed bitmap (a bitmap in which the bitmap array 
+       *     immediately follows the BITMAPINFO header and is referenced by a single 
+       *     pointer), the biClrUsed member must be either zero or the actual size of 
+       *     the color table.
+       */
+      if (header.biClrUsed > 0) 
+      {
+         numberOfColors = header.biClrUsed;
+      }
+      
+      /*
+       * The following loop reads in the color table (or not if numberOfColors
+       * is zero).
+       */
+      readColorTable(numberOfColors, colorPallet, in);
+      
+      return new BitmapImage(header, createArray(in, header, colorPallet));
+   }
+   
+   /*
+    * Converts many bitmaps in one run into a single file in the format NeuralNets reads.
+    * inPath is either a directory, in which case every .bmp file in it is converted
+    * in name order, or a manifest file listing one bitmap path per line (relative paths
+    * are taken relative to the manifest's directory; blank lines are skipped).
+    * 
+    * Without a label file, the output has the format of "OCR_inputset.in": the number 
+    * of bitmaps on the first line followed by one line of inputs per bitmap.
+    * 
+    * With a label file, the output has the format of "OCR_trainingset.in": the number 
+    * of bitmaps on the first line followed by one line of inputs and one line of 
+    * expected outputs per bitmap. Each line of the label file is a bitmap file name 
+    * (with or without the extension) followed either by the character number, which is
+    * written out as NUM_LABEL_BITS binary digits (1 gives "0 0 0 0 0 1"), or by the 
+    * expected outputs themselves. Bitmaps without a label are skipped.
+    * 
+    * If outFileName ends in ".bin", the set is written in the binary format instead 
+    * (see DataSetFormat), with one byte per pel and the expected outputs as floats. 
+    * This is about a seventh of the size of the text and much faster for NeuralNets 
+    * to read.
+    * 
+    * Bitmaps that cannot be read or that are not DIMENSION by DIMENSION pels are 
+    * skipped with a warning, so one bad scan does not stop the whole run. Since the 
+    * count has to come first, the text lines are written to outFileName + ".tmp" and 
+    * copied in after the count at the end. Each bitmap is centered (see centerImage) before 
+    * it is written out.
+    * 
+    * The bitmaps are read, decoded, centered and written out by a BitmapPipeline, 
+    * with numWorkers threads each decoding and centering. The lines come out in the 
+    * same order as with a single thread. The throughput of each stage of the pipeline 
+    * is printed at the end.
+    * 
+    * @param inPath          directory of bitmaps or manifest file listing them
+    * @param outFileName     name of the combined output file
+    * @param labelFileName   name of the label file, or null for an input set
+    * @param numWorkers      number of threads for each of the decode and center stages
+    */
+   public void runBatch(String inPath, String outFileName, String labelFileName,
+                        int numWorkers) throws IOException
+   {
+      List<Path> listed = listBitmaps(Paths.get(inPath));
+      List<Path> bitmaps = new ArrayList<Path>();
+      List<String> targets = null;
+      Map<String, String> labels = null;
+      int numWritten = 0;
+      
+      if (labelFileName != null)
+      {
+         labels = readLabels(labelFileName);
+         targets = new ArrayList<String>();
+      }
+      
+      for (Path bitmap : listed)
+      {
+         if (labels != null)
          {
+            String target = findLabel(labels, bitmap.getFileName().toString());
             
-            dibdumper.readInfoHeader(in);                   // Read and convert bitmap 
-                                                            // info header to big endian
-            
-            /* 
-             * Since we use the height to crate arrays, it cannot have a negative a value. 
-             * If the height field is less than zero, then make it positive and set the 
-             * topDownDIB flag to TRUE so we know that the image is
-             * stored on disc upsidedown (which means it is actually rightside up).
-             */
-            if (bmpInfoHeader_biHeight < 0)
+            if (target == null)
             {
-               topDownDIB = true;
-               bmpInfoHeader_biHeight = -bmpInfoHeader_biHeight;
+               System.err.println("No label for " + bitmap + ", skipped");
+               continue;
             }
             
-            /*
-             * Determine the number of colors in the default color table
-             */
-            numberOfColors = dibdumper.setNumColors();
+            targets.add(target);
+         }
+         
+         bitmaps.add(bitmap);
+      } // for (Path bitmap : listed)
+      
+      BitmapPipeline pipeline = new BitmapPipeline(this, numWorkers, 
+                                                   BitmapPipeline.DEFAULT_QUEUE_CAPACITY);
+      
+      if (DataSetFormat.isBinaryFile(outFileName))
+      {
+         int outputDim = 0;
+         
+         if (targets != null && !targets.isEmpty())
+         {
+            outputDim = new StringTokenizer(targets.get(0)).countTokens();
+         }
+         
+         DataSetWriter out = new DataSetWriter(outFileName, DIMENSION * DIMENSION, 
+                                               outputDim);
+         
+         try
+         {
+            pipeline.run(bitmaps, targets, out);
+         }
+         finally
+         {
+            numWritten = out.close();
+         }
+      } // if (DataSetFormat.isBinaryFile(outFileName))
+      
+      else
+      {
+         Path tmpFile = Paths.get(outFileName + ".tmp");
+         Writer body = Files.newBufferedWriter(tmpFile);
+         
+         try
+         {
+            numWritten = pipeline.run(bitmaps, targets, new TextSampleWriter(this, body));
+         }
+         finally
+         {
+            body.close();
+         }
+         
+         OutputStream out = new BufferedOutputStream(new FileOutputStream(outFileName));
+         out.write((numWritten + "\n").getBytes());
+         Files.copy(tmpFile, out);
+         out.close();
+         Files.delete(tmpFile);
+      } // else
+      
+      pipeline.printThroughput();
+      System.out.printf("Wrote %d of %d bitmaps to %s\n", numWritten, listed.size(), 
+                        outFileName);
+      
+      return;
+   } // public void runBatch(String inPath, String outFileName, String labelFileName)
+   
+   /*
+    * Returns the bitmaps to convert in a batch run: every .bmp file in inPath, sorted by 
+    * name, if inPath is a directory, or else the paths listed in the manifest inPath.
+    * 
+    * @param inPath   directory of bitmaps or manifest file
+    * 
+    * @return         paths of the bitmaps in the order they should be written out
+    */
+   public List<Path> listBitmaps(Path inPath) throws IOException
+   {
+      List<Path> bitmaps = new ArrayList<Path>();
+      
+      if (Files.isDirectory(inPath))
+      {
+         DirectoryStream<Path> dir = Files.newDirectoryStream(inPath, "*.{bmp,BMP}");
          
-            /*
-             * biClrUsed -  Specifies the number of color indexes in the color table that 
-             * are actually used by the bitmap.
-             * 
-             *     If this value is zero, the bitmap uses the maximum number of colors 
-             *     corresponding to the value of the biBitCount member for the compression mode 
-             *     specified by biCompression.
-             *     
-             *     If biClrUsed is nonzero and the biBitCount member is less than 16, the 
-             *     biClrUsed  member specifies the actual number of colors the graphics 
-             *     engine or device driver accesses.
-             *     
-             *     If biBitCount is 16 or greater, the biClrUsed member specifies the size 
-             *     of the color table used to optimize performance of the system color palettes.
-             *     
-             *     If biBitCount equals 16 or 32, the optimal color palette starts immediately 
-             *     following the three DWORD masks.
-             *     
-             *     If the bitmap is a packed bitmap (a bitmap in which the bitmap array 
-             *     immediately follows the BITMAPINFO header and is referenced by a single 
-             *     pointer), the biClrUsed member must be either zero or the actual size of 
-             *     the color table.
-             */
-            if (bmpInfoHeader_biClrUsed > 0) 
+         for (Path bitmap : dir)
+         {
+            bitmaps.add(bitmap);
+         }
+         
+         dir.close();
+         Collections.sort(bitmaps);
+      }
+      else
+      {
+         Path manifestDir = inPath.toAbsolutePath().getParent();
+         
+         for (String line : Files.readAllLines(inPath))
+         {
+            line = line.trim();
+            
+            if (line.length() > 0)
             {
-               numberOfColors = bmpInfoHeader_biClrUsed;
+               bitmaps.add(manifestDir.resolve(line));
             }
-            
-            /*
-             * The following loop reads in the color table (or not if numberOfColors
-             * is zero).
-             */
-            dibdumper.readColorTable(numberOfColors, colorPallet, rgbQuad, in);
-            
-            /*
-             * dataArray is an array holding iBytesPerRow and iDeadBytes
-             */
-            int dataArray[] = dibdumper.createArray(in, i, j, k, colorPallet, rgbQuad);
-            iBytesPerRow = dataArray[BYTES_PER_ROW];
-            iDeadBytes = dataArray[DEAD_BYTES];
-            
-            in.close();
-            fstream.close();
          }
+      } // else
+      
+      return bitmaps;
+   }
+   
+   /*
+    * Reads the label file for a batch run into a map from bitmap file name to the line
+    * of expected outputs. A line with a single number after the name is expanded to 
+    * NUM_LABEL_BITS binary digits, most significant first; otherwise the rest of the 
+    * line is used as it is.
+    * 
+    * @param labelFileName    name of the label file
+    * 
+    * @return                 map from bitmap file name to expected output line
+    */
+   public Map<String, String> readLabels(String labelFileName) throws IOException
+   {
+      Map<String, String> labels = new HashMap<String, String>();
+      
+      for (String line : Files.readAllLines(Paths.get(labelFileName)))
+      {
+         StringTokenizer st = new StringTokenizer(line);
+         
+         if (st.countTokens() < 2) continue;   // blank or unlabeled line
+         
+         String name = st.nextToken();
+         StringBuilder target = new StringBuilder();
          
+         if (st.countTokens() == 1)
+         {
+            int label = Integer.parseInt(st.nextToken());
+            
+            for (int bit = NUM_LABEL_BITS - 1; bit >= 0; --bit)
+            {
+               target.append((label >> bit) & 0x01);
+               if (bit > 0) target.append(' ');
+            }
+         }
          else
          {
-            throw new IOException("Not a bitmap file type.");
+            target.append(st.nextToken());
+            
+            while (st.hasMoreTokens())
+            {
+               target.append(' ').append(st.nextToken());
+            }
          }
-      } // try
+         
+         labels.put(name, target.toString());
+      } // for (String line : Files.readAllLines(Paths.get(labelFileName)))
       
-      catch (Exception e)
+      return labels;
+   }
+   
+   /*
+    * Looks up the expected outputs for a bitmap, first by its full file name and then
+    * by the file name without its extension.
+    * 
+    * @param labels     map from readLabels
+    * @param fileName   file name of the bitmap (without the directory)
+    * 
+    * @return           expected output line, or null if the bitmap has no label
+    */
+   public String findLabel(Map<String, String> labels, String fileName)
+   {
+      String target = labels.get(fileName);
+      int dot = fileName.lastIndexOf('.');
+      
+      if (target == null && dot > 0)
       {
-         System.err.println("File input error" + e);
+         target = labels.get(fileName.substring(0, dot));
       }
-         
-      dibdumper.printImageBytes(iBytesPerRow);
-         
-      dibdumper.bitmapToFile(iDeadBytes, outFileName, rgbQuad);
-     
-      return;
+      
+      return target;
+   }
+   
+   /*
+    * Reads the whole bitmap file into memory with a single bulk read and returns it
+    * wrapped in a ByteBuffer positioned at the start of the file. The buffer is set to 
+    * little endian so the multi-byte header values come out in the right order 
+    * without any byte swapping.
+    * 
+    * @param fileName   name of the bitmap file to read
+    * 
+    * @return           little endian ByteBuffer holding the entire file
+    */
+   public ByteBuffer readBitmapFile(String fileName) throws IOException
+   {
+      byte[] fileBytes = Files.readAllBytes(Paths.get(fileName));
+      
+      return ByteBuffer.wrap(fileBytes).order(ByteOrder.LITTLE_ENDIAN);
    }
    
    /*
@@ -580,19 +876,20 @@ public class BitmapDump
     * 
     * @param numberOfColors   number of colors in the color table
     * @param colorPallet      array where the color table is stored
-    * @param rgbQuad          stores the RGB values
-    * @param in               DataInputStream from the input file
+    * @param in               ByteBuffer holding the input file
     * 
     */
-   public void readColorTable(int numberOfColors, int[] colorPallet, int[] rgbQuad, 
-                              DataInputStream in) throws IOException
+   public void readColorTable(int numberOfColors, int[] colorPallet, ByteBuffer in) 
+                              throws IOException
    {
+      int[] rgbQuad = new int[QUAD];   // stores the RGB values
+      
       for (int i = 0; i < numberOfColors; ++i)
       {
-         rgbQuad[BLUE]      = in.readUnsignedByte(); // lowest byte in the color
-         rgbQuad[GREEN]     = in.readUnsignedByte();
-         rgbQuad[RED]       = in.readUnsignedByte(); // highest byte in the color
-         rgbQuad[RESERVED]  = in.readUnsignedByte();
+         rgbQuad[BLUE]      = in.get() & 0xFF; // lowest byte in the color
+         rgbQuad[GREEN]     = in.get() & 0xFF;
+         rgbQuad[RED]       = in.get() & 0xFF; // highest byte in the color
+         rgbQuad[RESERVED]  = in.get() & 0xFF;
       
          /*
           * Build the color from the RGB values. Since we declared the rgbQuad 
@@ -611,231 +908,19 @@ public class BitmapDump
       return;
    }
    
-   /*
-    * Read in BITMAPFILEHEADER and convert it to big endian.
-    * 
-    * bfType
-    *    Specifies the file type. It must be set to the signature word BM (0x4D42) to 
-    *    indicate bitmap.
-    * bfSize
-    *    Specifies the size, in bytes, of the bitmap file.
-    * bfReserved1
-    *    Reserved; set to zero
-    * bfReserved2
-    *    Reserved; set to zero
-    * bfOffBits
-    *    Specifies the offset, in bytes, from the BITMAPFILEHEADER structure to the 
-    *    bitmap bits
-    *    
-    * @param in    DataInputStream for the input bitmap
-    */
-   public void readFileHeader(DataInputStream in) throws IOException
-   {
-      bmpFileHeader_bfType      = this.swapShort(in.readUnsignedShort());    // WORD
-      bmpFileHeader_bfSize      = this.swapInt(in.readInt());                // DWORD
-      bmpFileHeader_bfReserved1 = this.swapShort(in.readUnsignedShort());    // WORD
-      bmpFileHeader_bfReserved2 = this.swapShort(in.readUnsignedShort());    // WORD
-      bmpFileHeader_bfOffBits   = this.swapInt(in.readInt());                // DWORD
-   
-      System.out.printf("bfType=%2X bfSize=%d bfReserved1=%h bfReserved2=%h "+ 
-                        "bfOffBits=%d\n",
-                        bmpFileHeader_bfType,
-                        bmpFileHeader_bfSize,
-                        bmpFileHeader_bfReserved1,
-                        bmpFileHeader_bfReserved2,
-                        bmpFileHeader_bfOffBits);
-                        
-      return;
-   }
-   
-   /*
-    * Read in information about the bitmap from the bitmap info header and convert
-    * to big endian.
-    * 
-    * biSize
-    *     Specifies the size of the structure, in bytes.
-    *     This size does not include the color table or the masks mentioned in the 
-    *       biClrUsed member.
-    *     See the Remarks section for more information.
-    * biWidth
-    *     Specifies the width of the bitmap, in pixels.
-    * biHeight
-    *     Specifies the height of the bitmap, in pixels.
-    *     If biHeight is positive, the bitmap is a bottom-up DIB and 
-    *       its origin is the lower left corner.
-    *     If biHeight is negative, the bitmap is a top-down DIB and 
-    *       its origin is the upper left corner.
-    *     If biHeight is negative, indicating a top-down DIB, 
-    *       biCompression must be either BI_RGB or BI_BITFIELDS. 
-    *       Top-down DIBs cannot be compressed.
-    * biPlanes
-    *     Specifies the number of planes for the target device.
-    *     This value must be set to 1.
-    * biBitCount
-    *    Specifies the number of bits per pixel.
-    *     The biBitCount member of the BITMAPINFOHEADER structure determines the number of 
-    *     bits that define each pixel and the maximum number of colors in the bitmap.
-    *     
-    *     This member must be one of the following values.
-    *     Value     Description
-    *     1       The bitmap is monochrome, and the bmiColors member contains two entries.
-    *             Each bit in the bitmap array represents a pixel. The most significant 
-    *             bit is to the left in the image. 
-    *             If the bit is clear, the pixel is displayed with the color of the first 
-    *             entry in the bmiColors table.
-    *             If the bit is set, the pixel has the color of the second entry in 
-    *             the table.
-    *                
-    *     2       The bitmap has four possible color values.  The most significant 
-    *             half-nibble is to the left in the image.
-    *             
-    *     4       The bitmap has a maximum of 16 colors, and the bmiColors member 
-    *             contains up to 16 entries.
-    *             Each pixel in the bitmap is represented by a 4-bit index into the 
-    *             color table. The most significant nibble is to the left in the image.
-    *             For example, if the first byte in the bitmap is 0x1F, the byte 
-    *             represents two pixels. The first pixel contains the color in the 
-    *             second table entry, and the second pixel contains the color in the 
-    *             sixteenth table entry.
-    *             
-    *     8       The bitmap has a maximum of 256 colors, and the bmiColors member 
-    *             contains up to 256 entries. In this case, each byte in the 
-    *             array represents a single pixel.
-    *                
-    *     24      The bitmap has a maximum of 2^24 colors, and the bmiColors member 
-    *             is NULL.
-    *             Each 3-byte triplet in the bitmap array represents the relative 
-    *             intensities of blue, green, and red, respectively, for a pixel.
-    *             The bmiColors color table is used for optimizing colors used on 
-    *             palette-based devices, and must contain the number of entries 
-    *             specified by the biClrUsed member of the BITMAPINFOHEADER.
-    *                
-    *     32      The bitmap has a maximum of 2^32 colors. If the biCompression member 
-    *             of the BITMAPINFOHEADER is BI_RGB, the bmiColors member is NULL. 
-    *             Each DWORD in the bitmap array represents the relative intensities 
-    *             of blue, green, and red, respectively, for a pixel. The high byte 
-    *             in each DWORD is not used. The bmiColors color table is used for 
-    *             optimizing colors used on palette-based devices, and must contain 
-    *             the number of entries specified by the biClrUsed member of the 
-    *             BITMAPINFOHEADER.
-    *             If the biCompression member of the BITMAPINFOHEADER is BI_BITFIELDS, 
-    *             the bmiColors member contains three DWORD color masks that specify the 
-    *             red, green, and blue components, respectively, of each pixel.
-    *             Each DWORD in the bitmap array represents a single pixel.
-    *             
-    * biCompression
-    *     Specifies the type of compression for a compressed bottom-up bitmap 
-    *     (top-down DIBs cannot be compressed). This member can be one of the 
-    *     following values.
-    *     
-    *     Value               Description
-    *     BI_RGB              An uncompressed format.
-    *     BI_BITFIELDS        Specifies that the bitmap is not compressed and that the 
-    *                         color table consists of three DWORD color masks that specify
-    *                         the red, green, and blue components of each pixel.
-    *                         This is valid when used with 16- and 32-bpp bitmaps.
-    *                         This value is valid in Windows Embedded CE versions 2.0 and 
-    *                         later.
-    *     BI_ALPHABITFIELDS   Specifies that the bitmap is not compressed and that the 
-    *                         color table consists of four DWORD color masks that specify 
-    *                         the red, green, blue, and alpha components of each pixel.
-    *                         This is valid when used with 16- and 32-bpp bitmaps.
-    *                         This value is valid in Windows CE .NET 4.0 and later.
-    *                         You can OR any of the values in the above table with 
-    *                         BI_SRCPREROTATE to specify that the source DIB section has 
-    *                         the same rotation angle as the destination.
-    * biSizeImage
-    *     Specifies the size, in bytes, of the image. This value will be the number of 
-    *     bytes in each scan line which must be padded to insure the line is a multiple of 
-    *     4 bytes (it must align on a DWORD boundary) times the number of rows.
-    *     This value may be set to zero for BI_RGB bitmaps (so you cannot be sure it will 
-    *     be set).
-    * biXPelsPerMeter
-    *     Specifies the horizontal resolution, in pixels per meter, of the target device 
-    *     for the bitmap.
-    *     An application can use this value to select a bitmap from a resource group that 
-    *     best matches the characteristics of the current device.
-    * biYPelsPerMeter
-    *     Specifies the vertical resolution, in pixels per meter, of the target device for 
-    *     the bitmap
-    * biClrUsed
-    *     Specifies the number of color indexes in the color table that are actually used 
-    *     by the bitmap.
-    *     If this value is zero, the bitmap uses the maximum number of colors 
-    *     corresponding to the value of the biBitCount member for the compression mode 
-    *     specified by biCompression.
-    *     If biClrUsed is nonzero and the biBitCount member is less than 16, the biClrUsed 
-    *     member specifies the actual number of colors the graphics engine or device 
-    *     driver accesses.
-    *     If biBitCount is 16 or greater, the biClrUsed member specifies the size of the 
-    *     color table used to optimize performance of the system color palettes.
-    *     If biBitCount equals 16 or 32, the optimal color palette starts immediately 
-    *     following the three DWORD masks.
-    *     If the bitmap is a packed bitmap (a bitmap in which the bitmap array immediately
-    *     follows the BITMAPINFO header and is referenced by a single pointer), the
-    *     biClrUsed member must be either zero or the actual size of the color table.
-    * biClrImportant
-    *     Specifies the number of color indexes required for displaying the bitmap.
-    *     If this value is zero, all colors are required.
-    *     
-    *     
-    * Remarks
-    *
-    * The BITMAPINFO structure combines the BITMAPINFOHEADER structure and a color table 
-    * to provide a complete definition of the dimensions and colors of a DIB.
-    * An application should use the information stored in the biSize member to locate the 
-    * color table in a BITMAPINFO structure, as follows.
-    *
-    * pColor = ((LPSTR)pBitmapInfo + (WORD)(pBitmapInfo->bmiHeader.biSize));
-    * 
-    * @param in   the DataInputStream for the input bitmap
-    */
-   public void readInfoHeader(DataInputStream in) throws IOException
-   {
-      bmpInfoHeader_biSize          = this.swapInt(in.readInt());             // DWORD
-      bmpInfoHeader_biWidth         = this.swapInt(in.readInt());             // LONG
-      bmpInfoHeader_biHeight        = this.swapInt(in.readInt());             // LONG
-      bmpInfoHeader_biPlanes        = this.swapShort(in.readUnsignedShort()); // WORD
-      bmpInfoHeader_biBitCount      = this.swapShort(in.readUnsignedShort()); // WORD
-      bmpInfoHeader_biCompression   = this.swapInt(in.readInt());             // DWORD
-      bmpInfoHeader_biSizeImage     = this.swapInt(in.readInt());             // DWORD
-      bmpInfoHeader_biXPelsPerMeter = this.swapInt(in.readInt());             // LONG
-      bmpInfoHeader_biYPelsPerMeter = this.swapInt(in.readInt());             // LONG
-      bmpInfoHeader_biClrUsed       = this.swapInt(in.readInt());             // DWORD
-      bmpInfoHeader_biClrImportant  = this.swapInt(in.readInt());             // DWORD
-
-      System.out.printf("biSize=%d\nbiWidth=%d\nbiHeight=%d\nbiPlanes=%d\n" + 
-                        "biBitCount=%d\nbiCompression=%d\nbiSizeImage=%d\n" +
-                        "biXPelsPerMeter=%d\nbiYPelsPerMeter=%d\nbiClrUsed=%d\n" + 
-                        "biClrImportant=%d\n",
-                 bmpInfoHeader_biSize,
-                 bmpInfoHeader_biWidth,
-                 bmpInfoHeader_biHeight,
-                 bmpInfoHeader_biPlanes,
-                 bmpInfoHeader_biBitCount,
-                 bmpInfoHeader_biCompression,
-                 bmpInfoHeader_biSizeImage,
-                 bmpInfoHeader_biXPelsPerMeter,
-                 bmpInfoHeader_biYPelsPerMeter,
-                 bmpInfoHeader_biClrUsed,
-                 bmpInfoHeader_biClrImportant);
-
-      System.out.printf("\n");
-      
-      return;
-   }
-   
    /*
     * Determines and returns the number of colors in the color table
     * given the number of bits per pixel.
     * 
-    * @return   number of colors in the color table
+    * @param header   headers of the bitmap
+    * 
+    * @return         number of colors in the color table
     */
-   public int setNumColors()
+   public int setNumColors(BitmapHeader header)
    {
       int numberOfColors;
       
-      switch (bmpInfoHeader_biBitCount) 
+      switch (header.biBitCount) 
       {
          case 1:
             numberOfColors = 2;
@@ -853,8 +938,11 @@ public class BitmapDump
             numberOfColors = 0; // no color table
       }
    
-      System.out.printf("Color Depth = %d, %d\n", bmpInfoHeader_biBitCount, 
-                                                  numberOfColors);
+      if (printHeaders)
+      {
+         System.out.printf("Color Depth = %d, %d\n", header.biBitCount, 
+                                                     numberOfColors);
+      }
                               
       return numberOfColors;
    }
@@ -862,8 +950,8 @@ public class BitmapDump
    
    /*
     * Now for the fun part. We need to read in the rest of the bit map, but how we 
-    * interpret the values depends on the color depth. The elements of imageArray 
-    * are set to the bitmap.
+    * interpret the values depends on the color depth. The elements of the pels
+    * array are set to the bitmap.
     *
     * numberOfColors = 2:   Each bit is a pel, so there are 8 pels per byte. The Color 
     *                       Table has only two values for "black" and "white"
@@ -886,32 +974,53 @@ public class BitmapDump
     * 
     * For ALL image types each scan line is padded to an even 4-byte boundary.
     * 
-    * @param in            DataInputStream to read in the input bmp file
-    * @param i             index to loop over each row
-    * @param j             index to loop over bytes in each row
-    * @param k             index to loop over the pixel elements in each byte
+    * The pels are decoded straight out of the buffer holding the whole file. Each case 
+    * works out iRowStride, the number of bytes one scan line takes up in the file 
+    * (including the trailing byte and the dead bytes), so the start of every scan line 
+    * can be found directly instead of reading and throwing away the dead bytes. Since 
+    * the color table never changes, each of its colors is converted to grayscale once 
+    * up front (grayPallet) rather than once per pel.
+    * 
+    * The pels are stored row by row from the top of the image, so the pel in row i 
+    * and column iColumn ends up at pels[i * biWidth + iColumn] (iImageRow is 
+    * i * biWidth).
+    * 
+    * @param in            ByteBuffer positioned at the first byte of the bitmap bits;
+    *                      on return it is positioned just past the last scan line
+    * @param header        headers of the bitmap
     * @param colorPallet   array giving the color table
-    * @param rgbQuad       aray giving the RGB elements of a color
     * 
-    * @return              output array so that the method can return multiple 
-    *                      outputs 
-    *                      returns iBytesPerRow and and iDeadBytes
+    * @return              the grayscale pels of the image
     *
     */
-   public int[] createArray(DataInputStream in, int i, int j, int k, int[] colorPallet, 
-                           int[] rgbQuad) throws IOException
+   public int[] createArray(ByteBuffer in, BitmapHeader header, int[] colorPallet) 
+                            throws IOException
    {
+      int i, j, k;   // i loops over each row, j over bytes in each row and
+                     // k over the pixel elements in each byte
       int pel, gPel;
       int iBytesPerRow, iTrailingBits, iDeadBytes, iByteVal, iColumn, iPelsPerRow;
-      int[] outputArray;
+      int iDataStart, iRowStart, iRowStride, iPos, iImageRow;
+      int[] grayPallet;
+      int[] rgbQuad = new int[QUAD];   // the RGB elements of a color
       
-      iBytesPerRow = iDeadBytes = 0;
-      outputArray = new int[NUM_OUTPUTS];
+      iBytesPerRow = iDeadBytes = iRowStride = 0;
+      iDataStart = in.position();
       
       /*
        * Create the array for the pels
        */
-      imageArray = new int[bmpInfoHeader_biHeight][bmpInfoHeader_biWidth]; 
+      int[] pels = new int[header.biHeight * header.biWidth]; 
+      
+      /*
+       * Grayscale value of every entry in the color table
+       */
+      grayPallet = new int[colorPallet.length];
+      
+      for (int color = 0; color < colorPallet.length; ++color)
+      {
+         grayPallet[color] = colorTo8BitGrayscale(colorPallet[color]);
+      }
       
       
       /*
@@ -920,7 +1029,7 @@ public class BitmapDump
        * 
        * The outer loop is over the rows (in reverse), the inner loop over the columns. 
        */
-      switch (bmpInfoHeader_biBitCount)
+      switch (header.biBitCount)
       {
          /*
           * Each byte read in is 8 columns, so we need to break them out. We also
@@ -932,29 +1041,34 @@ public class BitmapDump
           */
          case 1: // each bit is a color, so there are 8 pels per byte.  Works
          
-            iBytesPerRow = bmpInfoHeader_biWidth / PELS_PER_BYTE1;
-            iTrailingBits = bmpInfoHeader_biWidth % PELS_PER_BYTE1;
+            iBytesPerRow = header.biWidth / PELS_PER_BYTE1;
+            iTrailingBits = header.biWidth % PELS_PER_BYTE1;
    
             iDeadBytes = iBytesPerRow;
             if (iTrailingBits > 0) ++iDeadBytes;
             iDeadBytes = (QUAD - iDeadBytes % QUAD) % QUAD;
+            
+            iRowStride = iBytesPerRow + iDeadBytes;
+            if (iTrailingBits > 0) ++iRowStride;
    
-            for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
+            for (int row = 0; row < header.biHeight; ++row) // read over the rows
             {
-               if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
+               if (header.topDownDIB) i = row; else i = header.biHeight - 1 - row;
+               
+               iImageRow = i * header.biWidth;
+               
+               iRowStart = iDataStart + row * iRowStride;
                      
                for (j = 0; j < iBytesPerRow; ++j)
                {
-                  iByteVal = in.readUnsignedByte();
+                  iByteVal = in.get(iRowStart + j) & 0xFF;
    
                   for (k = 0; k < PELS_PER_BYTE1; ++k)             // Get 8 pels from the one byte
                   {
                      iColumn = j * PELS_PER_BYTE1 + k;
                      
-                     pel = colorPallet[(iByteVal >> ((PELS_PER_BYTE1 - 1) - k)) & 0x01];
-                     gPel = colorTo8BitGrayscale(pel);
-                     
-                     imageArray[i][iColumn] = gPel;
+                     pels[iImageRow + iColumn] = 
+                        grayPallet[(iByteVal >> ((PELS_PER_BYTE1 - 1) - k)) & 0x01];
                   }
                   
                } // for (j = 0; j < iBytesPerRow; ++j)
@@ -962,26 +1076,19 @@ public class BitmapDump
                if (iTrailingBits > 0) // pick up the trailing bits for images that are 
                                       // not mod 8 columns wide
                {
-                  iByteVal = in.readUnsignedByte();
+                  iByteVal = in.get(iRowStart + iBytesPerRow) & 0xFF;
    
                   for (k = 0; k < iTrailingBits; ++k)
                   {
                      iColumn = iBytesPerRow * PELS_PER_BYTE1 + k;
                      
-                     pel = colorPallet[(iByteVal >> ((PELS_PER_BYTE1 - 1) - k)) & 0x01];
-                     gPel = colorTo8BitGrayscale(pel);
-                     
-                     imageArray[i][iColumn] = gPel;
+                     pels[iImageRow + iColumn] = 
+                        grayPallet[(iByteVal >> ((PELS_PER_BYTE1 - 1) - k)) & 0x01];
                   }
                   
                } // if (iTrailingBits > 0)
-   
-               /*
-                * Now read in the "dead bytes" to pad to a 4 byte boundary
-                */
-               for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); 
             
-            } // for (int row = 0; row < bmpInfoHeader_biHeight; ++row)
+            } // for (int row = 0; row < header.biHeight; ++row)
             
             break;
          
@@ -994,20 +1101,27 @@ public class BitmapDump
           */
          case 2: // 4 colors, Each byte is 4 pels (2 bits each),  Should work, not tested.
          
-            iBytesPerRow = bmpInfoHeader_biWidth / PELS_PER_BYTE2;
-            iTrailingBits = bmpInfoHeader_biWidth % PELS_PER_BYTE2; // 0, 1, 2 or 3
+            iBytesPerRow = header.biWidth / PELS_PER_BYTE2;
+            iTrailingBits = header.biWidth % PELS_PER_BYTE2; // 0, 1, 2 or 3
 
             iDeadBytes = iBytesPerRow;
             if (iTrailingBits > 0) ++iDeadBytes;
             iDeadBytes = (QUAD - iDeadBytes % QUAD) % QUAD;
+            
+            iRowStride = iBytesPerRow + iDeadBytes;
+            if (iTrailingBits > 0) ++iRowStride;
 
-            for (int row = 0; row < bmpInfoHeader_biHeight; ++row)  // read over the rows
+            for (int row = 0; row < header.biHeight; ++row)  // read over the rows
             {
-               if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
+               if (header.topDownDIB) i = row; else i = header.biHeight - 1 - row;
+               
+               iImageRow = i * header.biWidth;
+               
+               iRowStart = iDataStart + row * iRowStride;
 
                for (j = 0; j < iBytesPerRow; ++j)
                {
-                  iByteVal = in.readUnsignedByte();
+                  iByteVal = in.get(iRowStart + j) & 0xFF;
 
                   for (k = 0; k < PELS_PER_BYTE2; ++k)              // Get 4 pels from one byte
                   {
@@ -1016,10 +1130,8 @@ public class BitmapDump
                      /*
                       * The following line shifts 2 bits at a time and reverse order
                       */
-                     pel = colorPallet[(iByteVal >> (((PELS_PER_BYTE2 - 1) - k) * 2)) & 0x03];
-                     gPel = colorTo8BitGrayscale(pel);
-                     
-                     imageArray[i][iColumn] = gPel;
+                     pels[iImageRow + iColumn] = 
+                        grayPallet[(iByteVal >> (((PELS_PER_BYTE2 - 1) - k) * 2)) & 0x03];
                      
                   } // for (k = 0; k < 4; ++k) 
                   
@@ -1029,40 +1141,33 @@ public class BitmapDump
                if (iTrailingBits > 0) // pick up the trailing nibble for images that are not
                                       // mod 2 columns wide
                {
-                  iByteVal = in.readUnsignedByte();
+                  iByteVal = in.get(iRowStart + iBytesPerRow) & 0xFF;
 
                   for (k = 0; k < iTrailingBits; ++k)
                   {
                      iColumn = iBytesPerRow * PELS_PER_BYTE2 + k; 
                      
-                     pel = colorPallet[(iByteVal >> (((PELS_PER_BYTE2 - 1) - k) * 2)) & 0x03];
-                     gPel = colorTo8BitGrayscale(pel);
-                     
-                     imageArray[i][iColumn] = gPel;
+                     pels[iImageRow + iColumn] = 
+                        grayPallet[(iByteVal >> (((PELS_PER_BYTE2 - 1) - k) * 2)) & 0x03];
                   } // for (k = 0; k < iTrailingBits; ++k)
                   
                } // if (iTrailingBits > 0)
                
-               /*
-                * Now read in the "dead bytes" to pad to a 4 byte boundary
-                */
-               for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); 
-               
-            } // for (int row = 0; row < bmpInfoHeader_biHeight; ++row)
+            } // for (int row = 0; row < header.biHeight; ++row)
             
             break;
          
          /*
           * Each byte read in is 2 columns, so we need to break them out. We also have to 
           * deal with the case where the image width is not an integer multiple of 2, in 
-          * which case we will have one nibble from part of the remaining byte. We then 
-          * read in the dead bytes so that each scan line is a multiple of 4 bytes. Each 
-          * color is a nibble (4 bits) which is masked with 0x0F. The screen ordering of 
-          * the pels is High-Nibble Low-Nibble, so the most significant element is first 
-          * in the array of pels.
+          * which case we will have one nibble from part of the remaining byte. The dead 
+          * bytes make each scan line a multiple of 4 bytes. Each color is a nibble 
+          * (4 bits) which is masked with 0x0F. The screen ordering of the pels is 
+          * High-Nibble Low-Nibble, so the most significant element is first in the 
+          * array of pels.
           */
          case 4: // 16 colors, Each byte is two pels. Works
-            iPelsPerRow   = bmpInfoHeader_biWidth;
+            iPelsPerRow   = header.biWidth;
             iBytesPerRow  = iPelsPerRow / 2;
             iTrailingBits = iPelsPerRow % 2;  // Will either be 0 or 1
 
@@ -1071,28 +1176,27 @@ public class BitmapDump
             if (iTrailingBits > 0) ++iDeadBytes;
             
             iDeadBytes = (QUAD - iDeadBytes % QUAD) % QUAD;
+            
+            iRowStride = iBytesPerRow + iTrailingBits + iDeadBytes;
 
-            for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
+            for (int row = 0; row < header.biHeight; ++row) // read over the rows
             {
-               if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
+               if (header.topDownDIB) i = row; else i = header.biHeight - 1 - row;
+               
+               iImageRow = i * header.biWidth;
+               
+               iRowStart = iDataStart + row * iRowStride;
 
                for (j = 0; j < iBytesPerRow; ++j)                  // read over bits in row
                {
-                  iByteVal = in.readUnsignedByte();
+                  iByteVal = in.get(iRowStart + j) & 0xFF;
 
-                  for (k = 0; k < 2; ++k) // Two pels per byte
-                  {
-                     iColumn = j * 2 + k;   
-                     
-                     /*
-                      * 1 - k is needed to have High, Low nibble ordering for the image
-                      * and 4 bits are shifted at a time.
-                      */
-                     pel = colorPallet[(iByteVal >> ((1 - k) * 4)) & 0x0F]; 
-                     gPel = colorTo8BitGrayscale(pel);
-                     
-                     imageArray[i][iColumn] = gPel;
-                  }
+                  /*
+                   * High nibble first, then the low nibble, to have High, Low 
+                   * nibble ordering for the image
+                   */
+                  pels[iImageRow + j * 2]     = grayPallet[(iByteVal >> 4) & 0x0F]; 
+                  pels[iImageRow + j * 2 + 1] = grayPallet[iByteVal & 0x0F];
                } // for (j = 0; j < iBytesPerRow; ++j)
 
                /*
@@ -1100,46 +1204,44 @@ public class BitmapDump
                 */
                if (iTrailingBits > 0) 
                {
-                  iByteVal = in.readUnsignedByte();
+                  iByteVal = in.get(iRowStart + iBytesPerRow) & 0xFF;
 
                   iColumn = iBytesPerRow * 2;
                   
                   /*
                    * The High nibble is the last remaining pel
                    */
-                  pel = colorPallet[(iByteVal >> 4) & 0x0F]; 
-                  gPel = colorTo8BitGrayscale(pel);
-                  
-                  imageArray[i][iColumn] = gPel;
+                  pels[iImageRow + iColumn] = grayPallet[(iByteVal >> 4) & 0x0F];
                }
-               
-               /*
-                * Now read in the "dead bytes" to pad to a 4 byte boundary
-                */
-               for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); 
             
-            } // for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)
+            } // for (int row = 0; row < header.biHeight; ++row)
             
             break;
             
          /*
-          * Each byte read in is 1 column. We then read in the dead bytes so that each scan 
-          * line is a multiple of 4 bytes.
+          * Each two bytes read in is 1 column. The dead bytes pad each scan line to a 
+          * multiple of 4 bytes.
           */
          case 8: // 1 byte, 1 pel, Works
-            iPelsPerRow = bmpInfoHeader_biWidth;
+            iPelsPerRow = header.biWidth;
             iDeadBytes = (4 - iPelsPerRow % 4) % 4;
             
-            for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
+            iRowStride = iPelsPerRow * 2 + iDeadBytes;
+            
+            for (int row = 0; row < header.biHeight; ++row) // read over the rows
             {
-               if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
+               if (header.topDownDIB) i = row; else i = header.biHeight - 1 - row;
+               
+               iImageRow = i * header.biWidth;
+               
+               iRowStart = iDataStart + row * iRowStride;
 
                for (j = 0; j < iPelsPerRow; ++j)                   // j is now just the column counter
                {
                   /*
-                   * Need to deal with little endian values
+                   * The buffer is little endian, so the short comes out the right way round
                    */
-                  pel = this.swapShort(in.readUnsignedShort());
+                  pel = in.getShort(iRowStart + j * 2) & 0xFFFF;
                   
                   rgbQuad[BLUE]      =  pel        & 0x1F;
                   rgbQuad[GREEN]     = (pel >> 5)  & 0x1F;   
@@ -1149,15 +1251,10 @@ public class BitmapDump
                   gPel = colorTo8BitGrayscale(pel);
                   
                   
-                  imageArray[i][j] = gPel;
+                  pels[iImageRow + j] = gPel;
                }
-
-               /*
-                * Now read in the "dead bytes" to pad to a 4 byte boundary
-                */
-               for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); 
                
-            } // for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)
+            } // for (int row = 0; row < header.biHeight; ++row)
                   
             break; 
          
@@ -1166,32 +1263,34 @@ public class BitmapDump
           * multiple of 4 bytes.
           */
          case 24: // Works
-            iPelsPerRow = bmpInfoHeader_biWidth;
+            iPelsPerRow = header.biWidth;
             iDeadBytes = (4 - (iPelsPerRow * 3) % 4) % 4;
+            
+            iRowStride = iPelsPerRow * 3 + iDeadBytes;
 
-            for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
+            for (int row = 0; row < header.biHeight; ++row) // read over the rows
             {
-               if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
+               if (header.topDownDIB) i = row; else i = header.biHeight - 1 - row;
+               
+               iImageRow = i * header.biWidth;
+               
+               iPos = iDataStart + row * iRowStride;
 
                for (j = 0; j < iPelsPerRow; ++j)                   // j is now just the column counter
                {
-                  rgbQuad[BLUE]      = in.readUnsignedByte();
-                  rgbQuad[GREEN]     = in.readUnsignedByte();
-                  rgbQuad[RED]       = in.readUnsignedByte();
+                  rgbQuad[BLUE]      = in.get(iPos)     & 0xFF;
+                  rgbQuad[GREEN]     = in.get(iPos + 1) & 0xFF;
+                  rgbQuad[RED]       = in.get(iPos + 2) & 0xFF;
+                  iPos += 3;
                   
                   pel = (rgbQuad[RED] << 2 * BYTE) | (rgbQuad[GREEN] << BYTE) | rgbQuad[BLUE];
                   gPel = colorTo8BitGrayscale(pel);
                   
                   
-                  imageArray[i][j] = gPel;
+                  pels[iImageRow + j] = gPel;
                }
-               
-               /*
-                * Now read in the "dead bytes" to pad to a 4 byte boundary
-                */
-               for (j = 0; j < iDeadBytes; ++j) in.readUnsignedByte(); 
             
-            } // for (int row = 0; row < bmpInfoHeader_biHeight; ++row)
+            } // for (int row = 0; row < header.biHeight; ++row)
             
             break; 
             
@@ -1200,74 +1299,73 @@ public class BitmapDump
           * be a multiple of 4, so there are no dead bytes.
           */
          case 32: // Works
-            iPelsPerRow = bmpInfoHeader_biWidth;
+            iPelsPerRow = header.biWidth;
+            
+            iRowStride = iPelsPerRow * QUAD;
             
-            for (int row = 0; row < bmpInfoHeader_biHeight; ++row) // read over the rows
+            for (int row = 0; row < header.biHeight; ++row) // read over the rows
             {
-               if (topDownDIB) i = row; else i = bmpInfoHeader_biHeight - 1 - row;
+               if (header.topDownDIB) i = row; else i = header.biHeight - 1 - row;
+               
+               iImageRow = i * header.biWidth;
+               
+               iPos = iDataStart + row * iRowStride;
 
                for (j = 0; j < iPelsPerRow; ++j)                   // j is now just the column counter
                {
-                  rgbQuad[BLUE]       = in.readUnsignedByte();
-                  rgbQuad[GREEN]      = in.readUnsignedByte();
-                  rgbQuad[RED]        = in.readUnsignedByte();
-                  rgbQuad[RESERVED]   = in.readUnsignedByte();
+                  rgbQuad[BLUE]       = in.get(iPos)     & 0xFF;
+                  rgbQuad[GREEN]      = in.get(iPos + 1) & 0xFF;
+                  rgbQuad[RED]        = in.get(iPos + 2) & 0xFF;
+                  rgbQuad[RESERVED]   = in.get(iPos + 3) & 0xFF;
+                  iPos += QUAD;
                   
                   pel =  (rgbQuad[RESERVED] << 3 * BYTE) |(rgbQuad[RED] << 2 * BYTE) | 
                          (rgbQuad[GREEN] << BYTE) | rgbQuad[BLUE];
                          
                   gPel = colorTo8BitGrayscale(pel);
                   
-                  imageArray[i][j] = gPel;
+                  pels[iImageRow + j] = gPel;
                } // for (j = 0; j < iPelsPerRow; ++j) 
                
-            } // for (int row = 0; row < bmpInfoHeader_biHeight; ++row)
+            } // for (int row = 0; row < header.biHeight; ++row)
             
             break; 
          
          default:
             System.out.printf("This error should not occur - 1!\n");
-      }  // switch (bmpInfoHeader_biBitCount)
-      
+      }  // switch (header.biBitCount)
       
-      shiftImage(findDifferenceCOM(findCOM()));
-      
-      /*
-       * I'm putting iBytesPerRow and iDeadBytes into an array in order to enable multiple outputs.
-       */
-      outputArray[BYTES_PER_ROW] = iBytesPerRow; 
-      outputArray[DEAD_BYTES] = iDeadBytes;
+      in.position(iDataStart + header.biHeight * iRowStride);
       
-      return outputArray;
-   }  // public void createArray(DataInputStream fstream)
+      return pels;
+   }  // public int[] createArray(ByteBuffer in, BitmapHeader header, int[] colorPallet)
    
    /* 
     * Prints dump of image bytes in HEX to the console if the image is smaller than 33 x 33
     * 
     * MAX_DIM = 33;
     * 
-    * @param iBytesPerRow   the number of bytes per row
-    *                       the maximum index for the column counter
+    * @param image   decoded bitmap
     */
-   public void printImageBytes(int iBytesPerRow)
+   public void printImageBytes(BitmapImage image)
    {
-      if ((bmpInfoHeader_biWidth < MAX_DIM) && (bmpInfoHeader_biHeight < MAX_DIM))
+      if ((image.getWidth() < MAX_DIM) && (image.getHeight() < MAX_DIM))
       {
-         iBytesPerRow = bmpInfoHeader_biWidth;
+         int iBytesPerRow = image.getWidth();
          
-         for (int i = 0; i < bmpInfoHeader_biHeight; ++i) // read over the rows
+         for (int i = 0; i < image.getHeight(); ++i)  // read over the rows
          {
             
-            for (int j = 0; j < iBytesPerRow; ++j)        // j is now just the column counter
+            for (int j = 0; j < iBytesPerRow; ++j)    // j is now just the column counter
             {
-               System.out.printf("%06X\t", imageArray[i][j]);
+               System.out.printf("%06X\t", image.getPel(i, j));
             }
             
             System.out.printf("\n");
             
-         } // for (int i = 0; i < bmpInfoHeader_biHeight; ++i)
+         } // for (int i = 0; i < image.getHeight(); ++i)
          
-      } // if ((bmpInfoHeader_biWidth < MAX_DIM) && (bmpInfoHeader_biHeight < MAX_DIM))
+      } // if ((image.getWidth() < MAX_DIM) && (image.getHeight() < MAX_DIM))
       
       return;
    }
@@ -1277,49 +1375,51 @@ public class BitmapDump
     * If the BitmapDump class is coded correctly, the bitmap given by the input should be the same 
     * as the bitmap output file produced in this method.
     * 
-    * @param iDeadBytes    number of dead bytes per column
+    * @param image         decoded bitmap
     * @param outFileName   name of file with output
-    * @param rgbQuad       array of four values indicating intensities of blue, green, and red
     * 
     */
-   public void bitmapToFile(int iDeadBytes, String outFileName, int[] rgbQuad) throws IOException
+   public void bitmapToFile(BitmapImage image, String outFileName) throws IOException
    {
+      BitmapHeader header = image.getHeader();
+      int[] rgbQuad = new int[QUAD];  // intensities of blue, green, and red
+      
       try
       {
-         iDeadBytes = (QUAD - (bmpInfoHeader_biWidth * 3) % QUAD) % QUAD;
+         int iDeadBytes = (QUAD - (header.biWidth * 3) % QUAD) % QUAD;
 
-         /*bmpInfoHeader_biSizeImage =  (bmpInfoHeader_biWidth * 3 + iDeadBytes) 
-                                       * bmpInfoHeader_biHeight;
-         bmpFileHeader_bfOffBits = 54;        // 54 byte offset for 24 bit images 
+         /*header.biSizeImage =  (header.biWidth * 3 + iDeadBytes) 
+                                       * header.biHeight;
+         header.bfOffBits = 54;        // 54 byte offset for 24 bit images 
                                               // (just open one with this app to get this value)
-         bmpFileHeader_bfSize = bmpInfoHeader_biSizeImage + bmpFileHeader_bfOffBits;
-         bmpInfoHeader_biBitCount = 24;       // 24 bit color image
-         bmpInfoHeader_biCompression = 0;     // BI_RGB (which is a value of zero)
-         bmpInfoHeader_biClrUsed = 0;         // Zero for true color
-         bmpInfoHeader_biClrImportant = 0;    // Zero for true color
+         header.bfSize = header.biSizeImage + header.bfOffBits;
+         header.biBitCount = 24;       // 24 bit color image
+         header.biCompression = 0;     // BI_RGB (which is a value of zero)
+         header.biClrUsed = 0;         // Zero for true color
+         header.biClrImportant = 0;    // Zero for true color
 
          FileOutputStream fstream = new FileOutputStream(outFileName);
          DataOutputStream out = new DataOutputStream(fstream);
 
          // BITMAPFILEHEADER
-         out.writeShort(this.swapShort(bmpFileHeader_bfType));      // WORD
-         out.writeInt(this.swapInt(bmpFileHeader_bfSize));          // DWORD
-         out.writeShort(this.swapShort(bmpFileHeader_bfReserved1)); // WORD
-         out.writeShort(this.swapShort(bmpFileHeader_bfReserved2)); // WORD
-         out.writeInt(this.swapInt(bmpFileHeader_bfOffBits));       // DWORD
+         out.writeShort(this.swapShort(header.bfType));      // WORD
+         out.writeInt(this.swapInt(header.bfSize));          // DWORD
+         out.writeShort(this.swapShort(header.bfReserved1)); // WORD
+         out.writeShort(this.swapShort(header.bfReserved2)); // WORD
+         out.writeInt(this.swapInt(header.bfOffBits));       // DWORD
 
          // BITMAPINFOHEADER
-         out.writeInt(this.swapInt(bmpInfoHeader_biSize));          // DWORD
-         out.writeInt(this.swapInt(bmpInfoHeader_biWidth));         // LONG
-         out.writeInt(this.swapInt(bmpInfoHeader_biHeight));        // LONG
-         out.writeShort(this.swapShort(bmpInfoHeader_biPlanes));    // WORD
-         out.writeShort(this.swapShort(bmpInfoHeader_biBitCount));  // WORD
-         out.writeInt(this.swapInt(bmpInfoHeader_biCompression));   // DWORD
-         out.writeInt(this.swapInt(bmpInfoHeader_biSizeImage));     // DWORD
-         out.writeInt(this.swapInt(bmpInfoHeader_biXPelsPerMeter)); // LONG
-         out.writeInt(this.swapInt(bmpInfoHeader_biYPelsPerMeter)); // LONG
-         out.writeInt(this.swapInt(bmpInfoHeader_biClrUsed));       // DWORD
-         out.writeInt(this.swapInt(bmpInfoHeader_biClrImportant));  // DWORD
+         out.writeInt(this.swapInt(header.biSize));          // DWORD
+         out.writeInt(this.swapInt(header.biWidth));         // LONG
+         out.writeInt(this.swapInt(header.biHeight));        // LONG
+         out.writeShort(this.swapShort(header.biPlanes));    // WORD
+         out.writeShort(this.swapShort(header.biBitCount));  // WORD
+         out.writeInt(this.swapInt(header.biCompression));   // DWORD
+         out.writeInt(this.swapInt(header.biSizeImage));     // DWORD
+         out.writeInt(this.swapInt(header.biXPelsPerMeter)); // LONG
+         out.writeInt(this.swapInt(header.biYPelsPerMeter)); // LONG
+         out.writeInt(this.swapInt(header.biClrUsed));       // DWORD
+         out.writeInt(this.swapInt(header.biClrImportant));  // DWORD
          
          
         
@@ -1335,12 +1435,12 @@ public class BitmapDump
           * format
           */
          
-         /*for (int i = bmpInfoHeader_biHeight - 1; i >= 0; --i)    
+         /*for (int i = header.biHeight - 1; i >= 0; --i)    
          {
             
-            for (int j = 0; j < bmpInfoHeader_biWidth; ++j) 
+            for (int j = 0; j < header.biWidth; ++j) 
             {
-               int pel = imageArray[i][j];
+               int pel = image.getPel(i, j);
                
                rgbQuad[BLUE]  = pel; // pel & 0x00FF;
                rgbQuad[GREEN] = pel; // (pel >> BYTE)  & 0x00FF;
@@ -1349,7 +1449,7 @@ public class BitmapDump
                out.writeByte(rgbQuad[BLUE]); // lowest byte in the color
                out.writeByte(rgbQuad[GREEN]);
                out.writeByte(rgbQuad[RED]);  // highest byte in the color
-            } // for (int j = 0; j < bmpInfoHeader_biWidth; ++j)
+            } // for (int j = 0; j < header.biWidth; ++j)
             
             for (int j = 0; j < iDeadBytes; ++j)
             {
@@ -1362,27 +1462,27 @@ public class BitmapDump
                
             }
             
-         } // for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)
+         } // for (i = header.biHeight - 1; i >= 0; --i)
          
          
          /*
           * Prints out lower 8 bits of image array pixel elements
           */
          
-         int iBytesPerRow = bmpInfoHeader_biWidth;
+         int iBytesPerRow = header.biWidth;
          
          PrintWriter out = new PrintWriter(new BufferedWriter(new 
                                         FileWriter(outFileName)));
          
-         for (int i = 0; i < bmpInfoHeader_biHeight; ++i) // read over the rows
+         for (int i = 0; i < header.biHeight; ++i)  // read over the rows
          {
             
-            for (int j = 0; j < iBytesPerRow; ++j)        // j is now just the column counter
+            for (int j = 0; j < iBytesPerRow; ++j)  // j is now just the column counter
             {
-               out.printf("%06X\t", imageArray[i][j]);
+               out.printf("%06X\t", image.getPel(i, j));
             }
             
-         } // for (int i = 0; i < bmpInfoHeader_biHeight; ++i)
+         } // for (int i = 0; i < header.biHeight; ++i)
          
 
          out.close();
@@ -1395,7 +1495,44 @@ public class BitmapDump
       }
       
       return;
-   } // public void bitmapToFile()
+   } // public void bitmapToFile(BitmapImage image, String outFileName)
+   
+   /*
+    * Writes the pels of image to out as one line of inputs in the format NeuralNets 
+    * reads: the lower 8 bits of every pel as "%06X\t", row by row, followed by a 
+    * newline. This is the same text bitmapToFile writes, but the hex digits are filled 
+    * in by hand one row at a time since printf is far too slow for thousands of bitmaps.
+    * 
+    * @param image  decoded bitmap
+    * @param out    Writer for the output file
+    */
+   public void writeImageLine(BitmapImage image, Writer out) throws IOException
+   {
+      char[] rowChars = new char[image.getWidth() * 7];   // "%06X\t" is 7 chars
+      
+      for (int i = 0; i < image.getHeight(); ++i)         // read over the rows
+      {
+         int iChar = 0;
+         
+         for (int j = 0; j < image.getWidth(); ++j)       // j is the column counter
+         {
+            int pel = image.getPel(i, j);
+            
+            for (int shift = 5 * 4; shift >= 0; shift -= 4)
+            {
+               rowChars[iChar++] = HEX_DIGITS[(pel >> shift) & 0x0F];
+            }
+            
+            rowChars[iChar++] = '\t';
+         }
+         
+         out.write(rowChars, 0, iChar);
+      } // for (int i = 0; i < image.getHeight(); ++i)
+      
+      out.write('\n');
+      
+      return;
+   }
 
    
 }  // public class BitmapDump
@@ -1410,3 +1547,33 @@ final class RgbQuad
    int blue;
    int reserved;
 }
+
+/*
+ * Writes samples in the text format: one line of inputs from writeImageLine,
+ * followed by the target line as it is. The line with the number of samples is left to
+ * the caller, since it is only known at the end.
+ */
+final class TextSampleWriter implements SampleWriter
+{
+   final BitmapDump dibdumper;
+   final Writer out;
+
+   TextSampleWriter(BitmapDump dibdumper, Writer out)
+   {
+      this.dibdumper = dibdumper;
+      this.out = out;
+   }
+
+   public void write(BitmapImage image, String target) throws IOException
+   {
+      dibdumper.writeImageLine(image, out);
+
+      if (target != null)
+      {
+         out.write(target);
+         out.write('\n');
+      }
+
+      return;
+   }
+}
@@ -0,0 +1,281 @@
+/*
+ * @author Helen Wu
+ * 
+ * @version 04/14/15
+ * 
+ * This file contains the final class BitmapHeader that holds the values of the 
+ * BITMAPFILEHEADER and BITMAPINFOHEADER structures at the start of a bitmap file.
+ * 
+ * Methods in this file:
+ *  public BitmapHeader(ByteBuffer in)
+ *  public void printHeader()
+ */
+
+import java.io.*;
+import java.nio.*;
+
+/*
+ * A member-variable-only class for holding the BITMAPFILEHEADER and BITMAPINFOHEADER 
+ * structure elements, read in from the start of a bitmap file. The fields are final, 
+ * so a header cannot change once it has been read.
+ */
+public final class BitmapHeader
+{
+   /*
+    * BITMAPFILEHEADER
+    * 
+    * bfType
+    *    Specifies the file type. It must be set to the signature word BM (0x4D42) to 
+    *    indicate bitmap.
+    * bfSize
+    *    Specifies the size, in bytes, of the bitmap file.
+    * bfReserved1
+    *    Reserved; set to zero
+    * bfReserved2
+    *    Reserved; set to zero
+    * bfOffBits
+    *    Specifies the offset, in bytes, from the BITMAPFILEHEADER structure to the 
+    *    bitmap bits
+    */
+   final int bfType;          // WORD
+   final int bfSize;          // DWORD
+   final int bfReserved1;     // WORD
+   final int bfReserved2;     // WORD
+   final int bfOffBits;       // DWORD
+   
+   /*
+    * BITMAPINFOHEADER -- information about the bitmap
+    * 
+    * biSize
+    *     Specifies the size of the structure, in bytes.
+    *     This size does not include the color table or the masks mentioned in the 
+    *       biClrUsed member.
+    *     See the Remarks section for more information.
+    * biWidth
+    *     Specifies the width of the bitmap, in pixels.
+    * biHeight
+    *     Specifies the height of the bitmap, in pixels. (Stored here as a positive
+    *     number; see topDownDIB.)
+    *     If biHeight is positive, the bitmap is a bottom-up DIB and 
+    *       its origin is the lower left corner.
+    *     If biHeight is negative, the bitmap is a top-down DIB and 
+    *       its origin is the upper left corner.
+    *     If biHeight is negative, indicating a top-down DIB, 
+    *       biCompression must be either BI_RGB or BI_BITFIELDS. 
+    *       Top-down DIBs cannot be compressed.
+    * biPlanes
+    *     Specifies the number of planes for the target device.
+    *     This value must be set to 1.
+    * biBitCount
+    *    Specifies the number of bits per pixel.
+    *     The biBitCount member of the BITMAPINFOHEADER structure determines the number of 
+    *     bits that define each pixel and the maximum number of colors in the bitmap.
+    *     
+    *     This member must be one of the following values.
+    *     Value     Description
+    *     1       The bitmap is monochrome, and the bmiColors member contains two entries.
+    *             Each bit in the bitmap array represents a pixel. The most significant 
+    *             bit is to the left in the image. 
+    *             If the bit is clear, the pixel is displayed with the color of the first 
+    *             entry in the bmiColors table.
+    *             If the bit is set, the pixel has the color of the second entry in 
+    *             the table.
+    *                
+    *     2       The bitmap has four possible color values.  The most significant 
+    *             half-nibble is to the left in the image.
+    *             
+    *     4       The bitmap has a maximum of 16 colors, and the bmiColors member 
+    *             contains up to 16 entries.
+    *             Each pixel in the bitmap is represented by a 4-bit index into the 
+    *             color table. The most significant nibble is to the left in the image.
+    *             For example, if the first byte in the bitmap is 0x1F, the byte 
+    *             represents two pixels. The first pixel contains the color in the 
+    *             second table entry, and the second pixel contains the color in the 
+    *             sixteenth table entry.
+    *             
+    *     8       The bitmap has a maximum of 256 colors, and the bmiColors member 
+    *             contains up to 256 entries. In this case, each byte in the 
+    *             array represents a single pixel.
+    *                
+    *     24      The bitmap has a maximum of 2^24 colors, and the bmiColors member 
+    *             is NULL.
+    *             Each 3-byte triplet in the bitmap array represents the relative 
+    *             intensities of blue, green, and red, respectively, for a pixel.
+    *             The bmiColors color table is used for optimizing colors used on 
+    *             palette-based devices, and must contain the number of entries 
+    *             specified by the biClrUsed member of the BITMAPINFOHEADER.
+    *                
+    *     32      The bitmap has a maximum of 2^32 colors. If the biCompression member 
+    *             of the BITMAPINFOHEADER is BI_RGB, the bmiColors member is NULL. 
+    *             Each DWORD in the bitmap array represents the relative intensities 
+    *             of blue, green, and red, respectively, for a pixel. The high byte 
+    *             in each DWORD is not used. The bmiColors color table is used for 
+    *             optimizing colors used on palette-based devices, and must contain 
+    *             the number of entries specified by the biClrUsed member of the 
+    *             BITMAPINFOHEADER.
+    *             If the biCompression member of the BITMAPINFOHEADER is BI_BITFIELDS, 
+    *             the bmiColors member contains three DWORD color masks that specify the 
+    *             red, green, and blue components, respectively, of each pixel.
+    *             Each DWORD in the bitmap array represents a single pixel.
+    *             
+    * biCompression
+    *     Specifies the type of compression for a compressed bottom-up bitmap 
+    *     (top-down DIBs cannot be compressed). This member can be one of the 
+    *     following values.
+    *     
+    *     Value               Description
+    *     BI_RGB              An uncompressed format.
+    *     BI_BITFIELDS        Specifies that the bitmap is not compressed and that the 
+    *                         color table consists of three DWORD color masks that specify
+    *                         the red, green, and blue components of each pixel.
+    *                         This is valid when used with 16- and 32-bpp bitmaps.
+    *                         This value is valid in Windows Embedded CE versions 2.0 and 
+    *                         later.
+    *     BI_ALPHABITFIELDS   Specifies that the bitmap is not compressed and that the 
+    *                         color table consists of four DWORD color masks that specify 
+    *                         the red, green, blue, and alpha components of each pixel.
+    *                         This is valid when used with 16- and 32-bpp bitmaps.
+    *                         This value is valid in Windows CE .NET 4.0 and later.
+    *                         You can OR any of the values in the above table with 
+    *                         BI_SRCPREROTATE to specify that the source DIB section has 
+    *                         the same rotation angle as the destination.
+    * biSizeImage
+    *     Specifies the size, in bytes, of the image. This value will be the number of 
+    *     bytes in each scan line which must be padded to insure the line is a multiple of 
+    *     4 bytes (it must align on a DWORD boundary) times the number of rows.
+    *     This value may be set to zero for BI_RGB bitmaps (so you cannot be sure it will 
+    *     be set).
+    * biXPelsPerMeter
+    *     Specifies the horizontal resolution, in pixels per meter, of the target device 
+    *     for the bitmap.
+    *     An application can use this value to select a bitmap from a resource group that 
+    *     best matches the characteristics of the current device.
+    * biYPelsPerMeter
+    *     Specifies the vertical resolution, in pixels per meter, of the target device for 
+    *     the bitmap
+    * biClrUsed
+    *     Specifies the number of color indexes in the color table that are actually used 
+    *     by the bitmap.
+    *     If this value is zero, the bitmap uses the maximum number of colors 
+    *     corresponding to the value of the biBitCount member for the compression mode 
+    *     specified by biCompression.
+    *     If biClrUsed is nonzero and the biBitCount member is less than 16, the biClrUsed 
+    *     member specifies the actual number of colors the graphics engine or device 
+    *     driver accesses.
+    *     If biBitCount is 16 or greater, the biClrUsed member specifies the size of the 
+    *     color table used to optimize performance of the system color palettes.
+    *     If biBitCount equals 16 or 32, the optimal color palette starts immediately 
+    *     following the three DWORD masks.
+    *     If the bitmap is a packed bitmap (a bitmap in which the bitmap array immediately
+    *     follows the BITMAPINFO header and is referenced by a single pointer), the
+    *     biClrUsed member must be either zero or the actual size of the color table.
+    * biClrImportant
+    *     Specifies the number of color indexes required for displaying the bitmap.
+    *     If this value is zero, all colors are required.
+    *     
+    *     
+    * Remarks
+    *
+    * The BITMAPINFO structure combines the BITMAPINFOHEADER structure and a color table 
+    * to provide a complete definition of the dimensions and colors of a DIB.
+    * An application should use the information stored in the biSize member to locate the 
+    * color table in a BITMAPINFO structure, as follows.
+    *
+    * pColor = ((LPSTR)pBitmapInfo + (WORD)(pBitmapInfo->bmiHeader.biSize));
+    */
+   final int biSize;          // DWORD
+   final int biWidth;         // LONG
+   final int biHeight;        // LONG
+   final int biPlanes;        // WORD
+   final int biBitCount;      // WORD
+   final int biCompression;   // DWORD
+   final int biSizeImage;     // DWORD
+   final int biXPelsPerMeter; // LONG
+   final int biYPelsPerMeter; // LONG
+   final int biClrUsed;       // DWORD
+   final int biClrImportant;  // DWORD
+   
+   /* 
+    * If biHeight is negative in the file then the image is a top down DIB. 
+    * This flag is used to identify it as such, and biHeight is made positive
+    * since we use the height to create arrays. Note that when the image is saved, 
+    * it will be written out in the usual inverted format with a positive 
+    * biHeight value.
+    */
+   final boolean topDownDIB;
+   
+   /*
+    * Reads in BITMAPFILEHEADER and, if the file is a bitmap, BITMAPINFOHEADER. 
+    * The buffer is little endian, so no conversion is needed. On return, the buffer
+    * is positioned at the color table.
+    * 
+    * @param in    little endian ByteBuffer positioned at the start of the bitmap file
+    * 
+    * @throws IOException   if the file is not a bitmap (bfType != BM)
+    */
+   public BitmapHeader(ByteBuffer in) throws IOException
+   {
+      int height;
+      
+      bfType      = in.getShort() & 0xFFFF;    // WORD
+      bfSize      = in.getInt();               // DWORD
+      bfReserved1 = in.getShort() & 0xFFFF;    // WORD
+      bfReserved2 = in.getShort() & 0xFFFF;    // WORD
+      bfOffBits   = in.getInt();               // DWORD
+      
+      if (bfType != BitmapDump.BM)             //Confirms that file is a bitmap type
+      {
+         throw new IOException("Not a bitmap file type.");
+      }
+      
+      biSize          = in.getInt();             // DWORD
+      biWidth         = in.getInt();             // LONG
+      height          = in.getInt();             // LONG
+      biPlanes        = in.getShort() & 0xFFFF;  // WORD
+      biBitCount      = in.getShort() & 0xFFFF;  // WORD
+      biCompression   = in.getInt();             // DWORD
+      biSizeImage     = in.getInt();             // DWORD
+      biXPelsPerMeter = in.getInt();             // LONG
+      biYPelsPerMeter = in.getInt();             // LONG
+      biClrUsed       = in.getInt();             // DWORD
+      biClrImportant  = in.getInt();             // DWORD
+      
+      topDownDIB = height < 0;
+      biHeight = topDownDIB ? -height : height;
+   }
+   
+   /*
+    * Prints the header values to the console, with biHeight as it was in the file.
+    */
+   public void printHeader()
+   {
+      System.out.printf("bfType=%2X bfSize=%d bfReserved1=%h bfReserved2=%h "+ 
+                        "bfOffBits=%d\n",
+                        bfType,
+                        bfSize,
+                        bfReserved1,
+                        bfReserved2,
+                        bfOffBits);
+      
+      System.out.printf("biSize=%d\nbiWidth=%d\nbiHeight=%d\nbiPlanes=%d\n" + 
+                        "biBitCount=%d\nbiCompression=%d\nbiSizeImage=%d\n" +
+                        "biXPelsPerMeter=%d\nbiYPelsPerMeter=%d\nbiClrUsed=%d\n" + 
+                        "biClrImportant=%d\n",
+                        biSize,
+                        biWidth,
+                        topDownDIB ? -biHeight : biHeight,
+                        biPlanes,
+                        biBitCount,
+                        biCompression,
+                        biSizeImage,
+                        biXPelsPerMeter,
+                        biYPelsPerMeter,
+                        biClrUsed,
+                        biClrImportant);
+
+      System.out.printf("\n");
+      
+      return;
+   }
+   
+}  // public final class BitmapHeader
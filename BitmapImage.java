@@ -0,0 +1,104 @@
+/*
+ * @author Helen Wu
+ * 
+ * @version 04/14/15
+ * 
+ * This file contains the final class BitmapImage, which holds a bitmap decoded by 
+ * BitmapDump: its headers (see BitmapHeader.java) and its grayscale pixel elements.
+ * 
+ * BitmapImage is immutable, so a decoded image can be handed from one thread to
+ * another (or shared between threads) without any locking.
+ * 
+ * Methods in this file:
+ *  public BitmapImage(BitmapHeader header, int[] pels)
+ *  public BitmapHeader getHeader()
+ *  public int getWidth()
+ *  public int getHeight()
+ *  public int getPel(int row, int column)
+ *  public int[] copyPels()
+ */
+
+/*
+ * A BitmapImage is a decoded bitmap: the headers it was read with and a plane of 
+ * 8-bit grayscale pels (see BitmapDump.colorTo8BitGrayscale), stored row by row from 
+ * the top of the image down, so the pel in row iRow and column iColumn is at 
+ * pels[iRow * width + iColumn]. 
+ * 
+ * The pel array is never handed out, only copied, so a BitmapImage cannot change
+ * once it has been made. Operations like BitmapDump.shiftImage return a new 
+ * BitmapImage instead.
+ */
+public final class BitmapImage
+{
+   private final BitmapHeader header;
+   private final int width, height;
+   private final int[] pels;
+   
+   /*
+    * Creates an image from its headers and its pels. The image takes over the pels
+    * array, so the caller must not change it afterwards.
+    * 
+    * @param header   headers of the bitmap the pels came from
+    * @param pels     grayscale pels, row by row from the top, 
+    *                 header.biWidth * header.biHeight of them
+    */
+   public BitmapImage(BitmapHeader header, int[] pels)
+   {
+      if (pels.length != header.biWidth * header.biHeight)
+      {
+         throw new IllegalArgumentException("Expected " + header.biWidth * header.biHeight +
+                                            " pels, got " + pels.length);
+      }
+      
+      this.header = header;
+      this.width = header.biWidth;
+      this.height = header.biHeight;
+      this.pels = pels;
+   }
+   
+   /*
+    * @return   the headers of the bitmap
+    */
+   public BitmapHeader getHeader()
+   {
+      return header;
+   }
+   
+   /*
+    * @return   width of the image in pels
+    */
+   public int getWidth()
+   {
+      return width;
+   }
+   
+   /*
+    * @return   height of the image in pels
+    */
+   public int getHeight()
+   {
+      return height;
+   }
+   
+   /*
+    * Returns the grayscale pel at the given row (counting from the top) and column.
+    * 
+    * @param row      row of the pel
+    * @param column   column of the pel
+    * 
+    * @return         8-bit grayscale value of the pel
+    */
+   public int getPel(int row, int column)
+   {
+      return pels[row * width + column];
+   }
+   
+   /*
+    * @return   a copy of the pels, row by row from the top
+    */
+   public int[] copyPels()
+   {
+      return pels.clone();
+   }
+   
+}  // public final class BitmapImage
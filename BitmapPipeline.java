@@ -0,0 +1,465 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 04/14/15
+ *
+ * This file contains the class BitmapPipeline, which runs the steps BitmapDump takes
+ * to turn a bitmap into a line of NeuralNets inputs on many bitmaps at once, spread
+ * over a pool of threads. This file also contains the final class PipelineJob that
+ * carries one bitmap from stage to stage.
+ *
+ * Classes in the file:
+ *  BitmapPipeline
+ *  PipelineJob
+ *
+ * Methods in this file:
+ *  public BitmapPipeline(BitmapDump dibdumper, int numWorkers, int queueCapacity)
+ *  public int run(List<Path> bitmaps, List<String> targets, SampleWriter out)
+ *  public void printThroughput()
+ *  void readStage(List<Path> bitmaps, List<String> targets)
+ *  void decodeStage()
+ *  void centerStage()
+ *  int serializeStage(int numJobs, SampleWriter out)
+ *  void finishStage(int stage, long startTime)
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * A BitmapPipeline converts a list of bitmaps into lines of NeuralNets inputs in four
+ * stages, each fed by the one before it through a bounded queue:
+ *
+ *    read        one thread reads each bitmap file into memory (BitmapDump.readBitmapFile)
+ *    decode      numWorkers threads decode the bitmaps into grayscale images
+ *                (BitmapDump.decode -- createArray, which applies colorTo8BitGrayscale
+ *                to each pel as it goes)
+ *    center      numWorkers threads move each image's center of mass to the middle
+ *                (findCOM, findDifferenceCOM and shiftImage through centerImage)
+ *    serialize   the calling thread writes the images out in the order they were
+ *                given, along with their target lines, to a SampleWriter (text
+ *                lines or the binary set format, see DataSetFormat)
+ *
+ * When a queue is full, the stage feeding it waits, so a slow stage holds back the
+ * ones before it. On top of that, the read stage has to take one of maxInFlight
+ * permits before it reads a file, and the serialize stage gives the permit back once
+ * the image has been written. That keeps the number of bitmaps in memory fixed no
+ * matter how many there are in total or how far the finished images get ahead of
+ * the one the serialize stage is waiting for.
+ *
+ * A bitmap that cannot be read, cannot be decoded or is not DIMENSION by DIMENSION
+ * pels is skipped with a warning.
+ *
+ * Every stage counts the images it handles and the time it spends working on them
+ * (not waiting on a queue), so printThroughput can show how many images per second
+ * each stage could keep up with. The stage with the lowest rate is the bottleneck.
+ */
+public class BitmapPipeline
+{
+   public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+   static final int READ = 0;
+   static final int DECODE = 1;
+   static final int CENTER = 2;
+   static final int SERIALIZE = 3;
+   static final int NUM_STAGES = 4;
+
+   static final String[] STAGE_NAMES = {"read", "decode", "center", "serialize"};
+
+   static final double NANOS_PER_SECOND = 1e9;
+
+   /*
+    * Marks the end of the jobs in a queue. Each decode or center worker stops when it
+    * takes one.
+    */
+   static final PipelineJob DONE = new PipelineJob(-1, null, null);
+
+   final BitmapDump dibdumper;
+   final int numWorkers, queueCapacity, maxInFlight;
+
+   BlockingQueue<PipelineJob> decodeQueue, centerQueue, serializeQueue;
+   Semaphore inFlight;
+   AtomicInteger decodersLeft;
+
+   AtomicLong[] stageImages, stageBusyNanos;
+   int[] stageWorkers;
+   long wallNanos;
+
+   /*
+    * Creates a pipeline.
+    *
+    * @param dibdumper       BitmapDump shared by all the workers (it must not print
+    *                        headers, or the output of the workers gets mixed up)
+    * @param numWorkers      number of threads each for the decode and center stages
+    * @param queueCapacity   number of jobs each queue between stages can hold
+    */
+   public BitmapPipeline(BitmapDump dibdumper, int numWorkers, int queueCapacity)
+   {
+      this.dibdumper = dibdumper;
+      this.numWorkers = numWorkers;
+      this.queueCapacity = queueCapacity;
+
+      /*
+       * Enough for every queue to be full and every worker to be busy
+       */
+      this.maxInFlight = 3 * queueCapacity + 2 * numWorkers + 1;
+   }
+
+   /*
+    * Converts the bitmaps and writes them to out, one sample each, along with their
+    * target line if there are targets. The bitmaps that make it through are written
+    * in the same order they are listed.
+    *
+    * The read, decode and center stages run on their own threads while this thread
+    * serializes. If writing fails, the other threads are stopped and the exception
+    * is passed on.
+    *
+    * @param bitmaps   paths of the bitmaps to convert
+    * @param targets   target line for each bitmap, or null for no target lines
+    * @param out       SampleWriter the samples are written to
+    *
+    * @return          number of bitmaps written
+    */
+   public int run(final List<Path> bitmaps, final List<String> targets, SampleWriter out)
+                  throws IOException
+   {
+      int numWritten = 0;
+      long startTime = System.nanoTime();
+
+      decodeQueue = new ArrayBlockingQueue<PipelineJob>(queueCapacity);
+      centerQueue = new ArrayBlockingQueue<PipelineJob>(queueCapacity);
+      serializeQueue = new ArrayBlockingQueue<PipelineJob>(queueCapacity);
+      inFlight = new Semaphore(maxInFlight);
+      decodersLeft = new AtomicInteger(numWorkers);
+
+      stageImages = new AtomicLong[NUM_STAGES];
+      stageBusyNanos = new AtomicLong[NUM_STAGES];
+      stageWorkers = new int[] {1, numWorkers, numWorkers, 1};
+
+      for (int stage = 0; stage < NUM_STAGES; stage++)
+      {
+         stageImages[stage] = new AtomicLong();
+         stageBusyNanos[stage] = new AtomicLong();
+      }
+
+      ExecutorService pool = Executors.newFixedThreadPool(1 + 2 * numWorkers);
+
+      try
+      {
+         pool.execute(new Runnable()
+         {
+            public void run()
+            {
+               readStage(bitmaps, targets);
+            }
+         });
+
+         for (int worker = 0; worker < numWorkers; worker++)
+         {
+            pool.execute(new Runnable()
+            {
+               public void run()
+               {
+                  decodeStage();
+               }
+            });
+
+            pool.execute(new Runnable()
+            {
+               public void run()
+               {
+                  centerStage();
+               }
+            });
+         } // for (int worker = 0; worker < numWorkers; worker++)
+
+         numWritten = serializeStage(bitmaps.size(), out);
+      } // try
+
+      catch (InterruptedException e)
+      {
+         throw new InterruptedIOException("Bitmap pipeline interrupted");
+      }
+
+      finally
+      {
+         pool.shutdownNow();   // only interrupts anything if something went wrong
+      }
+
+      wallNanos = System.nanoTime() - startTime;
+
+      return numWritten;
+   } // public int run(List<Path> bitmaps, List<String> targets, SampleWriter out)
+
+   /*
+    * Prints, for each stage, the number of images it handled, the time its workers
+    * spent working, and the number of images per second the stage can handle with
+    * its workers (images * workers / busy time), followed by the overall rate.
+    */
+   public void printThroughput()
+   {
+      System.out.printf("%-10s %8s %8s %10s %12s\n", "stage", "workers", "images",
+                        "busy (s)", "images/sec");
+
+      for (int stage = 0; stage < NUM_STAGES; stage++)
+      {
+         long images = stageImages[stage].get();
+         double busySeconds = stageBusyNanos[stage].get() / NANOS_PER_SECOND;
+         double rate = busySeconds > 0 ? images * stageWorkers[stage] / busySeconds : 0;
+
+         System.out.printf("%-10s %8d %8d %10.3f %12.1f\n", STAGE_NAMES[stage],
+                           stageWorkers[stage], images, busySeconds, rate);
+      }
+
+      System.out.printf("overall: %d images in %.3f s, %.1f images/sec\n",
+                        stageImages[SERIALIZE].get(), wallNanos / NANOS_PER_SECOND,
+                        stageImages[SERIALIZE].get() * NANOS_PER_SECOND / wallNanos);
+
+      return;
+   }
+
+   /*
+    * Reads each bitmap file into memory and passes it on to the decode stage, then
+    * tells every decode worker that there is nothing more to come.
+    *
+    * @param bitmaps   paths of the bitmaps to convert
+    * @param targets   target line for each bitmap, or null
+    */
+   void readStage(List<Path> bitmaps, List<String> targets)
+   {
+      try
+      {
+         for (int seq = 0; seq < bitmaps.size(); seq++)
+         {
+            PipelineJob job = new PipelineJob(seq, bitmaps.get(seq),
+                                              targets == null ? null : targets.get(seq));
+
+            inFlight.acquire();
+
+            long startTime = System.nanoTime();
+
+            try
+            {
+               job.bitmap = dibdumper.readBitmapFile(job.path.toString());
+            }
+            catch (Exception e)
+            {
+               job.error = "File input error " + e;
+            }
+
+            finishStage(READ, startTime);
+
+            decodeQueue.put(job);
+         } // for (int seq = 0; seq < bitmaps.size(); seq++)
+
+         for (int worker = 0; worker < numWorkers; worker++)
+         {
+            decodeQueue.put(DONE);
+         }
+      } // try
+
+      catch (InterruptedException e)
+      {
+         return;   // the pipeline is being shut down
+      }
+
+      return;
+   } // void readStage(List<Path> bitmaps, List<String> targets)
+
+   /*
+    * Decodes bitmaps into grayscale images until there are no more. The last decode
+    * worker to finish tells every center worker that there is nothing more to come.
+    */
+   void decodeStage()
+   {
+      try
+      {
+         PipelineJob job = decodeQueue.take();
+
+         while (job != DONE)
+         {
+            if (job.error == null)
+            {
+               long startTime = System.nanoTime();
+
+               try
+               {
+                  job.image = dibdumper.decode(job.bitmap);
+               }
+               catch (Exception e)
+               {
+                  job.error = "File input error " + e;
+               }
+
+               job.bitmap = null;   // the file is no longer needed
+
+               finishStage(DECODE, startTime);
+            } // if (job.error == null)
+
+            centerQueue.put(job);
+            job = decodeQueue.take();
+         } // while (job != DONE)
+
+         if (decodersLeft.decrementAndGet() == 0)
+         {
+            for (int worker = 0; worker < numWorkers; worker++)
+            {
+               centerQueue.put(DONE);
+            }
+         }
+      } // try
+
+      catch (InterruptedException e)
+      {
+         return;   // the pipeline is being shut down
+      }
+
+      return;
+   } // void decodeStage()
+
+   /*
+    * Centers images (see BitmapDump.centerImage) until there are no more. Images of
+    * the wrong size are marked to be skipped.
+    */
+   void centerStage()
+   {
+      try
+      {
+         PipelineJob job = centerQueue.take();
+
+         while (job != DONE)
+         {
+            if (job.error == null)
+            {
+               long startTime = System.nanoTime();
+               BitmapImage image = job.image;
+
+               if (image.getWidth() != BitmapDump.DIMENSION ||
+                   image.getHeight() != BitmapDump.DIMENSION)
+               {
+                  job.error = String.format("%d x %d, not %d x %d", image.getWidth(),
+                                            image.getHeight(), BitmapDump.DIMENSION,
+                                            BitmapDump.DIMENSION);
+                  job.image = null;
+               }
+               else
+               {
+                  try
+                  {
+                     job.image = dibdumper.centerImage(image);
+                  }
+                  catch (Exception e)
+                  {
+                     job.error = e.toString();
+                     job.image = null;
+                  }
+               }
+
+               finishStage(CENTER, startTime);
+            } // if (job.error == null)
+
+            serializeQueue.put(job);
+            job = centerQueue.take();
+         } // while (job != DONE)
+      } // try
+
+      catch (InterruptedException e)
+      {
+         return;   // the pipeline is being shut down
+      }
+
+      return;
+   } // void centerStage()
+
+   /*
+    * Writes the images out in the order they were listed. Images that arrive ahead of
+    * their turn wait in finished until the ones before them have been written.
+    *
+    * @param numJobs   total number of bitmaps
+    * @param out       SampleWriter the samples are written to
+    *
+    * @return          number of bitmaps written
+    */
+   int serializeStage(int numJobs, SampleWriter out) throws IOException, InterruptedException
+   {
+      Map<Integer, PipelineJob> finished = new HashMap<Integer, PipelineJob>();
+      int nextSeq = 0;
+      int numWritten = 0;
+
+      while (nextSeq < numJobs)
+      {
+         PipelineJob job = serializeQueue.take();
+         finished.put(job.seq, job);
+
+         job = finished.remove(nextSeq);
+
+         while (job != null)
+         {
+            if (job.error != null)
+            {
+               System.err.println(job.path + ": " + job.error + ", skipped");
+            }
+            else
+            {
+               long startTime = System.nanoTime();
+
+               out.write(job.image, job.target);
+
+               finishStage(SERIALIZE, startTime);
+               numWritten++;
+            } // else
+
+            inFlight.release();
+
+            nextSeq++;
+            job = finished.remove(nextSeq);
+         } // while (job != null)
+
+      } // while (nextSeq < numJobs)
+
+      return numWritten;
+   } // int serializeStage(int numJobs, SampleWriter out)
+
+   /*
+    * Counts one more image for a stage along with the time spent on it.
+    *
+    * @param stage       the stage (READ, DECODE, CENTER or SERIALIZE)
+    * @param startTime   System.nanoTime() when the stage started on the image
+    */
+   void finishStage(int stage, long startTime)
+   {
+      stageBusyNanos[stage].addAndGet(System.nanoTime() - startTime);
+      stageImages[stage].incrementAndGet();
+
+      return;
+   }
+
+}  // public class BitmapPipeline
+
+/*
+ * One bitmap on its way through the pipeline. The stages fill in bitmap (the file
+ * read into memory), then image, or error if the bitmap has to be skipped. A job is
+ * only ever worked on by one stage at a time and is handed on through a
+ * BlockingQueue, so the next stage always sees what the last one wrote.
+ */
+final class PipelineJob
+{
+   final int seq;             // position of the bitmap in the list
+   final Path path;
+   final String target;       // target line, or null
+
+   ByteBuffer bitmap;
+   BitmapImage image;
+   String error;
+
+   PipelineJob(int seq, Path path, String target)
+   {
+      this.seq = seq;
+      this.path = path;
+      this.target = target;
+   }
+}
@@ -0,0 +1,328 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class Checkpoint, which saves the state of a NeuralNets
+ * network that is training every so often, on a thread of its own, so that training
+ * can go on from the last checkpoint after a crash instead of starting over.
+ *
+ * Methods in this file:
+ *  public Checkpoint(String fileName, int everyIterations, double everyMinutes)
+ *  public boolean isDue(long count, int numModels)
+ *  public boolean save(NeuralNets net, long count)
+ *  public void close(NeuralNets net, long count)
+ *  public static long resume(String fileName, NeuralNets net)
+ *  void writeFile()
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+/*
+ * A checkpoint file holds everything train() needs to go on where it was: the number
+ * of test cases trained so far (count), the learning factors, the total error of the
+ * last iteration (prevError, which decides whether the learning factors are halved)
+ * and the weights. It is little endian, and laid out as
+ *
+ *    int      MAGIC          "OCRK"
+ *    int      VERSION
+ *    long     count
+ *    double   learningFactorkj
+ *    double   learningFactorji
+ *    double   prevError
+ *    int      0              so the weights file starts on a multiple of 8 bytes
+ *    int      0
+ *
+ *    followed by the weights, as a whole binary weights file (see WeightsFile), with
+ *    its own header and checksum
+ *
+ * save() is called at the end of an iteration, when no thread is changing the
+ * weights. It copies the weights (out of the FloatNetwork of the network, if it has
+ * one) and the rest of the state into arrays of its own -- a few milliseconds -- and
+ * hands them to the writer thread, so training goes on while the file is written. If
+ * the last checkpoint is still being written, the new one is skipped rather than
+ * making training wait, and is owed: isDue() says a checkpoint is due at the end of
+ * every iteration after it until one is taken, and close() waits for the writer and
+ * takes it if training ends first. So the file is never more than one checkpoint
+ * behind, however long a write takes next to an iteration.
+ *
+ * The file is written under a temporary name and then renamed over the old one, so a
+ * crash while writing leaves the last whole checkpoint as it was. A checkpoint that
+ * cannot be written is reported on System.err and training goes on.
+ */
+public class Checkpoint
+{
+   public static final int MAGIC = 0x4B52434F;            // "OCRK" in little endian
+   public static final int VERSION = 1;
+   public static final int STATE_BYTES = 48;              // everything before the weights
+   public static final String TEMPORARY_SUFFIX = ".tmp";
+   public static final double NANOS_PER_MINUTE = 60e9;
+
+   final String fileName;
+   final int everyIterations;                   // 0 for no checkpoints by iterations
+   final long everyNanos;                       // 0 for no checkpoints by time
+   final double[] savedkj, savedji;             // the state being written
+   long savedCount;
+   double savedLearningFactorkj, savedLearningFactorji, savedPrevError;
+   long lastNanos;                              // when the last checkpoint was taken
+   boolean owed;                                // a due checkpoint was skipped
+   final ExecutorService writer;
+   Future<?> pending;                           // the checkpoint being written
+
+   /*
+    * Creates the arrays for the state and the writer thread.
+    *
+    * @param fileName          name of the checkpoint file
+    * @param everyIterations   take a checkpoint every this many iterations, or 0
+    * @param everyMinutes      take a checkpoint once this many minutes have gone by
+    *                          since the last, or 0
+    */
+   public Checkpoint(String fileName, int everyIterations, double everyMinutes)
+   {
+      this.fileName = fileName;
+      this.everyIterations = everyIterations;
+      this.everyNanos = (long)(everyMinutes * NANOS_PER_MINUTE);
+      this.savedkj = new double[NeuralNets.NUM_INPUTS * NeuralNets.NUM_HIDDEN];
+      this.savedji = new double[NeuralNets.NUM_HIDDEN * NeuralNets.NUM_OUTPUTS];
+      this.lastNanos = System.nanoTime();
+      this.writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+      {
+         public Thread newThread(Runnable task)
+         {
+            Thread thread = new Thread(task, "checkpoint writer");
+
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+   } // public Checkpoint(String fileName, int everyIterations, double everyMinutes)
+
+   /*
+    * Returns whether a checkpoint should be taken now, at the end of an iteration:
+    * every everyIterations iterations, once everyNanos have gone by, or if the last
+    * one that was due was skipped.
+    *
+    * @param count       test cases trained so far
+    * @param numModels   test cases in an iteration
+    *
+    * @return            true if a checkpoint is due
+    */
+   public boolean isDue(long count, int numModels)
+   {
+      long iterations = count / numModels;
+
+      if (owed)
+      {
+         return true;
+      }
+
+      if (everyIterations > 0 && iterations % everyIterations == 0)
+      {
+         return true;
+      }
+
+      return everyNanos > 0 && System.nanoTime() - lastNanos >= everyNanos;
+   }
+
+   /*
+    * Copies the state of net and starts writing it to the checkpoint file on the
+    * writer thread, unless the last checkpoint is still being written; then it is
+    * owed, and taken at the next chance (see isDue() and close()).
+    *
+    * @param net     the network, between two iterations
+    * @param count   test cases trained so far
+    *
+    * @return        true if the checkpoint was taken, false if it was skipped
+    */
+   public boolean save(NeuralNets net, long count)
+   {
+      if (pending != null && !pending.isDone())
+      {
+         owed = true;
+         return false;
+      }
+
+      owed = false;
+
+      if (net.floatNet != null)        // net keeps no double weights, see train()
+      {
+         net.floatNet.copyTo(savedkj, savedji);
+      }
+      else
+      {
+         System.arraycopy(net.weightskj, 0, savedkj, 0, savedkj.length);
+         System.arraycopy(net.weightsji, 0, savedji, 0, savedji.length);
+      }
+
+      savedCount = count;
+      savedLearningFactorkj = net.learningFactorkj;
+      savedLearningFactorji = net.learningFactorji;
+      savedPrevError = net.prevError;
+      lastNanos = System.nanoTime();
+
+      pending = writer.submit(new Runnable()
+      {
+         public void run()
+         {
+            try
+            {
+               writeFile();
+            }
+
+            catch (IOException e)
+            {
+               System.err.println("Could not write checkpoint " + fileName + ": " +
+                                  e.getMessage());
+            }
+         }
+      });
+
+      return true;
+   } // public boolean save(NeuralNets net, long count)
+
+   /*
+    * Waits for the checkpoint being written, if any, takes the one that is owed, if
+    * any, and stops the writer thread.
+    *
+    * @param net     the network, done training
+    * @param count   test cases trained so far
+    */
+   public void close(NeuralNets net, long count)
+   {
+      if (owed)
+      {
+         try
+         {
+            pending.get();
+            save(net, count);
+         }
+
+         catch (InterruptedException e)
+         {
+            Thread.currentThread().interrupt();
+         }
+         catch (ExecutionException e)
+         {
+            throw new IllegalStateException("Checkpoint writer failed", e.getCause());
+         }
+      } // if (owed)
+
+      writer.shutdown();
+
+      try
+      {
+         writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+
+      return;
+   }
+
+   /*
+    * Sets the weights, learning factors and prevError of net to those in a checkpoint
+    * file.
+    *
+    * @param fileName   name of the checkpoint file
+    * @param net        the network
+    *
+    * @return           the number of test cases trained when the checkpoint was taken
+    */
+   public static long resume(String fileName, NeuralNets net) throws IOException
+   {
+      FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+      try
+      {
+         if (channel.size() < STATE_BYTES)
+         {
+            throw new IOException(fileName + " is not a checkpoint file.");
+         }
+
+         ByteBuffer state = channel.map(FileChannel.MapMode.READ_ONLY, 0, STATE_BYTES)
+                                   .order(ByteOrder.LITTLE_ENDIAN);
+
+         if (state.getInt() != MAGIC)
+         {
+            throw new IOException(fileName + " is not a checkpoint file.");
+         }
+
+         int version = state.getInt();
+
+         if (version != VERSION)
+         {
+            throw new IOException(fileName + " has version " + version +
+                                  ", expected " + VERSION);
+         }
+
+         long count = state.getLong();
+
+         net.learningFactorkj = state.getDouble();
+         net.learningFactorji = state.getDouble();
+         net.prevError = state.getDouble();
+
+         DoubleBuffer weights = WeightsFile.mapWeights(channel, fileName, STATE_BYTES,
+                                                       net.numElementskj +
+                                                       net.numElementsji)
+                                           .asDoubleBuffer();
+
+         weights.get(net.weightskj);
+         weights.get(net.weightsji);
+
+         return count;
+      } // try
+
+      finally
+      {
+         channel.close();
+      }
+   } // public static long resume(String fileName, NeuralNets net)
+
+   /*
+    * Runs on the writer thread: writes the saved state to a temporary file and then
+    * renames it to fileName.
+    */
+   void writeFile() throws IOException
+   {
+      Path temporary = Paths.get(fileName + TEMPORARY_SUFFIX);
+      FileChannel channel = WeightsFile.openForWriting(temporary.toString());
+
+      try
+      {
+         ByteBuffer state = ByteBuffer.allocate(STATE_BYTES)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+
+         state.putInt(MAGIC);
+         state.putInt(VERSION);
+         state.putLong(savedCount);
+         state.putDouble(savedLearningFactorkj);
+         state.putDouble(savedLearningFactorji);
+         state.putDouble(savedPrevError);
+         state.putInt(0);
+         state.putInt(0);
+         state.flip();
+
+         WeightsFile.writeFully(channel, state, 0);
+         WeightsFile.write(channel, STATE_BYTES, savedkj, savedji);
+         channel.force(true);
+      } // try
+
+      finally
+      {
+         channel.close();
+      }
+
+      Files.move(temporary, Paths.get(fileName), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+
+      return;
+   } // void writeFile()
+
+}  // public class Checkpoint
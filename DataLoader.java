@@ -0,0 +1,281 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class DataLoader, which hands the test cases of a DataSet to
+ * train() one block at a time, in a new shuffled order every epoch if asked to, while
+ * the next block is gathered on a thread of its own.
+ *
+ * Methods in this file:
+ *  public DataLoader(DataSet set, int batchSize, boolean shuffle, long seed,
+ *                    int firstEpoch)
+ *  public int getBlockCases()
+ *  public DataSet nextBlock()
+ *  public void close()
+ *  void scheduleNext()
+ *  DataSet gather(int epoch, int first, int numCases, ByteBuffer[] chunks)
+ *  void shuffleOrder(int epoch)
+ */
+
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * An epoch is cut into blocks of blockCases test cases, BLOCK_CASES rounded up to a
+ * whole number of mini-batches (batchSize test cases each), so no mini-batch ever
+ * straddles two blocks; the last block of an epoch may be smaller. The size of a
+ * block does not depend on how many test cases train() hands a trainer at a time: a
+ * HogwildTrainer, which could take a whole epoch at once, is handed one block at a
+ * time as a range of test cases, so the two buffers hold two blocks and not two
+ * copies of the set, and the next block is gathered while this one trains. The
+ * reader thread copies the samples of a block out of the set, in the order of the
+ * epoch, into one of two buffers of its own and wraps them as a small DataSet, so
+ * every way train() has of going through test cases (getSample,
+ * FloatNetwork.setCase, forwardBatch, ParallelTrainer and HogwildTrainer) reads a
+ * block exactly as it would read the whole set.
+ *
+ * nextBlock() waits for the block being gathered and at once starts gathering the
+ * one after it into the other buffer. The block it returns is only read until the
+ * next call, so the reader never writes a buffer that is still being trained on. For
+ * a binary set, which is memory mapped, this also means the pages of the next block
+ * are read in from the file while the training thread is busy with this one, instead
+ * of in the middle of a forward loop.
+ *
+ * The samples are copied as they are stored, inputDim bytes and outputDim floats
+ * each (or ints and doubles for a wide set, see DataSet), a quarter of the size of
+ * the same sample as doubles; they are turned into doubles when they are read out of
+ * the block.
+ *
+ * If shuffle is set, the order of each epoch is a shuffle of the whole set made with
+ * a Random seeded from seed and the number of the epoch, so the same seed gives the
+ * same orders every run, and a run resumed from a checkpoint at the start of an epoch
+ * (see Checkpoint) goes through the same orders as the run that wrote it. The two are
+ * mixed by multiplying seed by SEED_MIX (2^64 over the golden ratio, an odd number
+ * whose bits look random) before the epoch is xored in; seed + epoch would give seed
+ * s in epoch e + 1 the order of seed s + 1 in epoch e, so runs with nearby seeds
+ * would go through the same orders one epoch apart. Otherwise every epoch is in file
+ * order, and training is exactly the same as reading the set directly.
+ */
+public class DataLoader
+{
+   public static final int BLOCK_CASES = 256;           // test cases in a block, at least
+   public static final int NUM_BUFFERS = 2;
+   public static final long SEED_MIX = 0x9E3779B97F4A7C15L;
+
+   final DataSet set;
+   final int blockCases;
+   final boolean shuffle;
+   final long seed;
+   final int[] order;                           // indices in the set, in epoch order
+   final ByteBuffer[][] buffers;                // the chunks of each buffer
+   final ExecutorService reader;
+   Future<DataSet> pending;                     // the block being gathered
+   int nextEpoch, nextFirst, nextBuffer;        // where the block after it starts
+
+   /*
+    * Creates the buffers and the reader thread and starts gathering the first block.
+    *
+    * @param set            the test cases
+    * @param batchSize      test cases in a mini-batch, 1 for none
+    * @param shuffle        true to shuffle the test cases every epoch
+    * @param seed           seed of the shuffles
+    * @param firstEpoch     number of the first epoch, 0 unless resuming
+    */
+   public DataLoader(DataSet set, int batchSize, boolean shuffle, long seed,
+                     int firstEpoch)
+   {
+      this.set = set;
+      this.blockCases = batchSize * ((BLOCK_CASES + batchSize - 1) / batchSize);
+      this.shuffle = shuffle;
+      this.seed = seed;
+      this.order = new int[set.count];
+      this.buffers = new ByteBuffer[NUM_BUFFERS][];
+
+      int bufferCases = Math.min(blockCases, set.count);
+      ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+
+      if (set.chunks.length > 0)
+      {
+         byteOrder = set.chunks[0].order();
+      }
+
+      for (int buffer = 0; buffer < NUM_BUFFERS; buffer++)
+      {
+         buffers[buffer] = new ByteBuffer[DataSet.numChunks(bufferCases,
+                                                             set.samplesPerChunk)];
+
+         for (int chunk = 0; chunk < buffers[buffer].length; chunk++)
+         {
+            int numSamples = Math.min(set.samplesPerChunk,
+                                      bufferCases - chunk * set.samplesPerChunk);
+
+            buffers[buffer][chunk] = ByteBuffer.allocate(numSamples * set.sampleBytes)
+                                               .order(byteOrder);
+         }
+      } // for (int buffer = 0; buffer < NUM_BUFFERS; buffer++)
+
+      this.reader = Executors.newSingleThreadExecutor(new ThreadFactory()
+      {
+         public Thread newThread(Runnable task)
+         {
+            Thread thread = new Thread(task, "data loader");
+
+            thread.setDaemon(true);
+            return thread;
+         }
+      });
+
+      nextEpoch = firstEpoch;
+      scheduleNext();
+   } // public DataLoader(DataSet set, int batchSize, boolean shuffle, long seed, ...)
+
+   /*
+    * Returns the number of test cases in a block, all but the last of each epoch.
+    *
+    * @return       test cases in a block
+    */
+   public int getBlockCases()
+   {
+      return blockCases;
+   }
+
+   /*
+    * Returns the next block of test cases, waiting for it if the reader thread is not
+    * done with it yet, and starts gathering the one after it. The block must not be
+    * read after the next call.
+    *
+    * @return       the block, test case 0 of which is the first of the block
+    */
+   public DataSet nextBlock()
+   {
+      DataSet block;
+
+      try
+      {
+         block = pending.get();
+      }
+
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Loading interrupted", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Data loader failed", e.getCause());
+      }
+
+      scheduleNext();
+
+      return block;
+   } // public DataSet nextBlock()
+
+   /*
+    * Stops the reader thread once the block it is gathering is done.
+    */
+   public void close()
+   {
+      reader.shutdown();
+
+      return;
+   }
+
+   /*
+    * Starts gathering the block at nextEpoch and nextFirst into the next buffer on the
+    * reader thread, and moves them on to the block after it.
+    */
+   void scheduleNext()
+   {
+      final int epoch = nextEpoch;
+      final int first = nextFirst;
+      final int numCases = Math.min(blockCases, set.count - first);
+      final ByteBuffer[] chunks = buffers[nextBuffer];
+
+      pending = reader.submit(new Callable<DataSet>()
+      {
+         public DataSet call()
+         {
+            return gather(epoch, first, numCases, chunks);
+         }
+      });
+
+      nextFirst += numCases;
+
+      if (nextFirst >= set.count)
+      {
+         nextEpoch++;
+         nextFirst = 0;
+      }
+
+      nextBuffer = (nextBuffer + 1) % NUM_BUFFERS;
+
+      return;
+   } // void scheduleNext()
+
+   /*
+    * Runs on the reader thread: copies numCases samples, from position first in the
+    * order of epoch on, into chunks. The order is made when the first block of an
+    * epoch is gathered.
+    *
+    * @param epoch      number of the epoch
+    * @param first      position in the epoch of the first test case of the block
+    * @param numCases   number of test cases in the block
+    * @param chunks     the buffer to fill, set.samplesPerChunk samples to a chunk
+    *
+    * @return           the block
+    */
+   DataSet gather(int epoch, int first, int numCases, ByteBuffer[] chunks)
+   {
+      if (first == 0)
+      {
+         shuffleOrder(epoch);
+      }
+
+      for (int n = 0; n < numCases; n++)
+      {
+         int index = order[first + n];
+         ByteBuffer chunk = chunks[n / set.samplesPerChunk];
+
+         set.chunkOf(index).get(set.offsetOf(index), chunk.array(),
+                                chunk.arrayOffset() +
+                                (n % set.samplesPerChunk) * set.sampleBytes,
+                                set.sampleBytes);
+      }
+
+      return new DataSet(numCases, set.inputDim, set.outputDim, set.wide, chunks);
+   } // DataSet gather(int epoch, int first, int numCases, ByteBuffer[] chunks)
+
+   /*
+    * Sets order to the order of the test cases in epoch: file order, or if shuffle is
+    * set, a Fisher-Yates shuffle of it with a Random seeded from seed and epoch alone,
+    * mixed as in the class comment.
+    *
+    * @param epoch   number of the epoch
+    */
+   void shuffleOrder(int epoch)
+   {
+      for (int index = 0; index < order.length; index++)
+      {
+         order[index] = index;
+      }
+
+      if (shuffle)
+      {
+         Random random = new Random(seed * SEED_MIX ^ epoch);
+
+         for (int index = order.length - 1; index > 0; index--)
+         {
+            int other = random.nextInt(index + 1);
+            int swap = order[index];
+
+            order[index] = order[other];
+            order[other] = swap;
+         }
+      } // if (shuffle)
+
+      return;
+   } // void shuffleOrder(int epoch)
+
+}  // public class DataLoader
@@ -0,0 +1,504 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the final class DataSet, which holds a whole training or input set
+ * in memory (or memory mapped) so that any sample can be read by its index without
+ * going back to the file.
+ *
+ * Methods in this file:
+ *  DataSet(int count, int inputDim, int outputDim, boolean wide, ByteBuffer[] chunks)
+ *  public static DataSet mapBinary(String fileName)
+ *  public static DataSet readText(String fileName, int outputDim)
+ *  static DataSet readText(String fileName, int outputDim, boolean wide)
+ *  public int getCount()
+ *  public int getInputDim()
+ *  public int getOutputDim()
+ *  public void getSample(int index, double[] inputs, double[] targets)
+ *  public void getInputs(int index, double[] inputs)
+ *  public void getTargets(int index, double[] targets)
+ *  public void getInputs(int index, float[] inputs)
+ *  public void getTargets(int index, float[] targets)
+ *  public void getInputs(int index, byte[] inputs)
+ *  ByteBuffer chunkOf(int index)
+ *  int offsetOf(int index)
+ *  static int sampleBytes(int inputDim, int outputDim, boolean wide)
+ *  static int samplesPerChunk(int sampleBytes)
+ *  static int numChunks(int count, int samplesPerChunk)
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * A DataSet keeps its samples in the layout of the binary set format (see
+ * DataSetFormat): inputDim unsigned bytes followed by outputDim floats per sample. A
+ * binary set file is memory mapped as it is, so opening it reads nothing until the
+ * samples are used, and the operating system keeps the pages cached from one epoch to
+ * the next. A text set is parsed once into the same layout on the heap.
+ *
+ * The text format itself is not that narrow: an input is any hex int and an expected
+ * output any double. A text set with an input outside 0 to 255, or an expected output
+ * a float cannot hold exactly, is kept in a wide layout instead, inputDim ints and
+ * outputDim doubles per sample, so it trains on exactly the values in the file, as it
+ * did when NeuralNets parsed each test case itself. Only the byte inputs of
+ * getInputs(int, byte[]) (for QuantizedModel) cannot hold such a set's inputs.
+ *
+ * The samples are split into chunks of whole samples, each at most MAX_CHUNK_BYTES
+ * long, since a single ByteBuffer cannot be more than 2 GB.
+ *
+ * Samples are only read with absolute gets, which do not move the buffers' positions,
+ * so one DataSet can be read by several threads at once.
+ */
+public final class DataSet
+{
+   public static final int MAX_CHUNK_BYTES = 1 << 30;
+   public static final int INT_BYTES = 4;                 // an input in the wide layout
+   public static final int DOUBLE_BYTES = 8;              // an output in the wide layout
+
+   final int count, inputDim, outputDim;
+   final boolean wide;                          // ints and doubles, not bytes and floats
+   final int sampleBytes, samplesPerChunk;
+   final ByteBuffer[] chunks;
+
+   /*
+    * Creates a DataSet from chunks that are already filled in.
+    *
+    * @param count       number of samples
+    * @param inputDim    number of inputs per sample
+    * @param outputDim   number of expected outputs per sample
+    * @param wide        true for the wide layout of ints and doubles
+    * @param chunks      the samples, samplesPerChunk(sampleBytes) to a chunk
+    */
+   DataSet(int count, int inputDim, int outputDim, boolean wide, ByteBuffer[] chunks)
+   {
+      this.count = count;
+      this.inputDim = inputDim;
+      this.outputDim = outputDim;
+      this.wide = wide;
+      this.sampleBytes = sampleBytes(inputDim, outputDim, wide);
+      this.samplesPerChunk = samplesPerChunk(sampleBytes);
+      this.chunks = chunks;
+   }
+
+   /*
+    * Memory maps a set in the binary format.
+    *
+    * @param fileName   name of the binary set file
+    *
+    * @return           the set, backed by the file
+    */
+   public static DataSet mapBinary(String fileName) throws IOException
+   {
+      FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+      try
+      {
+         if (channel.size() < DataSetFormat.HEADER_BYTES)
+         {
+            throw new IOException(fileName + " is not a binary set file.");
+         }
+
+         ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                         DataSetFormat.HEADER_BYTES)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+
+         if (header.getInt() != DataSetFormat.MAGIC)
+         {
+            throw new IOException(fileName + " is not a binary set file.");
+         }
+
+         int version = header.getInt();
+
+         if (version != DataSetFormat.VERSION)
+         {
+            throw new IOException(fileName + " has version " + version + ", expected " +
+                                  DataSetFormat.VERSION);
+         }
+
+         int count = header.getInt();
+         int inputDim = header.getInt();
+         int outputDim = header.getInt();
+         long sampleBytes = inputDim + (long)outputDim * DataSetFormat.FLOAT_BYTES;
+
+         if (channel.size() < DataSetFormat.HEADER_BYTES + count * sampleBytes)
+         {
+            throw new EOFException(fileName + " is shorter than its " + count +
+                                   " samples");
+         }
+
+         int samplesPerChunk = samplesPerChunk((int)sampleBytes);
+         ByteBuffer[] chunks = new ByteBuffer[numChunks(count, samplesPerChunk)];
+
+         for (int chunk = 0; chunk < chunks.length; chunk++)
+         {
+            int first = chunk * samplesPerChunk;
+            int numSamples = Math.min(samplesPerChunk, count - first);
+
+            chunks[chunk] = channel.map(FileChannel.MapMode.READ_ONLY,
+                                        DataSetFormat.HEADER_BYTES + first * sampleBytes,
+                                        numSamples * sampleBytes)
+                                   .order(ByteOrder.LITTLE_ENDIAN);
+         }
+
+         return new DataSet(count, inputDim, outputDim, false, chunks);
+      } // try
+
+      finally
+      {
+         channel.close();   // the mappings stay valid after the channel is closed
+      }
+   } // public static DataSet mapBinary(String fileName)
+
+   /*
+    * Reads a set in the text format (see DataSetFormat.importText) and parses it once
+    * into memory, in the layout of the binary format if every value fits in it (as
+    * everything BitmapDump writes does) and in the wide layout if not.
+    *
+    * @param fileName    name of the text set file
+    * @param outputDim   number of expected outputs per sample, 0 for an input set
+    *
+    * @return            the set, held on the heap
+    */
+   public static DataSet readText(String fileName, int outputDim) throws IOException
+   {
+      DataSet set = readText(fileName, outputDim, false);
+
+      if (set == null)     // a value did not fit in a byte or a float
+      {
+         set = readText(fileName, outputDim, true);
+      }
+
+      return set;
+   }
+
+   /*
+    * Reads a set in the text format into the layout of the binary format, or into the
+    * wide layout.
+    *
+    * @param fileName    name of the text set file
+    * @param outputDim   number of expected outputs per sample, 0 for an input set
+    * @param wide        true for the wide layout
+    *
+    * @return            the set, or null if it is not wide and a value does not fit
+    */
+   static DataSet readText(String fileName, int outputDim, boolean wide)
+   throws IOException
+   {
+      BufferedReader in = new BufferedReader(new FileReader(fileName));
+
+      try
+      {
+         int count = Integer.parseInt(in.readLine().trim());
+         int inputDim = 0;
+         int sampleBytes = 0;
+         int samplesPerChunk = 0;
+         ByteBuffer[] chunks = null;
+
+         for (int sample = 0; sample < count; sample++)
+         {
+            StringTokenizer st = new StringTokenizer(in.readLine());
+
+            if (chunks == null)  // the first line of inputs sets the number of inputs
+            {
+               inputDim = st.countTokens();
+               sampleBytes = sampleBytes(inputDim, outputDim, wide);
+               samplesPerChunk = samplesPerChunk(sampleBytes);
+               chunks = new ByteBuffer[numChunks(count, samplesPerChunk)];
+            }
+
+            int chunk = sample / samplesPerChunk;
+
+            if (chunks[chunk] == null)
+            {
+               int numSamples = Math.min(samplesPerChunk, count - chunk * samplesPerChunk);
+
+               chunks[chunk] = ByteBuffer.allocate(numSamples * sampleBytes)
+                                         .order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            for (int k = 0; k < inputDim; k++)
+            {
+               int input = Integer.parseInt(st.nextToken(), 16);
+
+               if (wide)
+               {
+                  chunks[chunk].putInt(input);
+               }
+               else if (input >= 0 && input <= DataSetFormat.MAX_INPUT)
+               {
+                  chunks[chunk].put((byte)input);
+               }
+               else
+               {
+                  return null;
+               }
+            } // for (int k = 0; k < inputDim; k++)
+
+            if (outputDim > 0)
+            {
+               double[] targets = DataSetFormat.parseDoubleTargets(in.readLine(),
+                                                                   outputDim);
+
+               for (int i = 0; i < outputDim; i++)
+               {
+                  if (wide)
+                  {
+                     chunks[chunk].putDouble(targets[i]);
+                  }
+                  else if ((double)(float)targets[i] == targets[i])
+                  {
+                     chunks[chunk].putFloat((float)targets[i]);
+                  }
+                  else
+                  {
+                     return null;
+                  }
+               } // for (int i = 0; i < outputDim; i++)
+            } // if (outputDim > 0)
+         } // for (int sample = 0; sample < count; sample++)
+
+         if (chunks == null)     // no samples at all
+         {
+            chunks = new ByteBuffer[0];
+         }
+
+         return new DataSet(count, inputDim, outputDim, wide, chunks);
+      } // try
+
+      finally
+      {
+         in.close();
+      }
+   } // static DataSet readText(String fileName, int outputDim, boolean wide)
+
+   public int getCount()
+   {
+      return count;
+   }
+
+   public int getInputDim()
+   {
+      return inputDim;
+   }
+
+   public int getOutputDim()
+   {
+      return outputDim;
+   }
+
+   /*
+    * Copies sample index into inputs and targets as doubles, the way NeuralNets uses
+    * them.
+    *
+    * @param index     index of the sample, from 0 to count - 1
+    * @param inputs    array for the inputDim inputs
+    * @param targets   array for the outputDim expected outputs, or null to skip them
+    */
+   public void getSample(int index, double[] inputs, double[] targets)
+   {
+      getInputs(index, inputs);
+
+      if (targets != null)
+      {
+         getTargets(index, targets);
+      }
+
+      return;
+   }
+
+   /*
+    * Copies the inputs of sample index into inputs.
+    *
+    * @param index    index of the sample
+    * @param inputs   array for the inputDim inputs
+    */
+   public void getInputs(int index, double[] inputs)
+   {
+      ByteBuffer chunk = chunkOf(index);
+      int offset = offsetOf(index);
+
+      for (int k = 0; k < inputDim; k++)
+      {
+         if (wide)
+         {
+            inputs[k] = chunk.getInt(offset + k * INT_BYTES);
+         }
+         else
+         {
+            inputs[k] = chunk.get(offset + k) & DataSetFormat.MAX_INPUT;
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * Copies the expected outputs of sample index into targets.
+    *
+    * @param index     index of the sample
+    * @param targets   array for the outputDim expected outputs
+    */
+   public void getTargets(int index, double[] targets)
+   {
+      ByteBuffer chunk = chunkOf(index);
+      int offset = offsetOf(index) + sampleBytes(inputDim, 0, wide);
+
+      for (int i = 0; i < outputDim; i++)
+      {
+         if (wide)
+         {
+            targets[i] = chunk.getDouble(offset + i * DOUBLE_BYTES);
+         }
+         else
+         {
+            targets[i] = chunk.getFloat(offset + i * DataSetFormat.FLOAT_BYTES);
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * Copies the inputs of sample index into inputs as floats (see FloatNetwork).
+    *
+    * @param index    index of the sample
+    * @param inputs   array for the inputDim inputs
+    */
+   public void getInputs(int index, float[] inputs)
+   {
+      ByteBuffer chunk = chunkOf(index);
+      int offset = offsetOf(index);
+
+      for (int k = 0; k < inputDim; k++)
+      {
+         if (wide)
+         {
+            inputs[k] = chunk.getInt(offset + k * INT_BYTES);
+         }
+         else
+         {
+            inputs[k] = chunk.get(offset + k) & DataSetFormat.MAX_INPUT;
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * Copies the expected outputs of sample index into targets as floats.
+    *
+    * @param index     index of the sample
+    * @param targets   array for the outputDim expected outputs
+    */
+   public void getTargets(int index, float[] targets)
+   {
+      ByteBuffer chunk = chunkOf(index);
+      int offset = offsetOf(index) + sampleBytes(inputDim, 0, wide);
+
+      for (int i = 0; i < outputDim; i++)
+      {
+         if (wide)
+         {
+            targets[i] = (float)chunk.getDouble(offset + i * DOUBLE_BYTES);
+         }
+         else
+         {
+            targets[i] = chunk.getFloat(offset + i * DataSetFormat.FLOAT_BYTES);
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * Copies the inputs of sample index into inputs as unsigned bytes, the way the
+    * binary layout stores them (see QuantizedModel). An input of a wide set that is
+    * not from 0 to 255 cannot be copied.
+    *
+    * @param index    index of the sample
+    * @param inputs   array for the inputDim inputs
+    */
+   public void getInputs(int index, byte[] inputs)
+   {
+      ByteBuffer chunk = chunkOf(index);
+      int offset = offsetOf(index);
+
+      for (int k = 0; k < inputDim; k++)
+      {
+         if (wide)
+         {
+            int input = chunk.getInt(offset + k * INT_BYTES);
+
+            if (input < 0 || input > DataSetFormat.MAX_INPUT)
+            {
+               throw new IllegalStateException("Input " + k + " of sample " + index +
+                                               " does not fit in a byte");
+            }
+
+            inputs[k] = (byte)input;
+         }
+         else
+         {
+            inputs[k] = chunk.get(offset + k);
+         }
+      } // for (int k = 0; k < inputDim; k++)
+
+      return;
+   }
+
+   /*
+    * Returns the chunk holding sample index.
+    */
+   ByteBuffer chunkOf(int index)
+   {
+      if (index < 0 || index >= count)
+      {
+         throw new IndexOutOfBoundsException("Sample " + index + " of " + count);
+      }
+
+      return chunks[index / samplesPerChunk];
+   }
+
+   /*
+    * Returns where sample index starts within its chunk.
+    */
+   int offsetOf(int index)
+   {
+      return (index % samplesPerChunk) * sampleBytes;
+   }
+
+   /*
+    * Returns the number of bytes a sample takes in the binary layout or the wide one.
+    */
+   static int sampleBytes(int inputDim, int outputDim, boolean wide)
+   {
+      if (wide)
+      {
+         return inputDim * INT_BYTES + outputDim * DOUBLE_BYTES;
+      }
+
+      return inputDim + outputDim * DataSetFormat.FLOAT_BYTES;
+   }
+
+   /*
+    * Returns the number of samples of sampleBytes bytes that fit in one chunk.
+    */
+   static int samplesPerChunk(int sampleBytes)
+   {
+      return Math.max(1, MAX_CHUNK_BYTES / Math.max(1, sampleBytes));
+   }
+
+   /*
+    * Returns the number of chunks needed for count samples.
+    */
+   static int numChunks(int count, int samplesPerChunk)
+   {
+      return (count + samplesPerChunk - 1) / samplesPerChunk;
+   }
+
+}  // public final class DataSet
@@ -0,0 +1,350 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class DataSetFormat, which describes the binary format for
+ * the training and input sets that BitmapDump writes and NeuralNets reads, and which
+ * converts sets between the binary format and the hex text format of
+ * "OCR_trainingset.in" and "OCR_inputset.in". The sets themselves are written by
+ * DataSetWriter and read by DataSetReader (see DataSetWriter.java and DataSetReader.java).
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public static int importText(String textFileName, String binaryFileName,
+ *                               int outputDim)
+ *  public static int exportText(String binaryFileName, String textFileName)
+ *  static void writeHexLine(byte[] inputs, Writer out)
+ *  static String formatTargets(float[] targets)
+ *  static float[] parseTargets(String target, int outputDim)
+ *  static double[] parseDoubleTargets(String target, int outputDim)
+ *  static boolean isBinaryFile(String fileName)
+ */
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * The binary set format is little endian (like the bitmaps themselves) and is laid out
+ * as a header followed by the samples:
+ *
+ *    int      MAGIC          "OCRD"
+ *    int      VERSION
+ *    int      count          number of samples
+ *    int      inputDim       number of inputs per sample (DIMENSION * DIMENSION pels)
+ *    int      outputDim      number of expected outputs per sample, 0 for an input set
+ *
+ *    then count samples of
+ *
+ *    byte     inputs[inputDim]      unsigned 8 bit grayscale pels
+ *    float    targets[outputDim]    expected outputs
+ *
+ * Each input is one byte instead of the seven characters of "%06X\t", and reading it
+ * back is an array copy instead of a call to Integer.parseInt per pel. The text format
+ * can still be used and converted to and from the binary format:
+ *
+ *    java DataSetFormat -import <text file> <binary file> [number of outputs]
+ *    java DataSetFormat -export <binary file> <text file>
+ *
+ * The number of outputs defaults to NeuralNets.NUM_OUTPUTS; use 0 to import an input set
+ * (no lines of expected outputs).
+ */
+public class DataSetFormat
+{
+   public static final int MAGIC = 0x4452434F;            // "OCRD" in little endian
+   public static final int VERSION = 1;
+   public static final int HEADER_BYTES = 5 * 4;          // five ints
+   public static final int FLOAT_BYTES = 4;
+   public static final int MAX_INPUT = 0xFF;              // inputs are unsigned bytes
+
+   public static final String BINARY_EXTENSION = ".bin";
+   public static final String IMPORT_FLAG = "-import";
+   public static final String EXPORT_FLAG = "-export";
+
+   /*
+    * Converts a set from text to binary (-import) or from binary to text (-export).
+    */
+   public static void main(String[] args) throws IOException
+   {
+      int numSamples;
+
+      if (args.length >= 3 && args[0].equals(IMPORT_FLAG))
+      {
+         int outputDim = NeuralNets.NUM_OUTPUTS;
+
+         if (args.length > 3)
+         {
+            outputDim = Integer.parseInt(args[3]);
+         }
+
+         numSamples = importText(args[1], args[2], outputDim);
+      }
+      else if (args.length >= 3 && args[0].equals(EXPORT_FLAG))
+      {
+         numSamples = exportText(args[1], args[2]);
+      }
+      else
+      {
+         System.err.println("Usage: java DataSetFormat " + IMPORT_FLAG +
+                            " <text file> <binary file> [number of outputs]");
+         System.err.println("       java DataSetFormat " + EXPORT_FLAG +
+                            " <binary file> <text file>");
+         return;
+      }
+
+      System.out.printf("Converted %d samples from %s to %s\n", numSamples, args[1],
+                        args[2]);
+
+      return;
+   }
+
+   /*
+    * Converts a set in the text format into the binary format. The first line of the
+    * text file is the number of samples; after it come the lines of inputs (hex), each
+    * followed by a line of expected outputs if outputDim is not 0. The number of inputs
+    * is taken from the first line of inputs.
+    *
+    * @param textFileName     name of the text file to read
+    * @param binaryFileName   name of the binary file to write
+    * @param outputDim        number of expected outputs per sample, 0 for an input set
+    *
+    * @return                 number of samples converted
+    */
+   public static int importText(String textFileName, String binaryFileName,
+                                int outputDim) throws IOException
+   {
+      BufferedReader in = new BufferedReader(new FileReader(textFileName));
+      DataSetWriter out = null;
+
+      try
+      {
+         int numSamples = Integer.parseInt(in.readLine().trim());
+         byte[] inputs = null;
+
+         for (int sample = 0; sample < numSamples; sample++)
+         {
+            StringTokenizer st = new StringTokenizer(in.readLine());
+
+            if (out == null)  // the first line of inputs sets the number of inputs
+            {
+               inputs = new byte[st.countTokens()];
+               out = new DataSetWriter(binaryFileName, inputs.length, outputDim);
+            }
+
+            for (int k = 0; k < inputs.length; k++)
+            {
+               int input = Integer.parseInt(st.nextToken(), 16);
+
+               if (input > MAX_INPUT)
+               {
+                  throw new IOException("Input " + k + " of sample " + sample +
+                                        " does not fit in a byte");
+               }
+
+               inputs[k] = (byte)input;
+            }
+
+            float[] targets = null;
+
+            if (outputDim > 0)
+            {
+               targets = parseTargets(in.readLine(), outputDim);
+            }
+
+            out.writeSample(inputs, targets);
+         } // for (int sample = 0; sample < numSamples; sample++)
+
+         if (out == null)     // no samples at all
+         {
+            out = new DataSetWriter(binaryFileName, 0, outputDim);
+         }
+
+         return out.close();
+      } // try
+
+      finally
+      {
+         in.close();
+      }
+   } // public static int importText(String textFileName, String binaryFileName, ...)
+
+   /*
+    * Converts a set in the binary format into the text format (see importText). Inputs
+    * are written as "%06X\t", the way BitmapDump writes them, and expected outputs as
+    * numbers separated by spaces, whole numbers without a decimal point, so a set that
+    * was imported from a BitmapDump text file exports back to the same text.
+    *
+    * @param binaryFileName   name of the binary file to read
+    * @param textFileName     name of the text file to write
+    *
+    * @return                 number of samples converted
+    */
+   public static int exportText(String binaryFileName, String textFileName)
+                                throws IOException
+   {
+      DataSetReader in = new DataSetReader(binaryFileName);
+      Writer out = new BufferedWriter(new FileWriter(textFileName));
+
+      try
+      {
+         byte[] inputs = new byte[in.getInputDim()];
+         float[] targets = new float[in.getOutputDim()];
+
+         out.write(in.getCount() + "\n");
+
+         for (int sample = 0; sample < in.getCount(); sample++)
+         {
+            in.readSample(inputs, targets);
+
+            writeHexLine(inputs, out);
+
+            if (targets.length > 0)
+            {
+               out.write(formatTargets(targets));
+               out.write('\n');
+            }
+         }
+      } // try
+
+      finally
+      {
+         out.close();
+         in.close();
+      }
+
+      return in.getCount();
+   } // public static int exportText(String binaryFileName, String textFileName)
+
+   /*
+    * Writes one line of inputs in the text format: each input as "%06X\t", followed
+    * by a newline.
+    *
+    * @param inputs   unsigned 8 bit inputs
+    * @param out      Writer for the text file
+    */
+   static void writeHexLine(byte[] inputs, Writer out) throws IOException
+   {
+      char[] lineChars = new char[inputs.length * 7 + 1];   // "%06X\t" is 7 chars
+      int iChar = 0;
+
+      for (int k = 0; k < inputs.length; k++)
+      {
+         int input = inputs[k] & MAX_INPUT;
+
+         for (int digit = 0; digit < 4; digit++)
+         {
+            lineChars[iChar++] = '0';
+         }
+
+         lineChars[iChar++] = BitmapDump.HEX_DIGITS[input >> 4];
+         lineChars[iChar++] = BitmapDump.HEX_DIGITS[input & 0x0F];
+         lineChars[iChar++] = '\t';
+      }
+
+      lineChars[iChar++] = '\n';
+
+      out.write(lineChars, 0, iChar);
+
+      return;
+   }
+
+   /*
+    * Returns the expected outputs as numbers separated by spaces, with whole numbers
+    * written without a decimal point ("0 0 0 0 0 1").
+    *
+    * @param targets   expected outputs
+    *
+    * @return          line of expected outputs (without the newline)
+    */
+   static String formatTargets(float[] targets)
+   {
+      StringBuilder line = new StringBuilder();
+
+      for (int i = 0; i < targets.length; i++)
+      {
+         if (i > 0)
+         {
+            line.append(' ');
+         }
+
+         if (targets[i] == (int)targets[i])
+         {
+            line.append((int)targets[i]);
+         }
+         else
+         {
+            line.append(targets[i]);
+         }
+      }
+
+      return line.toString();
+   }
+
+   /*
+    * Parses a line of expected outputs.
+    *
+    * @param target      line of expected outputs separated by white space
+    * @param outputDim   number of expected outputs the line must have
+    *
+    * @return            the expected outputs
+    */
+   static float[] parseTargets(String target, int outputDim) throws IOException
+   {
+      StringTokenizer st = new StringTokenizer(target);
+      float[] targets = new float[outputDim];
+
+      if (st.countTokens() != outputDim)
+      {
+         throw new IOException("Expected " + outputDim + " outputs, found \"" +
+                               target + "\"");
+      }
+
+      for (int i = 0; i < outputDim; i++)
+      {
+         targets[i] = Float.parseFloat(st.nextToken());
+      }
+
+      return targets;
+   }
+
+   /*
+    * Parses a line of expected outputs as doubles, the way NeuralNets.setTestCases
+    * does.
+    *
+    * @param target      line of expected outputs separated by white space
+    * @param outputDim   number of expected outputs the line must have
+    *
+    * @return            the expected outputs
+    */
+   static double[] parseDoubleTargets(String target, int outputDim) throws IOException
+   {
+      StringTokenizer st = new StringTokenizer(target);
+      double[] targets = new double[outputDim];
+
+      if (st.countTokens() != outputDim)
+      {
+         throw new IOException("Expected " + outputDim + " outputs, found \"" +
+                               target + "\"");
+      }
+
+      for (int i = 0; i < outputDim; i++)
+      {
+         targets[i] = Double.parseDouble(st.nextToken());
+      }
+
+      return targets;
+   }
+
+   /*
+    * Returns whether fileName names a set in the binary format (by its extension).
+    *
+    * @param fileName   name of the set file
+    *
+    * @return           true for a binary set, false for a text set
+    */
+   static boolean isBinaryFile(String fileName)
+   {
+      return fileName.endsWith(BINARY_EXTENSION);
+   }
+
+}  // public class DataSetFormat
@@ -0,0 +1,140 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the final class DataSetReader, which reads a training or input
+ * set in the binary format described in DataSetFormat.java.
+ *
+ * Methods in this file:
+ *  public DataSetReader(String fileName)
+ *  public int getCount()
+ *  public int getInputDim()
+ *  public int getOutputDim()
+ *  public void readSample(byte[] inputs, float[] targets)
+ *  public void close()
+ *  void nextSample()
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/*
+ * Reads a set in the binary format (see DataSetFormat) one sample at a time, from the
+ * start of the set to the end.
+ */
+public final class DataSetReader
+{
+   final FileChannel channel;
+   final int count, inputDim, outputDim;
+   final ByteBuffer sample;
+
+   /*
+    * Opens the file fileName and reads the header.
+    *
+    * @param fileName   name of the binary set file
+    */
+   public DataSetReader(String fileName) throws IOException
+   {
+      this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+      ByteBuffer header = ByteBuffer.allocate(DataSetFormat.HEADER_BYTES)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+
+      while (header.hasRemaining())
+      {
+         if (channel.read(header) < 0)
+         {
+            break;
+         }
+      }
+
+      header.flip();
+
+      if (header.remaining() < DataSetFormat.HEADER_BYTES ||
+          header.getInt() != DataSetFormat.MAGIC)
+      {
+         channel.close();
+         throw new IOException(fileName + " is not a binary set file.");
+      }
+
+      int version = header.getInt();
+
+      if (version != DataSetFormat.VERSION)
+      {
+         channel.close();
+         throw new IOException(fileName + " has version " + version + ", expected " +
+                               DataSetFormat.VERSION);
+      }
+
+      this.count = header.getInt();
+      this.inputDim = header.getInt();
+      this.outputDim = header.getInt();
+      this.sample = ByteBuffer.allocate(inputDim + outputDim * DataSetFormat.FLOAT_BYTES)
+                              .order(ByteOrder.LITTLE_ENDIAN);
+   }
+
+   public int getCount()
+   {
+      return count;
+   }
+
+   public int getInputDim()
+   {
+      return inputDim;
+   }
+
+   public int getOutputDim()
+   {
+      return outputDim;
+   }
+
+   /*
+    * Reads the next sample into inputs and targets as they are stored.
+    *
+    * @param inputs    array for the inputDim inputs
+    * @param targets   array for the outputDim expected outputs
+    */
+   public void readSample(byte[] inputs, float[] targets) throws IOException
+   {
+      nextSample();
+
+      sample.get(inputs, 0, inputDim);
+
+      for (int i = 0; i < outputDim; i++)
+      {
+         targets[i] = sample.getFloat();
+      }
+
+      return;
+   }
+
+   public void close() throws IOException
+   {
+      channel.close();
+
+      return;
+   }
+
+   /*
+    * Reads the next sample into the sample buffer.
+    */
+   void nextSample() throws IOException
+   {
+      sample.clear();
+
+      while (sample.hasRemaining())
+      {
+         if (channel.read(sample) < 0)
+         {
+            throw new EOFException("Binary set file ends in the middle of a sample");
+         }
+      }
+
+      sample.flip();
+
+      return;
+   }
+}
@@ -0,0 +1,135 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the final class DataSetWriter, which writes a training or input
+ * set in the binary format described in DataSetFormat.java.
+ *
+ * Methods in this file:
+ *  public DataSetWriter(String fileName, int inputDim, int outputDim)
+ *  public void write(BitmapImage image, String target)
+ *  public void writeSample(byte[] inputs, float[] targets)
+ *  public int close()
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+/*
+ * Writes a set in the binary format (see DataSetFormat). The number of samples in the
+ * header is filled in by close, so samples can be written without knowing how many
+ * there will be.
+ */
+public final class DataSetWriter implements SampleWriter
+{
+   final FileChannel channel;
+   final int inputDim, outputDim;
+   final ByteBuffer sample;
+   int count;
+
+   /*
+    * Creates (or replaces) the file fileName and writes the header.
+    *
+    * @param fileName    name of the binary set file
+    * @param inputDim    number of inputs per sample
+    * @param outputDim   number of expected outputs per sample, 0 for an input set
+    */
+   public DataSetWriter(String fileName, int inputDim, int outputDim) throws IOException
+   {
+      this.channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                                      StandardOpenOption.WRITE,
+                                      StandardOpenOption.TRUNCATE_EXISTING);
+      this.inputDim = inputDim;
+      this.outputDim = outputDim;
+      this.sample = ByteBuffer.allocate(inputDim + outputDim * DataSetFormat.FLOAT_BYTES)
+                              .order(ByteOrder.LITTLE_ENDIAN);
+      this.count = 0;
+
+      ByteBuffer header = ByteBuffer.allocate(DataSetFormat.HEADER_BYTES)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+
+      header.putInt(DataSetFormat.MAGIC).putInt(DataSetFormat.VERSION).putInt(0)
+            .putInt(inputDim).putInt(outputDim).flip();
+
+      while (header.hasRemaining())
+      {
+         channel.write(header);
+      }
+   }
+
+   /*
+    * Writes the lower 8 bits of each pel of image as the inputs, and the target line
+    * (if there is one) as the expected outputs.
+    */
+   public void write(BitmapImage image, String target) throws IOException
+   {
+      byte[] inputs = new byte[inputDim];
+      int k = 0;
+
+      if (image.getWidth() * image.getHeight() != inputDim)
+      {
+         throw new IOException("Image has " + image.getWidth() * image.getHeight() +
+                               " pels, expected " + inputDim);
+      }
+
+      for (int row = 0; row < image.getHeight(); row++)
+      {
+         for (int col = 0; col < image.getWidth(); col++)
+         {
+            inputs[k++] = (byte)image.getPel(row, col);
+         }
+      }
+
+      writeSample(inputs, target == null ? null :
+                                           DataSetFormat.parseTargets(target, outputDim));
+
+      return;
+   }
+
+   /*
+    * Writes one sample.
+    *
+    * @param inputs    inputDim unsigned 8 bit inputs
+    * @param targets   outputDim expected outputs, or null if outputDim is 0
+    */
+   public void writeSample(byte[] inputs, float[] targets) throws IOException
+   {
+      sample.clear();
+      sample.put(inputs, 0, inputDim);
+
+      for (int i = 0; i < outputDim; i++)
+      {
+         sample.putFloat(targets[i]);
+      }
+
+      sample.flip();
+
+      while (sample.hasRemaining())
+      {
+         channel.write(sample);
+      }
+
+      count++;
+
+      return;
+   }
+
+   /*
+    * Fills in the number of samples in the header and closes the file.
+    *
+    * @return    number of samples written
+    */
+   public int close() throws IOException
+   {
+      ByteBuffer countBytes = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+      countBytes.putInt(count).flip();
+      channel.write(countBytes, 2 * 4);   // after MAGIC and VERSION
+      channel.close();
+
+      return count;
+   }
+}
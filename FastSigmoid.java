@@ -0,0 +1,134 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class FastSigmoid, the sigmoid 1 / (1 + e^-x) found from a
+ * table of precomputed values instead of with Math.exp.
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public static double sigmoid(double x)
+ *  public static double exactSigmoid(double x)
+ *  public static double maxError(int numPoints)
+ *  static double[] makeTable()
+ */
+
+/*
+ * The table holds the sigmoid at STEPS_PER_UNIT points per unit from -RANGE to RANGE,
+ * and sigmoid(x) draws a straight line between the two points on either side of x.
+ * The error of a straight line over a step h is at most h * h / 8 times the largest
+ * second derivative of the sigmoid, which is about 0.0962, so with h = 1/128 it is
+ * less than 1e-6; beyond RANGE the sigmoid is within 1.2e-7 of 0 or 1 and the ends of
+ * the table are used. MAX_ERROR is that bound, which main checks:
+ *
+ *    java FastSigmoid
+ *
+ * The table is 4097 doubles (32 KB) and is built once, when the class is loaded. A
+ * lookup is a multiply, a floor, two loads and an interpolation, against the
+ * exponential Math.exp finds.
+ *
+ * NeuralNets uses it for activationFunction when it is given -fastsigmoid. Training is
+ * still done with Math.exp by default, so that training runs can be repeated exactly.
+ */
+public class FastSigmoid
+{
+   public static final double RANGE = 16.0;
+   public static final int STEPS_PER_UNIT = 128;
+   public static final int NUM_STEPS = (int)(2 * RANGE * STEPS_PER_UNIT);
+   public static final double MAX_ERROR = 1e-6;
+   public static final int CHECK_POINTS = 10000000;
+
+   static final double[] TABLE = makeTable();
+
+   /*
+    * Checks the table against Math.exp at CHECK_POINTS points from -2 * RANGE to
+    * 2 * RANGE and prints the largest error.
+    */
+   public static void main(String[] args)
+   {
+      double error = maxError(CHECK_POINTS);
+
+      System.out.printf("largest error %g over %d points (bound %g): %s\n", error,
+                        CHECK_POINTS, MAX_ERROR, error <= MAX_ERROR ? "ok" : "TOO LARGE");
+
+      return;
+   }
+
+   /*
+    * Returns the sigmoid of x from the table.
+    *
+    * @param x   the propagation value
+    *
+    * @return    1 / (1 + e^-x), to within MAX_ERROR
+    */
+   public static double sigmoid(double x)
+   {
+      double position = (x + RANGE) * STEPS_PER_UNIT;
+
+      if (position <= 0.0)
+      {
+         return TABLE[0];
+      }
+      else if (position >= NUM_STEPS)
+      {
+         return TABLE[NUM_STEPS];
+      }
+      else if (position != position)   // NaN
+      {
+         return x;
+      }
+
+      int step = (int)position;
+      double fraction = position - step;
+
+      return TABLE[step] + fraction * (TABLE[step + 1] - TABLE[step]);
+   } // public static double sigmoid(double x)
+
+   /*
+    * Returns the sigmoid of x found with Math.exp, as NeuralNets.activationFunction
+    * does.
+    */
+   public static double exactSigmoid(double x)
+   {
+      return 1.0 / (1.0 + Math.exp(-x));
+   }
+
+   /*
+    * Returns the largest difference between sigmoid and exactSigmoid at numPoints
+    * points spread evenly from -2 * RANGE to 2 * RANGE.
+    *
+    * @param numPoints   number of points to check
+    *
+    * @return            the largest error
+    */
+   public static double maxError(int numPoints)
+   {
+      double error = 0.0;
+
+      for (int point = 0; point < numPoints; point++)
+      {
+         double x = -2.0 * RANGE + 4.0 * RANGE * point / (numPoints - 1);
+
+         error = Math.max(error, Math.abs(sigmoid(x) - exactSigmoid(x)));
+      }
+
+      return error;
+   }
+
+   /*
+    * Returns the sigmoid at each of the NUM_STEPS + 1 points of the table.
+    */
+   static double[] makeTable()
+   {
+      double[] table = new double[NUM_STEPS + 1];
+
+      for (int step = 0; step <= NUM_STEPS; step++)
+      {
+         table[step] = exactSigmoid(-RANGE + (double)step / STEPS_PER_UNIT);
+      }
+
+      return table;
+   }
+
+}  // public class FastSigmoid
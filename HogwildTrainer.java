@@ -0,0 +1,335 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class HogwildTrainer, which trains a NeuralNets network one
+ * test case at a time on several threads at once, all of them changing the same
+ * weights without locks (asynchronous, "Hogwild" style training).
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public HogwildTrainer(NeuralNets net, int numThreads)
+ *  public double trainCases(DataSet tests, int first, int numCases)
+ *  public void close()
+ *  void runWorker(int worker, DataSet tests, int end)
+ *  static double trainIteration(NeuralNets net, HogwildTrainer trainer, DataSet tests,
+ *                               int iteration)
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Each thread has a worker, a NeuralNets of its own that shares the weight arrays of
+ * net (it is made with them, so it never has weights of its own) but has its own
+ * inputs, hidden, outputs, theta, omega and psi arrays. The
+ * threads take the next test case from a shared counter and run setInputs, forward
+ * and backward on it exactly as train() does with one thread, so every test case
+ * still changes the weights once, right after it is run.
+ *
+ * The weights are read and changed with plain array reads and writes. A thread may
+ * run forward with weights another thread is halfway through changing, and two
+ * threads that change the same weight at the same moment can lose one of the two
+ * changes. Neither is rare. Every test case changes all NUM_HIDDEN * NUM_OUTPUTS j-i
+ * weights (see backward()), so any two threads running backward at the same time
+ * race on every one of them. A test case only changes the k-j rows of its non-zero
+ * inputs, but the glyphs are centred, so they share most of the pels in the middle
+ * and two test cases change many of the same rows. What makes the races harmless is
+ * their size, not their rarity: each change is one small step, and losing or
+ * overlapping a few of them only makes the descent a little noisier. main() checks
+ * that training still converges about as well as it does on one thread. (Writes of
+ * a double are not promised to be atomic by the language, but they are on every
+ * 64-bit JVM this runs on, so a weight is never half written.)
+ *
+ * Because the order of the changes depends on how the threads are scheduled, the
+ * weights differ from run to run; use ParallelTrainer for reproducible training on
+ * several threads. Everything the threads wrote is seen by net once trainCases
+ * returns, since it waits for all of them.
+ *
+ * To train on the training set from the same random weights one test case at a time
+ * and with a HogwildTrainer on some number of threads (CHECK_THREADS if none is
+ * given), and compare the total errors:
+ *
+ *    java HogwildTrainer [threads]
+ */
+public class HogwildTrainer
+{
+   public static final long SEED = 20150513L;            // the starting weights
+   public static final int CHECK_THREADS = 4;
+   public static final int CHECK_ITERATIONS = 20;
+   public static final double MAX_EXTRA_ERROR = 0.25;     // over the one-thread error
+
+   final NeuralNets net;
+   final int numThreads;
+   final NeuralNets[] workers;
+   final double[] workerErrors;
+   final boolean[] ranLast;
+   final AtomicInteger nextCase;
+   final ExecutorService pool;
+
+   /*
+    * Trains one network from random weights a test case at a time and one from the
+    * same weights with a HogwildTrainer, for CHECK_ITERATIONS iterations over the
+    * training set, printing the total error of each iteration for both. Exits with
+    * status 1 if the last total error with the HogwildTrainer is more than
+    * MAX_EXTRA_ERROR (as a fraction) above the last one on one thread and above
+    * MIN_ERROR.
+    */
+   public static void main(String[] args) throws IOException
+   {
+      int numThreads = CHECK_THREADS;
+
+      if (args.length > 0)
+      {
+         numThreads = Integer.parseInt(args[0]);
+      }
+
+      NeuralNets serial = new NeuralNets(1);
+      NeuralNets hogwild = new NeuralNets(1);
+      Random random = new Random(SEED);
+
+      for (int kj = 0; kj < serial.numElementskj; kj++)
+      {
+         serial.weightskj[kj] = NeuralNets.MAX_WEIGHT * (random.nextDouble() - 0.5);
+      }
+
+      for (int ji = 0; ji < serial.numElementsji; ji++)
+      {
+         serial.weightsji[ji] = NeuralNets.MAX_WEIGHT * (random.nextDouble() - 0.5);
+      }
+
+      System.arraycopy(serial.weightskj, 0, hogwild.weightskj, 0, serial.numElementskj);
+      System.arraycopy(serial.weightsji, 0, hogwild.weightsji, 0, serial.numElementsji);
+
+      DataSet tests = serial.loadSet("OCR_trainingset.in", "OCR_trainingset.bin",
+                                     NeuralNets.NUM_OUTPUTS);
+      HogwildTrainer trainer = new HogwildTrainer(hogwild, numThreads);
+      double serialError = 0.0;
+      double hogwildError = 0.0;
+
+      System.out.printf("%9s %14s %14s\n", "iteration", "1 thread",
+                        numThreads + " threads");
+
+      try
+      {
+         for (int iteration = 0; iteration < CHECK_ITERATIONS; iteration++)
+         {
+            serialError = trainIteration(serial, null, tests, iteration);
+            hogwildError = trainIteration(hogwild, trainer, tests, iteration);
+
+            System.out.printf("%9d %14f %14f\n", iteration + 1, serialError,
+                              hogwildError);
+         }
+      }
+
+      finally
+      {
+         trainer.close();
+      }
+
+      boolean converged = hogwildError <= Math.max(serialError * (1.0 + MAX_EXTRA_ERROR),
+                                                   NeuralNets.MIN_ERROR);
+
+      System.out.printf("%d test cases: total error %f on %d threads, %f on one: %s\n",
+                        tests.getCount(), hogwildError, numThreads, serialError,
+                        converged ? "converges" : "DOES NOT CONVERGE");
+
+      if (!converged)
+      {
+         System.exit(1);
+      }
+
+      return;
+   } // public static void main(String[] args)
+
+   /*
+    * Creates the workers and the pool of threads.
+    *
+    * @param net          the network to train
+    * @param numThreads   number of threads (and workers)
+    */
+   public HogwildTrainer(NeuralNets net, int numThreads)
+   {
+      this.net = net;
+      this.numThreads = numThreads;
+      this.workers = new NeuralNets[numThreads];
+      this.workerErrors = new double[numThreads];
+      this.ranLast = new boolean[numThreads];
+      this.nextCase = new AtomicInteger();
+
+      for (int worker = 0; worker < numThreads; worker++)
+      {
+         workers[worker] = new NeuralNets(net.shouldTrain, net.weightskj,
+                                          net.weightsji);   // shared, changed by all
+         workers[worker].fastSigmoid = net.fastSigmoid;
+      }
+
+      this.pool = Executors.newFixedThreadPool(numThreads);
+   }
+
+   /*
+    * Trains on test cases first to first + numCases - 1, each on whichever thread
+    * takes it, with the learning factors net has now. The outputs of the last test
+    * case are left in net.outputs.
+    *
+    * @param tests      the test cases
+    * @param first      index of the first test case
+    * @param numCases   number of test cases
+    *
+    * @return           the error summed over the test cases
+    */
+   public double trainCases(final DataSet tests, int first, int numCases)
+   {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      final int end = first + numCases;
+      double error = 0.0;
+
+      nextCase.set(first);
+
+      for (int worker = 0; worker < numThreads; worker++)
+      {
+         final int thisWorker = worker;
+
+         workers[worker].learningFactorkj = net.learningFactorkj;
+         workers[worker].learningFactorji = net.learningFactorji;
+
+         tasks.add(new Callable<Void>()
+         {
+            public Void call()
+            {
+               runWorker(thisWorker, tests, end);
+               return null;
+            }
+         });
+      } // for (int worker = 0; worker < numThreads; worker++)
+
+      try
+      {
+         for (Future<Void> done : pool.invokeAll(tasks))
+         {
+            done.get();
+         }
+      }
+
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Training interrupted", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Training worker failed", e.getCause());
+      }
+
+      for (int worker = 0; worker < numThreads; worker++)
+      {
+         error += workerErrors[worker];
+
+         if (ranLast[worker])
+         {
+            System.arraycopy(workers[worker].outputs, 0, net.outputs, 0,
+                             NeuralNets.NUM_OUTPUTS);
+         }
+      }
+
+      return error;
+   } // public double trainCases(DataSet tests, int first, int numCases)
+
+   /*
+    * Shuts the pool of threads down.
+    */
+   public void close()
+   {
+      pool.shutdown();
+
+      return;
+   }
+
+   /*
+    * Runs on one thread: takes test cases from nextCase until there are none left
+    * before end, and trains on each one.
+    *
+    * @param worker   index of the worker
+    * @param tests    the test cases
+    * @param end      index after the last test case
+    */
+   void runWorker(int worker, DataSet tests, int end)
+   {
+      NeuralNets workerNet = workers[worker];
+      double error = 0.0;
+      int testCase;
+
+      ranLast[worker] = false;
+
+      while ((testCase = nextCase.getAndIncrement()) < end)
+      {
+         tests.getSample(testCase, workerNet.testInput, workerNet.testOutput);
+         workerNet.setInputs();
+
+         workerNet.forward();
+         workerNet.backward();
+
+         error += workerNet.findError();
+         ranLast[worker] = (testCase == end - 1);
+      }
+
+      workerErrors[worker] = error;
+
+      return;
+   } // void runWorker(int worker, DataSet tests, int end)
+
+   /*
+    * Trains net for one iteration over tests, a test case at a time on this thread
+    * or with trainer if it is not null, and then halves the learning factors if the
+    * total error did not go down, the way train() does.
+    *
+    * @param net         the network
+    * @param trainer     a HogwildTrainer for net, or null
+    * @param tests       the test cases
+    * @param iteration   number of the iteration, from 0
+    *
+    * @return            the total error of the iteration
+    */
+   static double trainIteration(NeuralNets net, HogwildTrainer trainer, DataSet tests,
+                                int iteration)
+   {
+      double totalError = 0.0;
+
+      if (trainer != null)
+      {
+         totalError = trainer.trainCases(tests, 0, tests.getCount());
+      }
+      else
+      {
+         for (int testCase = 0; testCase < tests.getCount(); testCase++)
+         {
+            tests.getSample(testCase, net.testInput, net.testOutput);
+            net.setInputs();
+
+            net.forward();
+            net.backward();
+
+            totalError += net.findError();
+         }
+      }
+
+      if (iteration == 0)
+      {
+         net.prevError = totalError;
+      }
+
+      if (totalError >= net.prevError)
+      {
+         net.learningFactorkj = net.learningFactorkj / 2.0;
+         net.learningFactorji = net.learningFactorji / 2.0;
+      }
+
+      net.prevError = totalError;
+
+      return totalError;
+   } // static double trainIteration(NeuralNets net, HogwildTrainer trainer, ...)
+
+}  // public class HogwildTrainer
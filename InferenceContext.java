@@ -0,0 +1,58 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class InferenceContext, the arrays one thread needs to run a
+ * Model on its inputs.
+ *
+ * Methods in this file:
+ *  public InferenceContext()
+ *  double[] getHiddenRows(int numCases)
+ */
+
+/*
+ * A Model only holds weights, which are never changed, so any number of threads can
+ * share one. Everything a forward loop writes -- the hidden node sums and the list of
+ * inputs that are not 0 -- is kept here instead. Each thread makes one context (see
+ * Model.newContext()) and passes it to every call, or lets the Model keep one for it;
+ * a context must never be used by two threads at once.
+ *
+ * All the arrays are made when the context is, except the rows of hidden nodes for
+ * Model.findOutputs, which grow to the largest number of glyphs asked for and are then
+ * reused, so a thread that keeps running the model allocates nothing.
+ */
+public class InferenceContext
+{
+   final double[] hidden;               // hidden node sums, then hidden node values
+   final int[] activeInputs;            // indices of the inputs that are not 0
+   double[] hiddenRows;                 // hidden nodes for Model.findOutputs
+
+   /*
+    * Creates the arrays for one glyph at a time.
+    */
+   public InferenceContext()
+   {
+      hidden = new double[NeuralNets.NUM_HIDDEN];
+      activeInputs = new int[NeuralNets.NUM_INPUTS];
+   }
+
+   /*
+    * Returns an array for numCases rows of NUM_HIDDEN hidden nodes, the same one as
+    * last time unless it is too small.
+    *
+    * @param numCases   number of rows
+    *
+    * @return           the array for the rows
+    */
+   double[] getHiddenRows(int numCases)
+   {
+      if (hiddenRows == null || hiddenRows.length < numCases * NeuralNets.NUM_HIDDEN)
+      {
+         hiddenRows = new double[numCases * NeuralNets.NUM_HIDDEN];
+      }
+
+      return hiddenRows;
+   }
+
+}  // public class InferenceContext
@@ -0,0 +1,159 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the abstract class Kernels, the innermost loops of the forward
+ * and backward loops of NeuralNets, and the class ScalarKernels, the plain Java
+ * version of them.
+ *
+ * Classes in the file:
+ *  Kernels
+ *  ScalarKernels
+ *
+ * Methods in this file:
+ *  public abstract void axpy(double a, double[] x, int xOffset, double[] y,
+ *                            int yOffset, int length)
+ *  public abstract String getName()
+ *  public static Kernels scalar()
+ *  static Kernels load()
+ *  static boolean works(Kernels kernels)
+ */
+
+import java.util.*;
+
+/*
+ * With the k loop outside the j loop (see NeuralNets.forward()), both the sums for the
+ * hidden nodes and the change to the k-j weights are made of one operation on rows of
+ * NUM_HIDDEN doubles, y += a * x:
+ *
+ *    theta_j   += inputs[k] * (row k of weightskj)      forward(), findOutput()
+ *    row k of weightskj += (learningFactorkj * inputs[k]) * psi_j    backward()
+ *
+ * INSTANCE is the fastest version of it that can run, chosen once when the class is
+ * loaded. If the class VectorKernels (simd/VectorKernels.java, which uses the
+ * jdk.incubator.vector module to work on several doubles per instruction) has been
+ * compiled and the module was added when the JVM started, INSTANCE is a VectorKernels;
+ * otherwise it is a ScalarKernels. Both do exactly the same multiply and add for each
+ * element, so the results are the same to the bit either way.
+ */
+public abstract class Kernels
+{
+   public static final String VECTOR_CLASS = "VectorKernels";
+   public static final int CHECK_LENGTH = 37;       // not a multiple of any vector size
+   public static final Kernels INSTANCE = load();
+
+   /*
+    * y[yOffset + n] += a * x[xOffset + n] for n from 0 to length - 1.
+    *
+    * @param a         factor for x
+    * @param x         array x is read from
+    * @param xOffset   index of the first element of x
+    * @param y         array y is read from and written to
+    * @param yOffset   index of the first element of y
+    * @param length    number of elements
+    */
+   public abstract void axpy(double a, double[] x, int xOffset, double[] y, int yOffset,
+                             int length);
+
+   /*
+    * Returns the name of these kernels, for printing which ones are used.
+    */
+   public abstract String getName();
+
+   /*
+    * Returns the plain Java kernels, whichever INSTANCE is.
+    */
+   public static Kernels scalar()
+   {
+      return new ScalarKernels();
+   }
+
+   /*
+    * Returns VectorKernels if it can be loaded and gives the same results as
+    * ScalarKernels, and ScalarKernels otherwise.
+    */
+   static Kernels load()
+   {
+      try
+      {
+         Kernels vector = (Kernels)Class.forName(VECTOR_CLASS).getDeclaredConstructor()
+                                        .newInstance();
+
+         if (works(vector))
+         {
+            return vector;
+         }
+      }
+
+      catch (ReflectiveOperationException e)
+      {
+         // not compiled -- fall through to the scalar kernels
+      }
+      catch (LinkageError e)
+      {
+         // compiled, but jdk.incubator.vector was not added to this JVM
+      }
+
+      return new ScalarKernels();
+   } // static Kernels load()
+
+   /*
+    * Runs kernels and ScalarKernels on the same numbers and returns whether they agree
+    * to the bit. Calling kernels here also makes any class it needs be loaded now, so
+    * a missing module shows up here and not in the middle of training.
+    *
+    * @param kernels   the kernels to check
+    *
+    * @return          true if the results are the same
+    */
+   static boolean works(Kernels kernels)
+   {
+      double[] x = new double[CHECK_LENGTH + 1];
+      double[] y = new double[CHECK_LENGTH + 2];
+      double[] expected = new double[CHECK_LENGTH + 2];
+
+      for (int n = 0; n < x.length; n++)
+      {
+         x[n] = 1.0 / (n + 3);
+      }
+
+      for (int n = 0; n < y.length; n++)
+      {
+         y[n] = n - 0.3;
+         expected[n] = y[n];
+      }
+
+      kernels.axpy(0.7, x, 1, y, 2, CHECK_LENGTH);
+      new ScalarKernels().axpy(0.7, x, 1, expected, 2, CHECK_LENGTH);
+
+      return Arrays.equals(y, expected);
+   } // static boolean works(Kernels kernels)
+
+}  // public abstract class Kernels
+
+/*
+ * The kernels as plain Java loops, which the JIT compiler may or may not turn into
+ * vector instructions by itself.
+ */
+final class ScalarKernels extends Kernels
+{
+   /*
+    * y += a * x, one element at a time (see Kernels.axpy).
+    */
+   public void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length)
+   {
+      for (int n = 0; n < length; n++)
+      {
+         y[yOffset + n] += a * x[xOffset + n];
+      }
+
+      return;
+   }
+
+   public String getName()
+   {
+      return "scalar";
+   }
+
+}  // final class ScalarKernels
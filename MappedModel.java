@@ -0,0 +1,254 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class MappedModel, a trained NeuralNets network that runs
+ * straight from a binary weights file mapped into memory, without copying the
+ * weights into arrays.
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public static MappedModel open(String fileName, boolean fastSigmoid)
+ *  MappedModel(ByteBuffer weights, boolean fastSigmoid)
+ *  public InferenceContext newContext()
+ *  public void findOutput(double[] inputs, double[] result)
+ *  public void findOutput(double[] inputs, double[] result, InferenceContext context)
+ *  double activationFunction(double propagation)
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * A Model (see Model.java) copies its weights into its own arrays, 8 MB of k-j weights
+ * for every process that loads one. A MappedModel instead maps the weights of a binary
+ * weights file (see WeightsFile) read-only and reads each weight from the mapped
+ * pages when findOutput needs it. Every process that opens the same file reads the
+ * same pages of the operating system's file cache, so a host running several of them
+ * keeps only one copy of the weights in memory, and opening a model is a map and a
+ * check of the header and checksum instead of a parse.
+ *
+ * The weights are read with absolute gets only, which do not move the buffer's
+ * position, so like a Model one MappedModel can be shared by any number of threads,
+ * each with its own InferenceContext. findOutput runs the same loops in the same
+ * order as NeuralNets.findOutput(), so the outputs are exactly the same; the k loop
+ * is written out here, since Kernels works on arrays.
+ *
+ * The file must not be changed while it is mapped; write new weights to a new file
+ * and rename it over the old one, which leaves the old mapping as it was.
+ *
+ * To check a binary weights file ("weights.in.bin" if none is given) against
+ * NeuralNets with the same weights for the input set:
+ *
+ *    java MappedModel [binary weights file]
+ */
+public class MappedModel
+{
+   public static final String DEFAULT_WEIGHTS_FILE = "weights.in.bin";
+
+   final DoubleBuffer weightskj, weightsji;
+   final boolean fastSigmoid;
+   final ThreadLocal<InferenceContext> contexts;        // one per thread, see findOutput
+
+   /*
+    * Runs NeuralNets, with the weights copied out of the file, and a MappedModel of the
+    * same file over the input set and prints for how many glyphs the outputs are not
+    * exactly the same.
+    */
+   public static void main(String[] args) throws IOException
+   {
+      String weightsFile = DEFAULT_WEIGHTS_FILE;
+
+      if (args.length > 0)
+      {
+         weightsFile = args[0];
+      }
+
+      NeuralNets net = new NeuralNets(0);
+
+      WeightsFile.read(weightsFile, net.weightskj, net.weightsji);
+
+      MappedModel model = open(weightsFile, false);
+      DataSet inputSet = net.loadSet("OCR_inputset.in", "OCR_inputset.bin", 0);
+      double[] inputs = new double[NeuralNets.NUM_INPUTS];
+      double[] mappedOutputs = new double[NeuralNets.NUM_OUTPUTS];
+      int numDifferent = 0;
+
+      for (int inCount = 0; inCount < inputSet.getCount(); inCount++)
+      {
+         inputSet.getInputs(inCount, net.inputs);
+         inputSet.getInputs(inCount, inputs);
+
+         double[] outputs = net.findOutput();
+
+         model.findOutput(inputs, mappedOutputs);
+
+         if (!Arrays.equals(outputs, mappedOutputs))
+         {
+            numDifferent++;
+         }
+      }
+
+      System.out.printf("%d glyphs: %d outputs differ from NeuralNets\n",
+                        inputSet.getCount(), numDifferent);
+
+      return;
+   } // public static void main(String[] args)
+
+   /*
+    * Maps the weights of a binary weights file, after checking its header and its
+    * checksum. The file is closed again; the mapping stays until the model is
+    * garbage collected.
+    *
+    * @param fileName      name of the binary weights file
+    * @param fastSigmoid   true to look the sigmoid up in FastSigmoid's table
+    *
+    * @return              the model
+    */
+   public static MappedModel open(String fileName, boolean fastSigmoid) throws IOException
+   {
+      FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+      try
+      {
+         int numElementskj = NeuralNets.NUM_INPUTS * NeuralNets.NUM_HIDDEN;
+         int numElementsji = NeuralNets.NUM_HIDDEN * NeuralNets.NUM_OUTPUTS;
+
+         return new MappedModel(WeightsFile.mapWeights(channel, fileName, 0,
+                                                       numElementskj + numElementsji),
+                                fastSigmoid);
+      }
+
+      finally
+      {
+         channel.close();
+      }
+   } // public static MappedModel open(String fileName, boolean fastSigmoid)
+
+   /*
+    * Makes a model from the mapped weights, the k-j weights followed by the j-i
+    * weights.
+    *
+    * @param weights       the weights, little endian
+    * @param fastSigmoid   true to look the sigmoid up in FastSigmoid's table
+    */
+   MappedModel(ByteBuffer weights, boolean fastSigmoid)
+   {
+      DoubleBuffer doubles = weights.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+      int numElementskj = NeuralNets.NUM_INPUTS * NeuralNets.NUM_HIDDEN;
+
+      doubles.limit(numElementskj);
+      this.weightskj = doubles.slice();
+      doubles.limit(doubles.capacity()).position(numElementskj);
+      this.weightsji = doubles.slice();
+      this.fastSigmoid = fastSigmoid;
+      this.contexts = new ThreadLocal<InferenceContext>()
+      {
+         protected InferenceContext initialValue()
+         {
+            return new InferenceContext();
+         }
+      };
+   }
+
+   /*
+    * Makes the arrays one thread needs to run the model; see InferenceContext.
+    *
+    * @return       a new context
+    */
+   public InferenceContext newContext()
+   {
+      return new InferenceContext();
+   }
+
+   /*
+    * Runs the network on one glyph with the context the model keeps for the thread
+    * that calls it, made the first time that thread calls.
+    *
+    * @param inputs   the NUM_INPUTS inputs
+    * @param result   array for the NUM_OUTPUTS outputs
+    */
+   public void findOutput(double[] inputs, double[] result)
+   {
+      findOutput(inputs, result, contexts.get());
+
+      return;
+   }
+
+   /*
+    * Runs the network on one glyph (see NeuralNets.findOutput()), reading the weights
+    * from the mapped file.
+    *
+    * @param inputs    the NUM_INPUTS inputs
+    * @param result    array for the NUM_OUTPUTS outputs
+    * @param context   arrays of the calling thread
+    */
+   public void findOutput(double[] inputs, double[] result, InferenceContext context)
+   {
+      int numHidden = NeuralNets.NUM_HIDDEN;
+      int numOutputs = NeuralNets.NUM_OUTPUTS;
+      double[] hidden = context.hidden;
+      int[] activeInputs = context.activeInputs;
+      int numActive = 0;
+
+      for (int k = 0; k < NeuralNets.NUM_INPUTS; k++)
+      {
+         if (inputs[k] != 0.0)
+         {
+            activeInputs[numActive++] = k;
+         }
+      }
+
+      Arrays.fill(hidden, 0.0);
+
+      for (int active = 0; active < numActive; active++)
+      {
+         int k = activeInputs[active];
+         int indkj = k * numHidden;
+         double input = inputs[k];
+
+         for (int j = 0; j < numHidden; j++)
+         {
+            hidden[j] += input * weightskj.get(indkj + j);
+         }
+      }
+
+      for (int j = 0; j < numHidden; j++)
+      {
+         hidden[j] = activationFunction(hidden[j]);
+      }
+
+      for (int i = 0; i < numOutputs; i++)
+      {
+         double propagationi = 0.0;
+
+         for (int j = 0; j < numHidden; j++)
+         {
+            propagationi += weightsji.get(j * numOutputs + i) * hidden[j];
+         }
+
+         result[i] = activationFunction(propagationi);
+      }
+
+      return;
+   } // public void findOutput(double[] inputs, double[] result, ...)
+
+   /*
+    * Returns the sigmoid of propagation, from FastSigmoid's table if fastSigmoid is
+    * set (see NeuralNets.activationFunction()).
+    */
+   double activationFunction(double propagation)
+   {
+      if (fastSigmoid)
+      {
+         return FastSigmoid.sigmoid(propagation);
+      }
+
+      return 1.0 / (1.0 + Math.exp(-propagation));
+   }
+
+}  // public class MappedModel
@@ -0,0 +1,251 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class MatrixOps, the matrix-matrix multiplications NeuralNets
+ * uses to push a whole mini-batch of test cases through the network at once.
+ *
+ * Methods in this file:
+ *  public static void multiply(double[] a, double[] b, double[] c, int m, int n, int p)
+ *  public static void multiplyTransposeA(double[] a, double[] b, double[] c,
+ *                                        int m, int n, int p, double alpha)
+ *  public static void multiplyTransposeB(double[] a, double[] b, double[] c,
+ *                                        int m, int n, int p)
+ *  static void addRow(double factor, double[] b, int rowB, double[] c, int rowC, int n)
+ */
+
+import java.util.*;
+
+/*
+ * All matrices are double arrays stored row by row, so element (row, col) of an r by s
+ * matrix is at [row * s + col] -- the same layout as the weight arrays in NeuralNets,
+ * where the k-j weights are a NUM_INPUTS by NUM_HIDDEN matrix and the j-i weights a
+ * NUM_HIDDEN by NUM_OUTPUTS matrix.
+ *
+ * The innermost loop of every multiplication runs along a row of the result and a row
+ * of one operand, so memory is read in order. The long dimension (the NUM_INPUTS rows
+ * of the k-j weights) is split into blocks of BLOCK rows, and every row of the batch
+ * is run against one block before going on to the next, so each block of weights is
+ * read from main memory once per batch instead of once per test case. Within a block,
+ * UNROLL rows of the batch are handled together, so that each weight (or each element
+ * of the result) is loaded once for all UNROLL of them instead of once for each.
+ *
+ * In multiply, an element of a that is 0 is skipped, since it would only add 0 to the
+ * result: the UNROLL rows are only handled together where none of them is 0, and one
+ * at a time otherwise. The inputs are glyphs, which are mostly blank background, so
+ * this skips most of the k-j weights the way the sparse loops of NeuralNets.forward()
+ * do for a single glyph, while each block of weights is still read from memory once
+ * per batch.
+ */
+public class MatrixOps
+{
+   public static final int BLOCK = 64;   // 64 rows of 100 doubles is 50 KB
+   public static final int UNROLL = 4;   // rows of the batch handled together
+
+   /*
+    * c = a * b, where a is m by p, b is p by n and c is m by n.
+    *
+    * @param a   m by p matrix
+    * @param b   p by n matrix
+    * @param c   m by n matrix for the result (overwritten)
+    * @param m   rows of a and c
+    * @param n   columns of b and c
+    * @param p   columns of a and rows of b
+    */
+   public static void multiply(double[] a, double[] b, double[] c, int m, int n, int p)
+   {
+      Arrays.fill(c, 0, m * n, 0.0);
+
+      for (int kStart = 0; kStart < p; kStart += BLOCK)
+      {
+         int kEnd = Math.min(kStart + BLOCK, p);
+         int row = 0;
+
+         /*
+          * Four rows of c at a time, so each element of b that is loaded is used
+          * four times
+          */
+         for (; row + UNROLL <= m; row += UNROLL)
+         {
+            int rowA = row * p;
+            int rowC0 = row * n;
+            int rowC1 = rowC0 + n;
+            int rowC2 = rowC1 + n;
+            int rowC3 = rowC2 + n;
+
+            for (int k = kStart; k < kEnd; k++)
+            {
+               double a0 = a[rowA + k];
+               double a1 = a[rowA + p + k];
+               double a2 = a[rowA + 2 * p + k];
+               double a3 = a[rowA + 3 * p + k];
+               int rowB = k * n;
+
+               if (a0 != 0.0 && a1 != 0.0 && a2 != 0.0 && a3 != 0.0)
+               {
+                  for (int col = 0; col < n; col++)
+                  {
+                     double bkj = b[rowB + col];
+
+                     c[rowC0 + col] += a0 * bkj;
+                     c[rowC1 + col] += a1 * bkj;
+                     c[rowC2 + col] += a2 * bkj;
+                     c[rowC3 + col] += a3 * bkj;
+                  }
+               }
+               else     // some of the four are blank here; they would add nothing
+               {
+                  addRow(a0, b, rowB, c, rowC0, n);
+                  addRow(a1, b, rowB, c, rowC1, n);
+                  addRow(a2, b, rowB, c, rowC2, n);
+                  addRow(a3, b, rowB, c, rowC3, n);
+               }
+            }
+         } // for (; row + UNROLL <= m; row += UNROLL)
+
+         for (; row < m; row++)  // the rows left over
+         {
+            int rowA = row * p;
+            int rowC = row * n;
+
+            for (int k = kStart; k < kEnd; k++)
+            {
+               addRow(a[rowA + k], b, k * n, c, rowC, n);
+            }
+         } // for (; row < m; row++)
+      } // for (int kStart = 0; kStart < p; kStart += BLOCK)
+
+      return;
+   } // public static void multiply(...)
+
+   /*
+    * Adds factor times the row of b starting at rowB to the row of c starting at rowC,
+    * unless factor is 0.
+    *
+    * @param factor   factor for the row of b
+    * @param b        matrix b
+    * @param rowB     index of the first element of the row of b
+    * @param c        matrix c
+    * @param rowC     index of the first element of the row of c
+    * @param n        length of the rows
+    */
+   static void addRow(double factor, double[] b, int rowB, double[] c, int rowC, int n)
+   {
+      if (factor == 0.0)
+      {
+         return;
+      }
+
+      for (int col = 0; col < n; col++)
+      {
+         c[rowC + col] += factor * b[rowB + col];
+      }
+
+      return;
+   }
+
+   /*
+    * c = alpha * transpose(a) * b, where a is p by m, b is p by n and c is m by n. This
+    * is a sum of p rank-1 updates (row r of a times row r of b), which is how the
+    * gradient of a weight matrix is summed over a batch.
+    *
+    * @param a       p by m matrix
+    * @param b       p by n matrix
+    * @param c       m by n matrix for the result (overwritten)
+    * @param m       columns of a and rows of c
+    * @param n       columns of b and c
+    * @param p       rows of a and b
+    * @param alpha   factor for the whole product
+    */
+   public static void multiplyTransposeA(double[] a, double[] b, double[] c,
+                                         int m, int n, int p, double alpha)
+   {
+      Arrays.fill(c, 0, m * n, 0.0);
+
+      for (int iStart = 0; iStart < m; iStart += BLOCK)
+      {
+         int iEnd = Math.min(iStart + BLOCK, m);
+         int r = 0;
+
+         /*
+          * Four rank-1 updates at a time, so each element of c is loaded and stored
+          * once for four rows of a and b
+          */
+         for (; r + UNROLL <= p; r += UNROLL)
+         {
+            int rowA = r * m;
+            int rowB0 = r * n;
+            int rowB1 = rowB0 + n;
+            int rowB2 = rowB1 + n;
+            int rowB3 = rowB2 + n;
+
+            for (int i = iStart; i < iEnd; i++)
+            {
+               double a0 = alpha * a[rowA + i];
+               double a1 = alpha * a[rowA + m + i];
+               double a2 = alpha * a[rowA + 2 * m + i];
+               double a3 = alpha * a[rowA + 3 * m + i];
+               int rowC = i * n;
+
+               for (int col = 0; col < n; col++)
+               {
+                  c[rowC + col] += a0 * b[rowB0 + col] + a1 * b[rowB1 + col] + 
+                                   a2 * b[rowB2 + col] + a3 * b[rowB3 + col];
+               }
+            }
+         } // for (; r + UNROLL <= p; r += UNROLL)
+
+         for (; r < p; r++)      // the rows left over
+         {
+            int rowA = r * m;
+            int rowB = r * n;
+
+            for (int i = iStart; i < iEnd; i++)
+            {
+               double ari = alpha * a[rowA + i];
+               int rowC = i * n;
+
+               for (int col = 0; col < n; col++)
+               {
+                  c[rowC + col] += ari * b[rowB + col];
+               }
+            }
+         } // for (; r < p; r++)
+      } // for (int iStart = 0; iStart < m; iStart += BLOCK)
+
+      return;
+   } // public static void multiplyTransposeA(...)
+
+   /*
+    * c = a * transpose(b), where a is m by p, b is n by p and c is m by n.
+    *
+    * @param a   m by p matrix
+    * @param b   n by p matrix
+    * @param c   m by n matrix for the result (overwritten)
+    * @param m   rows of a and c
+    * @param n   rows of b and columns of c
+    * @param p   columns of a and b
+    */
+   public static void multiplyTransposeB(double[] a, double[] b, double[] c,
+                                         int m, int n, int p)
+   {
+      for (int row = 0; row < m; row++)
+      {
+         for (int col = 0; col < n; col++)
+         {
+            double sum = 0.0;
+
+            for (int k = 0; k < p; k++)
+            {
+               sum += a[row * p + k] * b[col * p + k];
+            }
+
+            c[row * n + col] = sum;
+         }
+      } // for (int row = 0; row < m; row++)
+
+      return;
+   } // public static void multiplyTransposeB(...)
+
+}  // public class MatrixOps
@@ -0,0 +1,391 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class Model, the weights of a trained NeuralNets network,
+ * which never change once the Model is made, so that one Model can run the network
+ * for any number of threads at once.
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public Model(double[] weightskj, double[] weightsji, boolean fastSigmoid)
+ *  public static Model fromNetwork(NeuralNets net)
+ *  public static Model load(String fileName, boolean fastSigmoid)
+ *  public InferenceContext newContext()
+ *  public void findOutput(double[] inputs, double[] result)
+ *  public void findOutput(double[] inputs, double[] result, InferenceContext context)
+ *  public void findOutputs(double[] inputRows, double[] outputRows, int numCases,
+ *                          InferenceContext context)
+ *  double activationFunction(double propagation)
+ *  static void readWeightFile(String fileName, double[] weightskj, double[] weightsji)
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * A NeuralNets keeps its weights together with the node, theta, omega and psi arrays
+ * that every forward and backward loop writes, so two threads cannot run one
+ * NeuralNets at the same time. A Model keeps only its own copy of the weights, in
+ * final arrays that nothing writes after the constructor, and each thread brings the
+ * arrays it writes in an InferenceContext. Since the fields are final, every thread
+ * that is given the Model sees the weights it was made with.
+ *
+ * findOutput runs the same loops as NeuralNets.findOutput(), over the inputs that are
+ * not 0 and with the same kernels, and findOutputs the same matrix products as
+ * NeuralNets.findOutputs(), so the outputs are exactly the ones NeuralNets gives. The
+ * caller passes in the array for the outputs, and nothing is allocated once a
+ * context has been made.
+ *
+ * To load a weights file ("weights.out" if none is given, a file in the "weights.in"
+ * format, or a binary weights file) and check on several threads at once that one
+ * shared Model gives the same outputs as NeuralNets for the input set:
+ *
+ *    java Model [weights file]
+ */
+public class Model
+{
+   public static final String DEFAULT_WEIGHTS_FILE = "weights.out";
+   public static final int CHECK_THREADS = 4;           // threads main() runs on
+
+   final double[] weightskj, weightsji;
+   final boolean fastSigmoid;
+   final Kernels kernels;
+   final ThreadLocal<InferenceContext> contexts;        // one per thread, see findOutput
+
+   /*
+    * Runs NeuralNets once over the input set, then runs one Model over it on
+    * CHECK_THREADS threads at once and prints for how many glyphs any thread's outputs
+    * are not exactly the same as those of NeuralNets.
+    */
+   public static void main(String[] args) throws Exception
+   {
+      String weightsFile = DEFAULT_WEIGHTS_FILE;
+
+      if (args.length > 0)
+      {
+         weightsFile = args[0];
+      }
+
+      NeuralNets net = new NeuralNets(0);
+
+      readWeightFile(weightsFile, net.weightskj, net.weightsji);
+
+      final Model model = fromNetwork(net);
+      final DataSet inputSet = net.loadSet("OCR_inputset.in", "OCR_inputset.bin", 0);
+      final int numGlyphs = inputSet.getCount();
+      final double[] expected = new double[numGlyphs * NeuralNets.NUM_OUTPUTS];
+
+      for (int inCount = 0; inCount < numGlyphs; inCount++)
+      {
+         inputSet.getInputs(inCount, net.inputs);
+         System.arraycopy(net.findOutput(), 0, expected, inCount * NeuralNets.NUM_OUTPUTS,
+                          NeuralNets.NUM_OUTPUTS);
+      }
+
+      ExecutorService pool = Executors.newFixedThreadPool(CHECK_THREADS);
+      List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+      int numDifferent = 0;
+
+      for (int thread = 0; thread < CHECK_THREADS; thread++)
+      {
+         tasks.add(new Callable<Integer>()
+         {
+            public Integer call()
+            {
+               double[] inputs = new double[NeuralNets.NUM_INPUTS];
+               double[] outputs = new double[NeuralNets.NUM_OUTPUTS];
+               int different = 0;
+
+               for (int inCount = 0; inCount < numGlyphs; inCount++)
+               {
+                  inputSet.getInputs(inCount, inputs);
+                  model.findOutput(inputs, outputs);
+
+                  for (int i = 0; i < NeuralNets.NUM_OUTPUTS; i++)
+                  {
+                     if (outputs[i] != expected[inCount * NeuralNets.NUM_OUTPUTS + i])
+                     {
+                        different++;
+                        break;
+                     }
+                  }
+               } // for (int inCount = 0; inCount < numGlyphs; inCount++)
+
+               return different;
+            } // public Integer call()
+         });
+      } // for (int thread = 0; thread < CHECK_THREADS; thread++)
+
+      try
+      {
+         for (Future<Integer> done : pool.invokeAll(tasks))
+         {
+            numDifferent += done.get();
+         }
+      }
+
+      finally
+      {
+         pool.shutdown();
+      }
+
+      System.out.printf("%d glyphs on %d threads: %d outputs differ from NeuralNets\n",
+                        numGlyphs, CHECK_THREADS, numDifferent);
+
+      return;
+   } // public static void main(String[] args)
+
+   /*
+    * Makes a model from copies of the weights, so changing the arrays passed in later
+    * does not change the model.
+    *
+    * @param weightskj     the k-j weights, NUM_INPUTS * NUM_HIDDEN of them
+    * @param weightsji     the j-i weights, NUM_HIDDEN * NUM_OUTPUTS of them
+    * @param fastSigmoid   true to look the sigmoid up in FastSigmoid's table
+    */
+   public Model(double[] weightskj, double[] weightsji, boolean fastSigmoid)
+   {
+      this.weightskj = weightskj.clone();
+      this.weightsji = weightsji.clone();
+      this.fastSigmoid = fastSigmoid;
+      this.kernels = Kernels.INSTANCE;
+      this.contexts = new ThreadLocal<InferenceContext>()
+      {
+         protected InferenceContext initialValue()
+         {
+            return new InferenceContext();
+         }
+      };
+   }
+
+   /*
+    * Makes a model from the weights a network has now.
+    *
+    * @param net   the network
+    *
+    * @return      a model with a copy of the weights of net
+    */
+   public static Model fromNetwork(NeuralNets net)
+   {
+      return new Model(net.weightskj, net.weightsji, net.fastSigmoid);
+   }
+
+   /*
+    * Makes a model from a weights file, in the format printResults writes
+    * ("weights.out"), the "weights.in" format or the binary format (see
+    * readWeightFile()).
+    *
+    * @param fileName      name of the weights file
+    * @param fastSigmoid   true to look the sigmoid up in FastSigmoid's table
+    *
+    * @return              the model
+    */
+   public static Model load(String fileName, boolean fastSigmoid) throws IOException
+   {
+      double[] weightskj = new double[NeuralNets.NUM_INPUTS * NeuralNets.NUM_HIDDEN];
+      double[] weightsji = new double[NeuralNets.NUM_HIDDEN * NeuralNets.NUM_OUTPUTS];
+
+      readWeightFile(fileName, weightskj, weightsji);
+
+      return new Model(weightskj, weightsji, fastSigmoid);
+   }
+
+   /*
+    * Makes the arrays one thread needs to run the model; see InferenceContext.
+    *
+    * @return       a new context
+    */
+   public InferenceContext newContext()
+   {
+      return new InferenceContext();
+   }
+
+   /*
+    * Runs the network on one glyph with the context the model keeps for the thread
+    * that calls it, made the first time that thread calls.
+    *
+    * @param inputs   the NUM_INPUTS inputs
+    * @param result   array for the NUM_OUTPUTS outputs
+    */
+   public void findOutput(double[] inputs, double[] result)
+   {
+      findOutput(inputs, result, contexts.get());
+
+      return;
+   }
+
+   /*
+    * Runs the network on one glyph (see NeuralNets.findOutput()).
+    *
+    * @param inputs    the NUM_INPUTS inputs
+    * @param result    array for the NUM_OUTPUTS outputs
+    * @param context   arrays of the calling thread
+    */
+   public void findOutput(double[] inputs, double[] result, InferenceContext context)
+   {
+      int numHidden = NeuralNets.NUM_HIDDEN;
+      int numOutputs = NeuralNets.NUM_OUTPUTS;
+      double[] hidden = context.hidden;
+      int[] activeInputs = context.activeInputs;
+      int numActive = 0;
+
+      for (int k = 0; k < NeuralNets.NUM_INPUTS; k++)
+      {
+         if (inputs[k] != 0.0)
+         {
+            activeInputs[numActive++] = k;
+         }
+      }
+
+      Arrays.fill(hidden, 0.0);
+
+      for (int active = 0; active < numActive; active++)
+      {
+         int k = activeInputs[active];
+
+         kernels.axpy(inputs[k], weightskj, k * numHidden, hidden, 0, numHidden);
+      }
+
+      for (int j = 0; j < numHidden; j++)
+      {
+         hidden[j] = activationFunction(hidden[j]);
+      }
+
+      for (int i = 0; i < numOutputs; i++)
+      {
+         double propagationi = 0.0;
+
+         for (int j = 0; j < numHidden; j++)
+         {
+            propagationi += weightsji[j * numOutputs + i] * hidden[j];
+         }
+
+         result[i] = activationFunction(propagationi);
+      }
+
+      return;
+   } // public void findOutput(double[] inputs, double[] result, ...)
+
+   /*
+    * Runs the network on numCases glyphs at once (see NeuralNets.findOutputs()). Row n
+    * of inputRows holds the inputs of glyph n, and its outputs are put in row n of
+    * outputRows.
+    *
+    * @param inputRows    numCases rows of NUM_INPUTS inputs
+    * @param outputRows   array for numCases rows of NUM_OUTPUTS outputs
+    * @param numCases     number of glyphs
+    * @param context      arrays of the calling thread
+    */
+   public void findOutputs(double[] inputRows, double[] outputRows, int numCases,
+                           InferenceContext context)
+   {
+      int numHidden = NeuralNets.NUM_HIDDEN;
+      int numOutputs = NeuralNets.NUM_OUTPUTS;
+      double[] hiddenRows = context.getHiddenRows(numCases);
+
+      MatrixOps.multiply(inputRows, weightskj, hiddenRows,
+                         numCases, numHidden, NeuralNets.NUM_INPUTS);
+
+      for (int nj = 0; nj < numCases * numHidden; nj++)
+      {
+         hiddenRows[nj] = activationFunction(hiddenRows[nj]);
+      }
+
+      MatrixOps.multiply(hiddenRows, weightsji, outputRows,
+                         numCases, numOutputs, numHidden);
+
+      for (int ni = 0; ni < numCases * numOutputs; ni++)
+      {
+         outputRows[ni] = activationFunction(outputRows[ni]);
+      }
+
+      return;
+   } // public void findOutputs(...)
+
+   /*
+    * Returns the sigmoid of propagation, from FastSigmoid's table if fastSigmoid is
+    * set (see NeuralNets.activationFunction()).
+    */
+   double activationFunction(double propagation)
+   {
+      if (fastSigmoid)
+      {
+         return FastSigmoid.sigmoid(propagation);
+      }
+
+      return 1.0 / (1.0 + Math.exp(-propagation));
+   }
+
+   /*
+    * Reads the k-j and then the j-i weights from a file written by printResults
+    * ("weights.out"), skipping its "k-j weights:" and "j-i weights:" labels, or from a
+    * file in the "weights.in" format, which has no labels. A file whose name ends in
+    * ".bin" is read as a binary weights file instead (see WeightsFile).
+    *
+    * @param fileName    name of the weights file
+    * @param weightskj   array for the k-j weights
+    * @param weightsji   array for the j-i weights
+    */
+   static void readWeightFile(String fileName, double[] weightskj, double[] weightsji)
+                              throws IOException
+   {
+      if (WeightsFile.isBinaryFile(fileName))
+      {
+         WeightsFile.read(fileName, weightskj, weightsji);
+
+         return;
+      }
+
+      BufferedReader in = new BufferedReader(new FileReader(fileName));
+      int numRead = 0;
+      int numWeights = weightskj.length + weightsji.length;
+
+      try
+      {
+         String line;
+
+         while (numRead < numWeights && (line = in.readLine()) != null)
+         {
+            StringTokenizer st = new StringTokenizer(line);
+
+            while (numRead < numWeights && st.hasMoreTokens())
+            {
+               String token = st.nextToken();
+
+               if (token.equals("k-j") || token.equals("j-i") || token.equals("weights:"))
+               {
+                  continue;
+               }
+
+               if (numRead < weightskj.length)
+               {
+                  weightskj[numRead] = Double.parseDouble(token);
+               }
+               else
+               {
+                  weightsji[numRead - weightskj.length] = Double.parseDouble(token);
+               }
+
+               numRead++;
+            } // while (numRead < numWeights && st.hasMoreTokens())
+         } // while (numRead < numWeights && (line = in.readLine()) != null)
+      } // try
+
+      finally
+      {
+         in.close();
+      }
+
+      if (numRead < numWeights)
+      {
+         throw new EOFException(fileName + " has " + numRead + " weights, expected " +
+                                numWeights);
+      }
+
+      return;
+   } // static void readWeightFile(String fileName, double[] weightskj, ...)
+
+}  // public class Model
@@ -0,0 +1,296 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class NetworkCheck, which checks the forward loop of
+ * NeuralNets, the one training runs, against findOutput(), the one running with
+ * inputs runs, and the derivatives the backward loop steps along against finite
+ * differences of the error.
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  static int checkForward(NeuralNets net, DataSet inputSet)
+ *  static double checkGradient(NeuralNets net, DataSet tests, Random random)
+ *  static double checkWeight(NeuralNets net, double[] weights, double[] errorDerivs,
+ *                            double[] stepped, double learningFactor, int index,
+ *                            double scale)
+ *  static double findNumericDeriv(NeuralNets net, double[] weights, int index)
+ *  static double findLargest(double[] values)
+ *  static double relativeError(double a, double b, double scale)
+ */
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * forward() and findOutput() find the hidden and output nodes with loops of their
+ * own, and forward() has been rewritten for speed (the hidden nodes found once per
+ * test case, the k-j weights read in the order they are stored, only the inputs that
+ * are not 0). They add up every sum in the same order, so for the same weights and
+ * inputs their outputs must be exactly the same, not just close.
+ *
+ * backward() finds the deltas psi_i and psi_j once per test case and moves each
+ * weight by -learningFactor times the derivative of the error, -hidden[j] * psi_i[i]
+ * for wji and -inputs[k] * psi_j[j] for wkj (see findBackwardDerivs()). For each test
+ * case of the training set, checkGradient compares those derivatives with central
+ * differences, (E(w + h) - E(w - h)) / 2h, for every j-i weight and for CHECK_WEIGHTS
+ * k-j weights picked at random, and checks that backward() really moves each of them
+ * by -learningFactor times its derivative, with learningFactorji for the j-i weights.
+ * A central difference of a derivative that is tiny next to the others of the test
+ * case is mostly rounding error, so errors are taken relative to at least
+ * MIN_SCALE times the largest derivative of the test case.
+ *
+ * To check them for a weights file ("weights.in" if none is given, a file in the
+ * "weights.in" format or a binary weights file) over the input set and the training
+ * set:
+ *
+ *    java NetworkCheck [weights file]
+ *
+ * It prints for how many glyphs the outputs differ and the largest relative error of
+ * a derivative and of a step, and exits with status 1 if any outputs differ or an
+ * error is more than MAX_RELATIVE_ERROR.
+ */
+public class NetworkCheck
+{
+   public static final String DEFAULT_WEIGHTS_FILE = "weights.in";
+   public static final long SEED = 20150513L;            // picks the k-j weights
+   public static final int CHECK_WEIGHTS = 2000;          // k-j weights per test case
+   public static final double STEP = 1e-5;                // h, added to a weight
+   public static final double MAX_RELATIVE_ERROR = 1e-3;
+   public static final double MIN_SCALE = 1e-3;           // of the largest derivative
+
+   /*
+    * Loads the weights and the input set and runs the check.
+    */
+   public static void main(String[] args) throws IOException
+   {
+      String weightsFile = DEFAULT_WEIGHTS_FILE;
+
+      if (args.length > 0)
+      {
+         weightsFile = args[0];
+      }
+
+      NeuralNets net = new NeuralNets(0);
+
+      Model.readWeightFile(weightsFile, net.weightskj, net.weightsji);
+
+      DataSet inputSet = net.loadSet("OCR_inputset.in", "OCR_inputset.bin", 0);
+      int numDifferent = checkForward(net, inputSet);
+
+      System.out.printf("forward: %d glyphs: %d outputs differ from findOutput\n",
+                        inputSet.getCount(), numDifferent);
+
+      DataSet tests = net.loadSet("OCR_trainingset.in", "OCR_trainingset.bin",
+                                  NeuralNets.NUM_OUTPUTS);
+      double maxError = checkGradient(net, tests, new Random(SEED));
+
+      System.out.printf("backward: %d test cases: largest relative error %g\n",
+                        tests.getCount(), maxError);
+
+      if (numDifferent > 0 || maxError > MAX_RELATIVE_ERROR)
+      {
+         System.exit(1);
+      }
+
+      return;
+   } // public static void main(String[] args)
+
+   /*
+    * Runs findOutput() and forward() on each glyph of inputSet and compares the
+    * outputs.
+    *
+    * @param net        the network, with its weights set
+    * @param inputSet   the glyphs
+    *
+    * @return           the number of glyphs for which the outputs are not exactly
+    *                   the same
+    */
+   static int checkForward(NeuralNets net, DataSet inputSet)
+   {
+      double[] expected = new double[NeuralNets.NUM_OUTPUTS];
+      int numDifferent = 0;
+
+      for (int inCount = 0; inCount < inputSet.getCount(); inCount++)
+      {
+         inputSet.getInputs(inCount, net.inputs);
+         System.arraycopy(net.findOutput(), 0, expected, 0, NeuralNets.NUM_OUTPUTS);
+
+         net.forward();
+
+         if (!Arrays.equals(expected, net.outputs))
+         {
+            numDifferent++;
+         }
+      }
+
+      return numDifferent;
+   } // static int checkForward(NeuralNets net, DataSet inputSet)
+
+   /*
+    * For each test case, finds the derivatives of its error with findBackwardDerivs(),
+    * takes one backward() step from a copy of the weights and compares both with
+    * finite differences (see checkWeight). The weights of net are left as they were.
+    *
+    * @param net      the network, with its weights set
+    * @param tests    the test cases
+    * @param random   picks the k-j weights to check
+    *
+    * @return         the largest relative error of any derivative or step
+    */
+   static double checkGradient(NeuralNets net, DataSet tests, Random random)
+   {
+      double[] weightskj = net.weightskj.clone();
+      double[] weightsji = net.weightsji.clone();
+      double maxError = 0.0;
+
+      for (int testCount = 0; testCount < tests.getCount(); testCount++)
+      {
+         tests.getSample(testCount, net.testInput, net.testOutput);
+         net.setInputs();
+
+         /*
+          * The weights after one backward() step, then back to where they were
+          */
+         net.forward();
+         net.backward();
+
+         double[] steppedkj = net.weightskj.clone();
+         double[] steppedji = net.weightsji.clone();
+
+         System.arraycopy(weightskj, 0, net.weightskj, 0, weightskj.length);
+         System.arraycopy(weightsji, 0, net.weightsji, 0, weightsji.length);
+
+         net.forward();
+         net.findBackwardDerivs();
+
+         double scale = MIN_SCALE * Math.max(findLargest(net.errorDerivskj),
+                                             findLargest(net.errorDerivsji));
+
+         for (int index = 0; index < weightsji.length; index++)
+         {
+            maxError = Math.max(maxError, checkWeight(net, net.weightsji,
+                                                      net.errorDerivsji, steppedji,
+                                                      net.learningFactorji, index,
+                                                      scale));
+         }
+
+         for (int n = 0; n < CHECK_WEIGHTS; n++)
+         {
+            int k = random.nextInt(NeuralNets.NUM_INPUTS);
+
+            if (n % 2 == 0 && net.numActive > 0)     // half of them on the glyph
+            {
+               k = net.activeInputs[random.nextInt(net.numActive)];
+            }
+
+            int index = k * NeuralNets.NUM_HIDDEN + random.nextInt(NeuralNets.NUM_HIDDEN);
+
+            maxError = Math.max(maxError, checkWeight(net, net.weightskj,
+                                                      net.errorDerivskj, steppedkj,
+                                                      net.learningFactorkj, index,
+                                                      scale));
+         }
+      } // for (int testCount = 0; testCount < tests.getCount(); testCount++)
+
+      return maxError;
+   } // static double checkGradient(NeuralNets net, DataSet tests, Random random)
+
+   /*
+    * Compares the derivative of the error with respect to one weight with a central
+    * difference, and the change backward() made to the weight with -learningFactor
+    * times the derivative.
+    *
+    * @param net              the network, at the test case
+    * @param weights          weightskj or weightsji of net
+    * @param errorDerivs      the derivatives for those weights
+    * @param stepped          the same weights after one backward() step
+    * @param learningFactor   the learning factor of those weights
+    * @param index            index of the weight
+    * @param scale            smallest derivative the errors are taken relative to
+    *
+    * @return                 the larger relative error of the two
+    */
+   static double checkWeight(NeuralNets net, double[] weights, double[] errorDerivs,
+                             double[] stepped, double learningFactor, int index,
+                             double scale)
+   {
+      double deriv = errorDerivs[index];
+      double numericDeriv = findNumericDeriv(net, weights, index);
+      double step = -learningFactor * deriv;
+      double change = stepped[index] - weights[index];
+
+      /*
+       * The change was rounded to a multiple of the last bit of the weight
+       */
+      if (Math.abs(change - step) <= Math.ulp(weights[index]))
+      {
+         change = step;
+      }
+
+      return Math.max(relativeError(deriv, numericDeriv, scale),
+                      relativeError(step, change, learningFactor * scale));
+   }
+
+   /*
+    * Returns (E(w + h) - E(w - h)) / 2h for one weight w, where E is the error of the
+    * test case net is at, and puts the weight back.
+    *
+    * @param net       the network, at the test case
+    * @param weights   weightskj or weightsji of net
+    * @param index     index of the weight
+    *
+    * @return          the central difference
+    */
+   static double findNumericDeriv(NeuralNets net, double[] weights, int index)
+   {
+      double weight = weights[index];
+
+      weights[index] = weight + STEP;
+      net.forward();
+
+      double errorPlus = net.findError();
+
+      weights[index] = weight - STEP;
+      net.forward();
+
+      double errorMinus = net.findError();
+
+      weights[index] = weight;
+
+      return (errorPlus - errorMinus) / (2.0 * STEP);
+   }
+
+   /*
+    * Returns the largest absolute value in values.
+    */
+   static double findLargest(double[] values)
+   {
+      double largest = 0.0;
+
+      for (int index = 0; index < values.length; index++)
+      {
+         largest = Math.max(largest, Math.abs(values[index]));
+      }
+
+      return largest;
+   }
+
+   /*
+    * Returns |a - b| relative to the largest of |a|, |b| and scale, or 0 if all three
+    * are 0.
+    */
+   static double relativeError(double a, double b, double scale)
+   {
+      double largest = Math.max(scale, Math.max(Math.abs(a), Math.abs(b)));
+
+      if (largest == 0.0)
+      {
+         return 0.0;
+      }
+
+      return Math.abs(a - b) / largest;
+   }
+
+}  // public class NetworkCheck
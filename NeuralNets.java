@@ -40,6 +40,10 @@
  *    The input and output lines alternate until all the test cases are 
  *    enumerated in the file.
  * 
+ *    If there is a file called "OCR_trainingset.bin" (the binary format written by
+ *    BitmapDump when its output file name ends in ".bin", see DataSetFormat), it is
+ *    used instead of "OCR_trainingset.in" since it is much faster to read.
+ * 
  * If the user wants to run the network with existing weights and
  * given inputs, the user should create a file called "OCR_inputset.in" 
  * with inputs and a file with weights called "weights.in" in the 
@@ -51,6 +55,8 @@
  *                           the bitmap of a certain character); each line is 
  *                           corresponds to one bitmap file/character
  *    
+ *    As with the test cases, "OCR_inputset.bin" is used instead if it exists.
+ *    
  *    Format of "weights.in": First line consists of k-j weights
  *                            Second line consists of j-i weights
  * 
@@ -114,9 +120,15 @@ import java.util.*;
  *       Runs the program -- allows user to select whether the program
  *       is running (to produce outputs for given inputs) or training
  * 
- * public NeuralNets()
- *       Constructor that initialilzes instance variables and
- *       allows the user to decide whether to train or run
+ * public NeuralNets(int shouldTrain)
+ *       Constructor that initializes instance variables without 
+ *       asking the user anything
+ *       
+ * NeuralNets(int shouldTrain, double[] weightskj, double[] weightsji)
+ *       Constructor for a network that shares the weight arrays it is given
+ *       
+ * static int askShouldTrain()
+ *       Allows the user to decide whether to train or run
  *       the neural network
  *       
  * public void train(double totalError) throws IOException  
@@ -129,11 +141,43 @@ import java.util.*;
  * public void backward()
  *       Contains the backward loop for the back propagation algorithm
  *       
+ * public void findDeltas()
+ *       Finds the deltas psi_i and psi_j for the backward loop
+ *       
+ * public void findBackwardDerivs()
+ *       Finds the derivatives of the error the backward loop steps along
+ *       
+ * public void allocateBatch()
+ *       Allocates the arrays for a mini-batch of batchSize test cases
+ *       
+ * public void forwardBatch(DataSet tests, int first, int numCases)
+ *       Forward loop for a whole mini-batch of test cases at once
+ *       
+ * public void findOutputs(double[] inputRows, double[] outputRows, int numCases)
+ *       Runs the network on many sets of inputs at once
+ *       
+ * public void findBatchOutputs(double[] inputRows, double[] hiddenRows, 
+ *                              double[] outputRows, int numCases)
+ *       Finds the hidden and output nodes for rows of inputs by matrix products
+ *       
+ * public void backwardBatch(int numCases)
+ *       Backward loop for a whole mini-batch, changing the weights once
+ *       
+ * public void findBatchDerivs(int numCases)
+ *       Finds the derivatives of the error summed over a mini-batch
+ *       
+ * public double findBatchError(int numCases)
+ *       Finds and returns the error summed over a mini-batch
+ *       
+ * public int findActiveInputs()
+ *       Lists the inputs that are not 0 and returns how many there are
+ *       
  * public void randomizeWeights(double[] weightArray, int numElements)
  *       Sets all elements in weightArray to random values between -1 and 1
  *       
  * public void setWeights() throws IOException
- *       Sets weights to random if training and to weights from file if running
+ *       Sets weights to random if training and to weights from file (binary 
+ *       if there is one) if running
  *       
  * public void readWeights(BufferedReader fWeights, double[] weightArray, 
  *                         int numElements) throws IOException
@@ -142,6 +186,10 @@ import java.util.*;
  * public void setTestCases(BufferedReader fTest) throws IOException
  *       Sets input and output arrays for the current test case from file
  *       
+ * public DataSet loadSet(String textFile, String binaryFile, int outputDim) 
+ *                        throws IOException
+ *       Loads a training or input set, from the binary file if there is one
+ *       
  * public void setInputs()
  *       Sets inputs to test case inputs
  *       
@@ -181,10 +229,26 @@ public class NeuralNets
    public static final double MIN_ERROR = 1.0;
    public static final double MAX_WEIGHT = 1.0;
    public static final double INITIAL_LEARNING_FACTOR = .000025;
+   public static final double INITIAL_LEARNING_FACTOR_JI =    //the j-i weights used to
+                              INITIAL_LEARNING_FACTOR * NUM_INPUTS; //change once per input
    public static final double INITIAL_ERROR = 60.0;             //for initialization purposes
    public static final double CASES_PER_PRINT = 1;
    public static final double LEARNING_MULTIPLIER_KJ = .5;      //used to set the 
    public static final double LEARNING_MULTIPLIER_JI = .5;      //learning factor
+   public static final int DEFAULT_BATCH_SIZE = 1;              //one test case at a time
+   public static final String BATCH_SIZE_FLAG = "-batchsize";
+   public static final int DEFAULT_THREADS = 1;                 //train on one thread
+   public static final String THREADS_FLAG = "-threads";
+   public static final String FLOAT_FLAG = "-float";         //see FloatNetwork
+   public static final String INT8_FLAG = "-int8";           //see QuantizedModel
+   public static final String FAST_SIGMOID_FLAG = "-fastsigmoid"; //see FastSigmoid
+   public static final String MAPPED_FLAG = "-mapped";       //see MappedModel
+   public static final String CHECKPOINT_FLAG = "-checkpoint";      //see Checkpoint
+   public static final String CHECKPOINT_MINUTES_FLAG = "-checkpointminutes";
+   public static final String RESUME_FLAG = "-resume";
+   public static final String CHECKPOINT_FILE = "checkpoint.bin";
+   public static final String SHUFFLE_FLAG = "-shuffle";          //see DataLoader
+   public static final int INFERENCE_BATCH_SIZE = 64;  //glyphs run at once when running
    
    
    int numElementskj, numElementsji;
@@ -193,6 +257,24 @@ public class NeuralNets
             psi_i, psi_j, theta_j, theta_i;
    double learningFactorkj, learningFactorji, prevError;
    int shouldTrain;
+   int[] activeInputs;                             //indices k of the non-zero inputs
+   Kernels kernels;                                //inner loops, see Kernels
+   int numActive;                                  //number of them, see findActiveInputs()
+   
+   int batchSize;                                  //test cases per weight update
+   int numThreads;                                 //threads a mini-batch is split over
+   FloatNetwork floatNet;                          //not null to use float weights
+   boolean useInt8;                                //run with 8 bit k-j weights
+   boolean fastSigmoid;                            //sigmoid from a table, not Math.exp
+   boolean useMapped;                              //run from mapped binary weights
+   int checkpointIterations;                       //iterations between checkpoints
+   double checkpointMinutes;                       //or minutes, 0 for none
+   boolean resume;                                 //train on from CHECKPOINT_FILE
+   boolean shuffle;                                //new test case order every epoch
+   long shuffleSeed;                               //seed of the orders
+   double[] batchInputs, batchHidden, batchOutputs, batchTargets, 
+            batchPsi_i, batchPsi_j;                //one row per test case in a batch
+   double[] inferenceHidden;                       //hidden rows for findOutputs()
    
    
    /*
@@ -212,12 +294,177 @@ public class NeuralNets
     * 
     * totalError is initialized with an arbitrarily large number INITIAL_ERROR
     * to ensure that the while loop in net.train() can be entered.
+    * 
+    * To train with mini-batches (see train()), give the batch size as 
+    * 
+    *    java NeuralNets -batchsize <test cases per batch>
+    * 
+    * and to split each mini-batch over several threads (see ParallelTrainer), 
+    * also give the number of threads as 
+    * 
+    *    java NeuralNets -batchsize <test cases per batch> -threads <threads>
+    * 
+    * Giving -threads without -batchsize trains one test case at a time on 
+    * each of the threads at once, without locks (see HogwildTrainer).
+    * 
+    * To train or run with the weights and nodes kept as floats (see 
+    * FloatNetwork), give -float, or -float -doublesums to add up the hidden 
+    * node sums in doubles. This works one test case at a time, on one thread.
+    * 
+    * To run (not train) with the k-j weights rounded to 8 bit integers (see 
+    * QuantizedModel), give -int8. If the user then asks to train, the program 
+    * stops instead of training without it.
+    * 
+    * To run (not train) straight from the binary weights file "weights.in.bin" 
+    * mapped into memory, without reading the weights into weightskj and 
+    * weightsji (see MappedModel), give -mapped. As with -int8, asking to 
+    * train then stops the program.
+    * 
+    * To find the sigmoid from a table instead of with Math.exp (see 
+    * FastSigmoid and activationFunction()), also give -fastsigmoid. This is 
+    * for the double network; -float and -int8 always use Math.exp.
+    * 
+    * To save the training state to CHECKPOINT_FILE every so many iterations 
+    * or minutes while training (see Checkpoint), give 
+    * 
+    *    java NeuralNets -checkpoint <iterations> -checkpointminutes <minutes>
+    * 
+    * (either or both), and give -resume to go on training from the last 
+    * checkpoint instead of from random weights.
+    * 
+    * To train on the test cases in a new order every iteration, shuffled 
+    * with a Random seeded from the given seed (see DataLoader), give 
+    * 
+    *    java NeuralNets -shuffle <seed>
     */
    public static void main(String[] args) throws IOException
    {
       double totalError = INITIAL_ERROR;     
+      int batchSize = DEFAULT_BATCH_SIZE;
+      int numThreads = DEFAULT_THREADS;
+      boolean useFloat = false;
+      boolean doubleSums = false;
+      boolean useInt8 = false;
+      boolean fastSigmoid = false;
+      boolean useMapped = false;
+      int checkpointIterations = 0;
+      double checkpointMinutes = 0.0;
+      boolean resume = false;
+      boolean shuffle = false;
+      long shuffleSeed = 0;
+      
+      for (int arg = 0; arg < args.length; arg++)
+      {
+         if (args[arg].equals(BATCH_SIZE_FLAG) && arg + 1 < args.length)
+         {
+            batchSize = Integer.parseInt(args[++arg]);
+         }
+         else if (args[arg].equals(THREADS_FLAG) && arg + 1 < args.length)
+         {
+            numThreads = Integer.parseInt(args[++arg]);
+         }
+         else if (args[arg].equals(FLOAT_FLAG))
+         {
+            useFloat = true;
+         }
+         else if (args[arg].equals(FloatNetwork.DOUBLE_SUMS_FLAG))
+         {
+            doubleSums = true;
+         }
+         else if (args[arg].equals(INT8_FLAG))
+         {
+            useInt8 = true;
+         }
+         else if (args[arg].equals(FAST_SIGMOID_FLAG))
+         {
+            fastSigmoid = true;
+         }
+         else if (args[arg].equals(MAPPED_FLAG))
+         {
+            useMapped = true;
+         }
+         else if (args[arg].equals(CHECKPOINT_FLAG) && arg + 1 < args.length)
+         {
+            checkpointIterations = Integer.parseInt(args[++arg]);
+         }
+         else if (args[arg].equals(CHECKPOINT_MINUTES_FLAG) && arg + 1 < args.length)
+         {
+            checkpointMinutes = Double.parseDouble(args[++arg]);
+         }
+         else if (args[arg].equals(RESUME_FLAG))
+         {
+            resume = true;
+         }
+         else if (args[arg].equals(SHUFFLE_FLAG) && arg + 1 < args.length)
+         {
+            shuffle = true;
+            shuffleSeed = Long.parseLong(args[++arg]);
+         }
+      }
+      
+      if (batchSize < 1 || numThreads < 1 || 
+          (useFloat && (batchSize > 1 || numThreads > 1)) || (useFloat && useInt8) ||
+          (useMapped && (useFloat || useInt8)) || 
+          checkpointIterations < 0 || checkpointMinutes < 0.0)
+      {
+         System.err.println("Usage: java NeuralNets [" + BATCH_SIZE_FLAG + 
+                            " <test cases per batch> [" + THREADS_FLAG + 
+                            " <threads>]]");
+         System.err.println("       java NeuralNets " + FLOAT_FLAG + " [" + 
+                            FloatNetwork.DOUBLE_SUMS_FLAG + "]");
+         System.err.println("       java NeuralNets " + INT8_FLAG);
+         System.err.println("       java NeuralNets " + MAPPED_FLAG);
+         System.err.println("       (and " + FAST_SIGMOID_FLAG + " with any of these)");
+         System.err.println("       (and " + CHECKPOINT_FLAG + " <iterations>, " + 
+                            CHECKPOINT_MINUTES_FLAG + " <minutes> and " + 
+                            RESUME_FLAG + " when training)");
+         System.err.println("       (and " + SHUFFLE_FLAG + " <seed> when training)");
+         return;
+      }
 
-      NeuralNets net = new NeuralNets();
+      int shouldTrain = askShouldTrain();
+      NeuralNets net;
+      
+      if (shouldTrain == 1 && useInt8)
+      {
+         System.err.println(INT8_FLAG + " only runs with saved weights; " + 
+                            "it cannot train");
+         return;
+      }
+      
+      if (shouldTrain == 1 && useMapped)
+      {
+         System.err.println(MAPPED_FLAG + " only runs with saved weights; " + 
+                            "it cannot train");
+         return;
+      }
+      
+      if (useFloat)        //FloatNetwork finds its own derivatives, see train()
+      {
+         net = new NeuralNets(shouldTrain, new double[NUM_INPUTS*NUM_HIDDEN], 
+                              new double[NUM_HIDDEN*NUM_OUTPUTS]);
+      }
+      else
+      {
+         net = new NeuralNets(shouldTrain);
+      }
+      
+      net.batchSize = batchSize;
+      net.numThreads = numThreads;
+      
+      if (useFloat)
+      {
+         net.floatNet = new FloatNetwork(doubleSums);
+      }
+      
+      net.useInt8 = useInt8;
+      net.fastSigmoid = fastSigmoid;
+      net.useMapped = useMapped;
+      net.checkpointIterations = checkpointIterations;
+      net.checkpointMinutes = checkpointMinutes;
+      net.resume = resume;
+      net.shuffle = shuffle;
+      net.shuffleSeed = shuffleSeed;
       
       if (net.shouldTrain == 1)
       {
@@ -236,11 +483,13 @@ public class NeuralNets
    /*
     * Constructor for  objects of class NeuralNets: This constuctor initializes 
     * all the instance variables. The learning factors are initialized to 
-    * INITIAL_LEARNING_FACTOR for now, but within the program, they will be 
-    * dependent on error. The constructor also takes an input from the user 
-    * saved in the variable shouldTrain that will determine whether the program 
-    * trains (if the user inputs 1) or runs with existing weights 
-    * (if the user inputs any other number).
+    * INITIAL_LEARNING_FACTOR (INITIAL_LEARNING_FACTOR_JI for the j-i weights, 
+    * see backward()) for now, but within the program, they will be 
+    * dependent on error. The variable shouldTrain determines whether the program 
+    * trains (if it is 1) or runs with existing weights (if it is any other 
+    * number). The constructor does not ask the user anything, so a network can 
+    * be made from another program, such as Benchmarks, or on any thread; main 
+    * asks the user first (see askShouldTrain()).
     * 
     *    inputs         array of input nodes
     *    hidden         array of hidden nodes
@@ -249,22 +498,45 @@ public class NeuralNets
     *    testOutput     array of output values for the current test case
     *    errorDerivskj  array of derivatives of the error with respect to kj weights
     *    errorDerivsji  array of derivatives of the error with respect to ji weights
+    * 
+    * @param shouldTrain   1 to train, any other number to run with saved weights
     */
-   public NeuralNets()
+   public NeuralNets(int shouldTrain)
+   {
+      this(shouldTrain, new double[NUM_INPUTS*NUM_HIDDEN], 
+           new double[NUM_HIDDEN*NUM_OUTPUTS]);
+      
+      errorDerivskj = new double[numElementskj];         //error derivatives
+      errorDerivsji = new double[numElementsji];
+   }
+   
+   /*
+    * Constructor for a network that uses the weight arrays it is given instead 
+    * of making its own, such as a worker of HogwildTrainer, which shares the 
+    * weights of the network being trained. Only the node, theta, omega and psi 
+    * arrays one test case needs are made; errorDerivskj and errorDerivsji, 
+    * 8 MB of which are for the k-j weights, are left null for whoever needs 
+    * them to make.
+    * 
+    * @param shouldTrain   1 to train, any other number to run with saved weights
+    * @param weightskj     the k-j weights, NUM_INPUTS * NUM_HIDDEN of them
+    * @param weightsji     the j-i weights, NUM_HIDDEN * NUM_OUTPUTS of them
+    */
+   NeuralNets(int shouldTrain, double[] weightskj, double[] weightsji)
    {
       numElementskj = NUM_INPUTS*NUM_HIDDEN;             //number of k-j weights
       numElementsji = NUM_HIDDEN*NUM_OUTPUTS;            //number of j-i weights
-      weightskj= new double[numElementskj];
-      weightsji= new double[numElementsji];
+      this.weightskj = weightskj;
+      this.weightsji = weightsji;
       inputs = new double[NUM_INPUTS];
       hidden = new double[NUM_HIDDEN];
       outputs = new double[NUM_OUTPUTS];
       testInput = new double[NUM_INPUTS];
       testOutput = new double[NUM_OUTPUTS];
-      errorDerivskj = new double[numElementskj];         //error derivatives
-      errorDerivsji = new double[numElementsji];
+      activeInputs = new int[NUM_INPUTS];
+      kernels = Kernels.INSTANCE;
       learningFactorkj = INITIAL_LEARNING_FACTOR;        //initializing learning factors                  
-      learningFactorji = INITIAL_LEARNING_FACTOR; 
+      learningFactorji = INITIAL_LEARNING_FACTOR_JI;     //see backward()
       prevError = 0;
       theta_i = new double[NUM_OUTPUTS];
       theta_j = new double[NUM_HIDDEN];
@@ -272,14 +544,25 @@ public class NeuralNets
       omega_j = new double[NUM_HIDDEN];
       psi_i = new double[NUM_OUTPUTS];
       psi_j = new double[NUM_HIDDEN];
+      batchSize = DEFAULT_BATCH_SIZE;
+      numThreads = DEFAULT_THREADS;
       
-      
+      this.shouldTrain = shouldTrain;
+   }
+   
+   /*
+    * Asks the user whether to train or to run with saved weights.
+    * 
+    * @return   1 to train, any other number to run with saved weights
+    */
+   static int askShouldTrain()
+   {
       Scanner in = new Scanner(System.in);
       
       System.out.println("Type 1 to find weights (train) " +
                          "or any other number to run with saved weights.");
       
-      shouldTrain = in.nextInt();                        
+      return in.nextInt();
    }
       
    
@@ -287,8 +570,8 @@ public class NeuralNets
    
    /*
     * This method calls a method to set the weights (random if training, 
-    * from file if not) runs the network. A BufferedReader is used to read in 
-    * the test cases from file with the name testFile.
+    * from file if not) runs the network. The test cases are loaded once from the 
+    * file with the name testFile (or binaryTestFile, see loadSet) into a DataSet.
     * 
     * Format of testFile: The first line of testFile, in which the test case 
     * inputs and outputs are stored, is the total number of test cases (models) given. 
@@ -304,13 +587,30 @@ public class NeuralNets
     * errors found in each test case within the while loop iteration. The totalError 
     * is reset to 0 each iteration of the while loop to prevent accumulation of error. 
     * 
-    * The inputs and outputs of each test case are read into the program as 
-    * each test case runs. Therefore, to reset when all the test cases have 
-    * been read through, a new BufferedReader is created for the test case 
-    * file every time all the test cases have been run through in order to
-    * reset and start from the first test case again.
+    * The inputs and outputs of each test case are copied out of the DataSet by 
+    * index as each test case runs, so going back to the first test case after 
+    * all of them have been run through needs no file to be reopened or parsed 
+    * again. The test cases come in blocks from a DataLoader, which gathers the 
+    * next block on another thread while this one is trained on, in file order, 
+    * or if shuffle is set, in a new order every iteration made from 
+    * shuffleSeed and the number of the iteration.
     * 
-    * Each iteration over the for loop is training using one test case.
+    * Each iteration over the for loop is training using one test case, or, if 
+    * batchSize is more than 1, one mini-batch of batchSize test cases (the last 
+    * batch of an iteration may be smaller). A mini-batch goes through the network 
+    * all at once (see forwardBatch() and backwardBatch()) and the weights are 
+    * changed once per batch, by the sum of the changes its test cases call for.
+    * If numThreads is more than 1, each mini-batch is split over that many 
+    * threads by a ParallelTrainer, which changes the weights the same way. 
+    * Without mini-batches, a HogwildTrainer instead runs all the test cases of 
+    * a block (see DataLoader) on that many threads at once, one test case at a 
+    * time each. 
+    * If floatNet is set, the test cases run through it instead. Once it has 
+    * the weights, weightskj and weightsji are let go, so the 8 MB of double 
+    * k-j weights are not kept beside its 4 MB of floats (and main never makes 
+    * errorDerivskj and errorDerivsji for it); a checkpoint copies the weights 
+    * out of floatNet (see Checkpoint.save()), and they are copied back into 
+    * new weightskj and weightsji at the end for printResults().
     * 
     * The back propagation algorithm has a loop forward and backward for 
     * each test case that runs the training. The loops were written according
@@ -326,9 +626,16 @@ public class NeuralNets
     * of 2.0 if the current total error is greater than or equal to the previous 
     * total error.
     * 
+    * If checkpointIterations or checkpointMinutes is set, the weights, learning 
+    * factors, prevError and count are saved to CHECKPOINT_FILE at the end of an 
+    * iteration every so often, on another thread (see Checkpoint). If resume is 
+    * set, they are read back from it before training, so training goes on where 
+    * the checkpoint left it.
+    * 
     * 
     * 
-    * BufferedReader f2 - BufferedReader for the file containing the test cases.
+    * DataSet tests     - all of the test cases
+    * DataSet cases     - the block of test cases being trained on
     * double error      - error for each test case 
     *                     (updated each time one test case is run)
     * 
@@ -344,14 +651,59 @@ public class NeuralNets
       
       double error = INITIAL_ERROR;          
       int count = 0;
+      Checkpoint checkpoint = null;                    //see Checkpoint
+      
+      if (resume)
+      {
+         count = (int)Checkpoint.resume(CHECKPOINT_FILE, this);
+         
+         System.out.printf("Resuming from %s after %d test cases\n\n", 
+                           CHECKPOINT_FILE, count);
+      }
+      
+      if (checkpointIterations > 0 || checkpointMinutes > 0.0)
+      {
+         checkpoint = new Checkpoint(CHECKPOINT_FILE, checkpointIterations, 
+                                     checkpointMinutes);
+      }
       String testFile = "OCR_trainingset.in";          //name of file where test cases 
                                                        //are located
+      String binaryTestFile = "OCR_trainingset.bin";   //same, in the binary format
       
+      DataSet tests = loadSet(testFile, binaryTestFile, NUM_OUTPUTS);
+      
+      int numModels = tests.getCount();                //number of test cases
+      int numCases = 1;                                //test cases in this batch
+      int casesPerStep = batchSize;                    //most test cases in a batch
+      ParallelTrainer trainer = null;                  //only used with numThreads > 1
+      HogwildTrainer hogwild = null;                   //and batchSize > 1, or not
+      
+      if (numThreads > 1 && batchSize > 1)
+      {
+         trainer = new ParallelTrainer(this, numThreads);
+      }
+      else if (numThreads > 1)
+      {
+         hogwild = new HogwildTrainer(this, numThreads);
+         casesPerStep = numModels;                     //each block all at once
+      }
+      else if (batchSize > 1)
+      {
+         allocateBatch();
+      }
       
-      BufferedReader f2 = new BufferedReader(new FileReader(testFile));
+      if (floatNet != null)
+      {
+         floatNet.copyFrom(this);
+         
+         weightskj = null;                             //floatNet has them now
+         weightsji = null;
+      }
       
-                              
-      int numModels = Integer.parseInt(f2.readLine()); //read in number of test cases
+      DataLoader loader = new DataLoader(tests, batchSize, shuffle, shuffleSeed, 
+                                         count / numModels);   //see DataLoader
+      int blockCases = loader.getBlockCases();         //test cases in a block
+      DataSet cases = null;                            //the block being trained on
       
       
                                
@@ -360,29 +712,59 @@ public class NeuralNets
          totalError = 0;                               //resetting total error
          
         
-         for (int modelCount = 0; modelCount < numModels; modelCount++)
+         for (int modelCount = 0; modelCount < numModels; modelCount += numCases)
          {
-            if (count % numModels == 0 && count != 0)  //resets to first test case
+            if (modelCount % blockCases == 0)
             {
-               f2 = new BufferedReader(new FileReader(testFile));
-               f2.readLine();
+               cases = loader.nextBlock();
             }
-               
             
-            setTestCases(f2);
-            setInputs();
+            int first = modelCount % blockCases;       //index of the case in the block
             
-     
-            forward();           //forward loop in back propagation
-            backward();          //backward loop in back propagation
+            numCases = Math.min(casesPerStep, cases.getCount() - first);
             
-           
-            error = findError(); //calculate error for each test case to decide 
-                                 //whether the program should stop or continue
+            if (trainer != null)
+            {
+               error = trainer.trainBatch(cases, first, numCases);
+            }
+            else if (hogwild != null)
+            {
+               error = hogwild.trainCases(cases, first, numCases);
+            }
+            else if (floatNet != null)
+            {
+               floatNet.setCase(cases, first);
+               
+               floatNet.forward();
+               floatNet.backward(learningFactorkj, learningFactorji);
+               
+               error = floatNet.findError();
+            }
+            else if (batchSize > 1)
+            {
+               forwardBatch(cases, first, numCases);
+               
+               error = findBatchError(numCases);
+               
+               backwardBatch(numCases);
+            }
+            else
+            {
+               cases.getSample(first, testInput, testOutput);
+               setInputs();
+               
+        
+               forward();           //forward loop in back propagation
+               backward();          //backward loop in back propagation
+               
+              
+               error = findError(); //calculate error for each test case to decide 
+                                    //whether the program should stop or continue
+            } // else
                
             totalError += error;
-            count++;
-         } // for (int modelCount = 0; modelCount<numModels; modelCount++)
+            count += numCases;
+         } // for (int modelCount = 0; modelCount<numModels; modelCount += numCases)
          
          
          if (count % CASES_PER_PRINT == 0)
@@ -410,9 +792,39 @@ public class NeuralNets
          }
          
          prevError = totalError;
+         
+         if (checkpoint != null && checkpoint.isDue(count, numModels))
+         {
+            checkpoint.save(this, count);
+         }
                
       }    // while(totalError>MIN_ERROR && count<=MAX_COUNT)
       
+      loader.close();
+      
+      if (checkpoint != null)
+      {
+         checkpoint.close(this, count);              //takes one that was skipped
+      }
+      
+      if (trainer != null)
+      {
+         trainer.close();
+      }
+      
+      if (hogwild != null)
+      {
+         hogwild.close();
+      }
+      
+      if (floatNet != null)
+      {
+         weightskj = new double[numElementskj];        //for printResults()
+         weightsji = new double[numElementsji];
+         
+         floatNet.copyTo(this);
+      }
+      
       return totalError;
    }       // public double train(double totalError) throws IOException
    
@@ -441,10 +853,56 @@ public class NeuralNets
     *       
     * Therefore, to get to the desired weight in the weight array,
     * the index must be (k * NUM_HIDDEN + j) for kj weights.
+    * 
+    * The hidden nodes are found first, once per test case, and then used for
+    * every output. (They used to be found again inside the loop over the outputs,
+    * which did the NUM_INPUTS * NUM_HIDDEN k-j sums NUM_OUTPUTS times over.)
+    * The sums are added up in the same order as before and as in findOutput(),
+    * so the outputs are exactly the same as findOutput() gives.
+    * 
+    * The k loop is outside the j loop so that the k-j weights are read in the 
+    * order they are stored (wk0, wk1, ... wkn for each k) instead of jumping 
+    * NUM_HIDDEN weights ahead on every multiply. Each theta_j[j] still adds up 
+    * its terms in the order k = 0, 1, 2, ..., so the sums are unchanged.
+    * 
+    * Only the inputs that are not 0 are run through the k loop (see 
+    * findActiveInputs()); a glyph is mostly blank background, and an input of 0 
+    * adds nothing to any theta_j[j]. backward() uses the same list.
+    * 
+    * The j loop for each k, theta_j += inputs[k] * (row k of weightskj), is 
+    * done by kernels (see Kernels), which may use vector instructions; it gives 
+    * the same sums as the loop written out.
     *    
     */
    public void forward()
    {
+      findActiveInputs();
+      
+      /*
+       * Finding the values of the hidden nodes -- these do not depend on i,
+       * so they are found once for all of the outputs
+       */
+      for (int j = 0; j < NUM_HIDDEN; j++)
+      {
+         theta_j[j] = 0;    // reset theta_j[j]
+      }
+      
+      for (int active = 0; active < numActive; active++)
+      {
+         int k = activeInputs[active];
+         int indkj = k * NUM_HIDDEN;   // index of wk0; wkj is at indkj + j
+         
+         kernels.axpy(inputs[k], weightskj, indkj, theta_j, 0, NUM_HIDDEN);
+      }
+      
+      for (int j = 0; j < NUM_HIDDEN; j++)
+      {
+         hidden[j] = activationFunction(theta_j[j]);
+      }
+      
+      /*
+       * Finding the values of the output nodes
+       */
       for (int i = 0; i < NUM_OUTPUTS; i++)
       {
          int indji = 0;
@@ -453,28 +911,15 @@ public class NeuralNets
          
          for (int j = 0; j < NUM_HIDDEN; j++)
          {
-            int indkj = 0;
-            
-            theta_j[j] = 0; // reset theta_j[j]
-            
-            for (int k = 0; k < NUM_INPUTS; k++)
-            {
-               indkj = k * NUM_HIDDEN + j;
-               theta_j[j] += inputs[k] * weightskj[indkj];
-            }
-            
-            hidden[j] = activationFunction(theta_j[j]);
-            
             indji = j * NUM_OUTPUTS + i;
             theta_i[i] += weightsji[indji] * hidden[j];
-            
-         } // for (int j = 0; j < NUM_HIDDEN; j++)
+         }
          
          outputs[i] = activationFunction(theta_i[i]);
          
          omega_i[i] = testOutput[i] - outputs[i];
          
-      }    // for (int i = 0; i < NUM_INPUTS; i++)
+      }    // for (int i = 0; i < NUM_OUTPUTS; i++)
       
    }       // public void forward()
    
@@ -482,9 +927,26 @@ public class NeuralNets
     * The backward loop of the back propagation is written according to the concepts and
     * formulae given in Dr. Nelson's notes.
     * 
-    *    omega_j[j] = psi[0] * weightsji[indj0] + psi[1] * weightsji[indj1] + ... +
-    *                 psi[n] * weightsji[indjn]
-    *    psi_j[j] = omega[j] * f'(theta_j[j])
+    *    psi_i[i] = omega_i[i] * f'(theta_i[i])
+    *    omega_j[j] = psi_i[0] * weightsji[indj0] + psi_i[1] * weightsji[indj1] + ... +
+    *                 psi_i[m] * weightsji[indjm]
+    *    psi_j[j] = omega_j[j] * f'(theta_j[j])
+    *    
+    *    wji += learningFactorji * hidden[j] * psi_i[i]
+    *    wkj += learningFactorkj * inputs[k] * psi_j[j]
+    *    
+    * The deltas psi_i and psi_j are found once per test case, in that order, with 
+    * omega_j using the j-i weights from before this test case's update (see 
+    * findDeltas()). Then each j-i weight is changed once, and the k-j weights 
+    * get one rank-1 update (inputs times psi_j), walked in the order they are 
+    * stored. Each weight moves by -learningFactor times the derivative of the 
+    * error, which "java NetworkCheck" checks against finite differences.
+    * 
+    * (This loop used to find psi_i and omega_j again for every input k and change 
+    * every j-i weight inside the k loop, so the j-i weights were changed NUM_INPUTS 
+    * times per test case and omega_j saw weights that had already been partly 
+    * changed. The j-i learning factor now starts at INITIAL_LEARNING_FACTOR_JI 
+    * to keep the j-i step about the size it used to be.)
     *    
     * Note: the weight indices (indkj, indji) are set differently
     * because the weight arrays are arranged according to this specification:
@@ -506,35 +968,321 @@ public class NeuralNets
     */
    public void backward()
    {
+      findDeltas();
+      
+      /*
+       * j-i weights, once per test case
+       */
+      for (int j = 0; j < NUM_HIDDEN; j++)
+      {
+         int indji = j * NUM_OUTPUTS;
+         
+         for (int i = 0; i < NUM_OUTPUTS; i++)
+         {
+            weightsji[indji + i] += learningFactorji * hidden[j] * psi_i[i];
+         }
+      }
+      
+      /*
+       * k-j weights: weightskj += learningFactorkj * (inputs x psi_j). A row 
+       * whose input is 0 (blank background) would only have 0 added to it, so 
+       * only the rows of the inputs forward() listed as active are touched. 
+       * Each row is changed by kernels (see forward()).
+       */
+      for (int active = 0; active < numActive; active++)
+      {
+         int k = activeInputs[active];
+         int indkj = k * NUM_HIDDEN;   // index of wk0; wkj is at indkj + j
+         double scaledInput = learningFactorkj * inputs[k];
+         
+         kernels.axpy(scaledInput, psi_j, 0, weightskj, indkj, NUM_HIDDEN);
+      }
+      
+   }          // public void backward()
+   
+   /*
+    * Finds the deltas psi_i and psi_j of the test case forward() last ran,
+    * with the j-i weights as they are now (see backward()).
+    * 
+    *    psi_i[i] = omega_i[i] * f'(theta_i[i])
+    *    psi_j[j] = omega_j[j] * f'(theta_j[j])
+    * 
+    * The derivative of the error of the test case with respect to wji is 
+    * -hidden[j] * psi_i[i], and with respect to wkj, -inputs[k] * psi_j[j] 
+    * (see findBackwardDerivs()).
+    */
+   public void findDeltas()
+   {
+      for (int i = 0; i < NUM_OUTPUTS; i++)
+      {
+         psi_i[i] = omega_i[i] * functionDeriv(outputs[i]);
+      }
+      
+      for (int j = 0; j < NUM_HIDDEN; j++)
+      {
+         int indji = j * NUM_OUTPUTS;  // index of wj0; wji is at indji + i
+         
+         omega_j[j] = 0; // reset
+         
+         for (int i = 0; i < NUM_OUTPUTS; i++)
+         {
+            omega_j[j] += psi_i[i] * weightsji[indji + i];
+         }
+         
+         psi_j[j] = omega_j[j] * functionDeriv(hidden[j]);
+      }    // for (int j = 0; j < NUM_HIDDEN; j++)
+      
+      return;
+   }
+   
+   /*
+    * Sets errorDerivskj and errorDerivsji to the derivatives of the error of 
+    * the test case forward() last ran with respect to each weight, from the 
+    * deltas backward() steps along (see findDeltas()). backward() changes 
+    * each weight by -learningFactor times its derivative; NetworkCheck 
+    * checks these derivatives against the change in the error when a weight 
+    * is moved a little.
+    */
+   public void findBackwardDerivs()
+   {
+      findDeltas();
+      
+      for (int j = 0; j < NUM_HIDDEN; j++)
+      {
+         int indji = j * NUM_OUTPUTS;
+         
+         for (int i = 0; i < NUM_OUTPUTS; i++)
+         {
+            errorDerivsji[indji + i] = -hidden[j] * psi_i[i];
+         }
+      }
+      
       for (int k = 0; k < NUM_INPUTS; k++)
       {
-         int indkj = 0;
+         int indkj = k * NUM_HIDDEN;
          
          for (int j = 0; j < NUM_HIDDEN; j++)
          {
-            int indji = 0;
-            
-            omega_j[j] = 0; // reset
-            
-            for (int i = 0; i < NUM_OUTPUTS; i++)
-            {
-               psi_i[i] = omega_i[i] * functionDeriv(outputs[i]);
-               
-               indji = j * NUM_OUTPUTS+ i;
-               omega_j[j] += psi_i[i] * weightsji[indji];
-               
-               weightsji[indji] += learningFactorji * hidden[j] * psi_i[i];
-            } // for (int i = 0; i < NUM_OUTPUTS; i++)
-            
-            psi_j[j] = omega_j[j] * functionDeriv(hidden[j]);
-            
-            indkj = k * NUM_HIDDEN + j;
-            weightskj[indkj] += learningFactorkj * inputs[k] * psi_j[j];
-         }    // for (int j = 0; j < NUM_HIDDEN; j++)
+            errorDerivskj[indkj + j] = -inputs[k] * psi_j[j];
+         }
+      }
+      
+      return;
+   }       // public void findBackwardDerivs()
+   
+   /*
+    * Lists the indices k of the inputs that are not 0, in order, in 
+    * activeInputs[0] to activeInputs[numActive - 1]. Together with the inputs 
+    * themselves this is the test case as index/value pairs, so the k loops of 
+    * forward(), backward() and findOutput() only run over the pels that are 
+    * part of the character. Leaving out a term that is 0 does not change any 
+    * sum, so the results are exactly the same as running over every k.
+    * 
+    * @return       numActive, the number of inputs that are not 0
+    */
+   public int findActiveInputs()
+   {
+      numActive = 0;
+      
+      for (int k = 0; k < NUM_INPUTS; k++)
+      {
+         if (inputs[k] != 0.0)
+         {
+            activeInputs[numActive++] = k;
+         }
+      }
+      
+      return numActive;
+   }
+   
+   /*
+    * Allocates the arrays that hold a mini-batch, batchSize rows each.
+    */
+   public void allocateBatch()
+   {
+      batchInputs = new double[batchSize * NUM_INPUTS];
+      batchHidden = new double[batchSize * NUM_HIDDEN];
+      batchOutputs = new double[batchSize * NUM_OUTPUTS];
+      batchTargets = new double[batchSize * NUM_OUTPUTS];
+      batchPsi_i = new double[batchSize * NUM_OUTPUTS];
+      batchPsi_j = new double[batchSize * NUM_HIDDEN];
+      
+      return;
+   }
+   
+   /*
+    * The forward loop of the back propagation for a whole mini-batch: the same as 
+    * forward() for each of the test cases first to first + numCases - 1, but done 
+    * as two matrix multiplications (see MatrixOps) with one row per test case:
+    * 
+    *    batchHidden  = f(batchInputs * kj weights)
+    *    batchOutputs = f(batchHidden * ji weights)
+    * 
+    * so the k-j weights are read through once for the whole batch. The outputs 
+    * of the last test case are also left in outputs.
+    * 
+    * @param tests      the test cases
+    * @param first      index of the first test case in the batch
+    * @param numCases   number of test cases in the batch, at most batchSize
+    */
+   public void forwardBatch(DataSet tests, int first, int numCases)
+   {
+      for (int n = 0; n < numCases; n++)
+      {
+         tests.getSample(first + n, testInput, testOutput);
          
-      }       // for (int k = 0; k < NUM_INPUTS; k++)
+         System.arraycopy(testInput, 0, batchInputs, n * NUM_INPUTS, NUM_INPUTS);
+         System.arraycopy(testOutput, 0, batchTargets, n * NUM_OUTPUTS, NUM_OUTPUTS);
+      }
       
-   }          // public void backward()
+      findBatchOutputs(batchInputs, batchHidden, batchOutputs, numCases);
+      
+      System.arraycopy(batchOutputs, (numCases - 1) * NUM_OUTPUTS, outputs, 0, 
+                       NUM_OUTPUTS);
+      
+      return;
+   } // public void forwardBatch(DataSet tests, int first, int numCases)
+   
+   /*
+    * Runs the network on numCases sets of inputs at once, with no training. 
+    * Row n of inputRows (elements n * NUM_INPUTS to (n + 1) * NUM_INPUTS - 1) 
+    * holds the inputs of glyph n, and its outputs are put in row n of 
+    * outputRows (elements n * NUM_OUTPUTS to (n + 1) * NUM_OUTPUTS - 1). 
+    * 
+    * The k-j weights are read through once for the whole call instead of once 
+    * per glyph (see findBatchOutputs()), and nothing is allocated except when 
+    * numCases is larger than in any call before. The outputs are exactly the 
+    * same as findOutput() gives for each glyph.
+    * 
+    * @param inputRows    numCases rows of NUM_INPUTS inputs
+    * @param outputRows   array for numCases rows of NUM_OUTPUTS outputs
+    * @param numCases     number of glyphs
+    */
+   public void findOutputs(double[] inputRows, double[] outputRows, int numCases)
+   {
+      if (inferenceHidden == null || inferenceHidden.length < numCases * NUM_HIDDEN)
+      {
+         inferenceHidden = new double[numCases * NUM_HIDDEN];
+      }
+      
+      findBatchOutputs(inputRows, inferenceHidden, outputRows, numCases);
+      
+      return;
+   }
+   
+   /*
+    * Finds the hidden and output nodes for rows of inputs as two matrix 
+    * multiplications (see MatrixOps), one row per test case or glyph:
+    * 
+    *    hiddenRows = f(inputRows * kj weights)
+    *    outputRows = f(hiddenRows * ji weights)
+    * 
+    * Each sum is added up in the same order as in forward() and findOutput(), 
+    * so the nodes are the same as they give.
+    * 
+    * @param inputRows    numCases rows of NUM_INPUTS inputs
+    * @param hiddenRows   array for numCases rows of NUM_HIDDEN hidden nodes
+    * @param outputRows   array for numCases rows of NUM_OUTPUTS outputs
+    * @param numCases     number of rows
+    */
+   public void findBatchOutputs(double[] inputRows, double[] hiddenRows, 
+                                double[] outputRows, int numCases)
+   {
+      MatrixOps.multiply(inputRows, weightskj, hiddenRows, 
+                         numCases, NUM_HIDDEN, NUM_INPUTS);
+      
+      for (int nj = 0; nj < numCases * NUM_HIDDEN; nj++)
+      {
+         hiddenRows[nj] = activationFunction(hiddenRows[nj]);
+      }
+      
+      MatrixOps.multiply(hiddenRows, weightsji, outputRows, 
+                         numCases, NUM_OUTPUTS, NUM_HIDDEN);
+      
+      for (int ni = 0; ni < numCases * NUM_OUTPUTS; ni++)
+      {
+         outputRows[ni] = activationFunction(outputRows[ni]);
+      }
+      
+      return;
+   } // public void findBatchOutputs(...)
+   
+   /*
+    * The backward loop of the back propagation for a whole mini-batch (see 
+    * backward() for the equations). The deltas of all the test cases are found 
+    * with the weights from before the batch, then the derivatives of the error 
+    * with respect to the weights are summed over the batch into errorDerivsji 
+    * and errorDerivskj:
+    * 
+    *    errorDerivsji = -transpose(batchHidden) * batchPsi_i
+    *    errorDerivskj = -transpose(batchInputs) * batchPsi_j
+    * 
+    * and the weights are changed once by setNewWeights(). With one test case 
+    * per batch this is the same as backward().
+    * 
+    * @param numCases   number of test cases in the batch
+    */
+   public void backwardBatch(int numCases)
+   {
+      findBatchDerivs(numCases);
+      
+      setNewWeights(weightsji, errorDerivsji, learningFactorji);
+      setNewWeights(weightskj, errorDerivskj, learningFactorkj);
+      
+      return;
+   }
+   
+   /*
+    * Finds the derivatives of the error with respect to the weights, summed over 
+    * a mini-batch, into errorDerivsji and errorDerivskj without changing the 
+    * weights (see backwardBatch()).
+    * 
+    * @param numCases   number of test cases in the batch
+    */
+   public void findBatchDerivs(int numCases)
+   {
+      for (int ni = 0; ni < numCases * NUM_OUTPUTS; ni++)
+      {
+         batchPsi_i[ni] = (batchTargets[ni] - batchOutputs[ni]) * 
+                          functionDeriv(batchOutputs[ni]);
+      }
+      
+      MatrixOps.multiplyTransposeB(batchPsi_i, weightsji, batchPsi_j, 
+                                   numCases, NUM_HIDDEN, NUM_OUTPUTS);   // omega_j
+      
+      for (int nj = 0; nj < numCases * NUM_HIDDEN; nj++)
+      {
+         batchPsi_j[nj] *= functionDeriv(batchHidden[nj]);
+      }
+      
+      MatrixOps.multiplyTransposeA(batchHidden, batchPsi_i, errorDerivsji, 
+                                   NUM_HIDDEN, NUM_OUTPUTS, numCases, -1.0);
+      MatrixOps.multiplyTransposeA(batchInputs, batchPsi_j, errorDerivskj, 
+                                   NUM_INPUTS, NUM_HIDDEN, numCases, -1.0);
+      
+      return;
+   } // public void findBatchDerivs(int numCases)
+   
+   /*
+    * Returns the error summed over the test cases of a mini-batch, found the same 
+    * way as findError() for each of them.
+    * 
+    * @param numCases   number of test cases in the batch
+    * 
+    * @return           the total error of the batch
+    */
+   public double findBatchError(int numCases)
+   {
+      double error = 0;
+      
+      for (int ni = 0; ni < numCases * NUM_OUTPUTS; ni++)
+      {
+         double difference = batchTargets[ni] - batchOutputs[ni];
+         error += (1.0 / 2.0) * difference * difference;
+      }
+      
+      return error;
+   }
    
    
    /*
@@ -558,11 +1306,14 @@ public class NeuralNets
    /*
     * This method randomizes weights if the program is training.
     * If the programming is running, this method sets weights to 
-    * weights given by file  with the name weightsFile if running.
+    * weights given by file  with the name weightsFile if running. If the 
+    * binary weights file binaryWeightsFile (see WeightsFile) exists, the 
+    * weights are read from it instead, which is much faster.
     */
    public void setWeights() throws IOException
    {
       String weightsFile = "weights.in";
+      String binaryWeightsFile = "weights.in.bin";
       
       /*
        * If user types 1, set weights to random weights
@@ -577,6 +1328,10 @@ public class NeuralNets
        * If user types anything else, set weights to saved 
        * weights from file with name weightsFile
        */
+      else if (new File(binaryWeightsFile).exists())
+      {
+         WeightsFile.read(binaryWeightsFile, weightskj, weightsji);
+      }
       else                  
       {
          BufferedReader f1 = new BufferedReader(new FileReader(weightsFile));
@@ -641,6 +1396,48 @@ public class NeuralNets
       return;
    }
    
+   /*
+    * This method loads a whole training or input set into a DataSet, so that 
+    * its samples can be used over and over without reading the file again. If 
+    * the binary set file binaryFile (see DataSetFormat) exists, it is memory 
+    * mapped; otherwise the text file textFile is parsed once. The set must have 
+    * NUM_INPUTS inputs and outputDim outputs per sample.
+    * 
+    * @param textFile     name of the set file in the text format
+    * @param binaryFile   name of the set file in the binary format
+    * @param outputDim    number of outputs per sample (0 for an input set)
+    * 
+    * @return             the loaded set
+    */
+   public DataSet loadSet(String textFile, String binaryFile, int outputDim) 
+                          throws IOException
+   {
+      DataSet set;
+      String fileName;
+      
+      if (new File(binaryFile).exists())
+      {
+         fileName = binaryFile;
+         set = DataSet.mapBinary(binaryFile);
+      }
+      else
+      {
+         fileName = textFile;
+         set = DataSet.readText(textFile, outputDim);
+      }
+      
+      if (set.getCount() > 0 && 
+          (set.getInputDim() != NUM_INPUTS || set.getOutputDim() != outputDim))
+      {
+         throw new IOException(fileName + " has " + set.getInputDim() + 
+                               " inputs and " + set.getOutputDim() + 
+                               " outputs per sample, expected " + NUM_INPUTS + 
+                               " and " + outputDim);
+      }
+      
+      return set;
+   }
+   
    /*
     * This method sets the inputs in the current test case to the
     * program's inputs array in order that the program can be run
@@ -719,6 +1516,12 @@ public class NeuralNets
     * The method also prints outputs to a file -- this is most useful 
     * for when the neural network is being run with inputs.
     * 
+    * The weights are written both as text to weightFile and in the binary 
+    * format to binaryWeightFile (see WeightsFile); rename the latter to 
+    * "weights.in.bin" to run with the weights without parsing them. When 
+    * running with -mapped, the weights were never read into weightskj and 
+    * weightsji, so neither file is written.
+    * 
     * @param totalError   if training, total error of the program;
     *                     else, total error = INITIAL_ERROR, but totalError 
     *                           will not be printed in this case
@@ -727,32 +1530,14 @@ public class NeuralNets
    {
       String outputFile = "outputs.out";
       String weightFile = "weights.out";
+      String binaryWeightFile = "weights.out.bin";
       
-      PrintWriter outWeights = new PrintWriter(new BufferedWriter(new 
-                                        FileWriter(weightFile)));
-      
-      outWeights.printf("k-j weights: \n");   //print k-j weights
-      
-      for (int kj = 0; kj < numElementskj; kj++)
+      if (!useMapped)                          //mapped weights were never read in
       {
-         outWeights.printf("%.10f ",weightskj[kj]);
+         WeightsFile.writeText(weightFile, weightskj, weightsji);
+         WeightsFile.write(binaryWeightFile, weightskj, weightsji);
       }
       
-      outWeights.print("\n");
-      
-      
-      
-      outWeights.printf("j-i weights: ");     //print j-i weights  
-      
-      for (int ji = 0; ji < numElementsji; ji++)
-      {
-         outWeights.printf("%.10f ", weightsji[ji]);
-      }
-      
-      outWeights.print("\n");
-      
-      outWeights.close();
-      
       
       /*
        * Print reason for program stopping
@@ -801,30 +1586,94 @@ public class NeuralNets
     * sets of inputs and prints out the outputs for each set. Each subsequent line 
     * of the input file after the first represents a set of inputs.
     * 
+    * If there is a binary input set binaryInputFile (see DataSetFormat), the 
+    * inputs are read from it instead (see loadSet).
+    * 
+    * The glyphs are run INFERENCE_BATCH_SIZE at a time (see findOutputs()). 
+    * With useMapped, they are run one at a time by a MappedModel of 
+    * binaryWeightsFile instead, and the weights are never read into weightskj 
+    * and weightsji.
+    * 
     * This method is called when the program is running, not training.
     */
    public void runWithInputs() throws IOException
    {
       String inputFile = "OCR_inputset.in";
+      String binaryInputFile = "OCR_inputset.bin";
+      String binaryWeightsFile = "weights.in.bin";
       
-      setWeights();
+      MappedModel mapped = null;
+      
+      if (useMapped)
+      {
+         mapped = MappedModel.open(binaryWeightsFile, fastSigmoid);
+      }
+      else
+      {
+         setWeights();
+      }
+      
+      DataSet inputSet = loadSet(inputFile, binaryInputFile, 0);
       
-      BufferedReader f3 = new BufferedReader(new FileReader(inputFile));
+      int numInputs = inputSet.getCount();
       
-      int numInputs = Integer.parseInt(f3.readLine());
+      QuantizedModel quantized = null;
+      byte[] glyph = null;
+      double[] inputRows = null;
+      double[] outputRows = null;
+      
+      if (floatNet != null)
+      {
+         floatNet.copyFrom(this);
+      }
+      else if (useInt8)
+      {
+         quantized = new QuantizedModel(weightskj, weightsji);
+         glyph = new byte[NUM_INPUTS];
+      }
+      else if (mapped == null)
+      {
+         inputRows = new double[INFERENCE_BATCH_SIZE * NUM_INPUTS];
+         outputRows = new double[INFERENCE_BATCH_SIZE * NUM_OUTPUTS];
+      }
       
       for (int inCount = 0; inCount < numInputs; inCount++)
       {
-         StringTokenizer st5 = new StringTokenizer(f3.readLine());
-         
-         for (int k = 0; k < NUM_INPUTS; k++)
+         if (floatNet != null)
          {
-            inputs[k] = (double)Integer.parseInt(st5.nextToken(), 16);
+            floatNet.setInputs(inputSet, inCount);
+            floatNet.forward();
+            floatNet.getOutputs(outputs);
          }
-        
-         
-         
-         outputs = findOutput(); // finds output of inputs
+         else if (mapped != null)
+         {
+            inputSet.getInputs(inCount, inputs);
+            mapped.findOutput(inputs, outputs);
+         }
+         else if (quantized != null)
+         {
+            inputSet.getInputs(inCount, glyph);
+            quantized.findOutput(glyph, outputs);
+         }
+         else
+         {
+            int row = inCount % INFERENCE_BATCH_SIZE;
+            
+            if (row == 0)        // the next INFERENCE_BATCH_SIZE glyphs
+            {
+               int numCases = Math.min(INFERENCE_BATCH_SIZE, numInputs - inCount);
+               
+               for (int n = 0; n < numCases; n++)
+               {
+                  inputSet.getInputs(inCount + n, inputs);
+                  System.arraycopy(inputs, 0, inputRows, n * NUM_INPUTS, NUM_INPUTS);
+               }
+               
+               findOutputs(inputRows, outputRows, numCases);
+            }
+            
+            System.arraycopy(outputRows, row * NUM_OUTPUTS, outputs, 0, NUM_OUTPUTS);
+         } // else
          
          /*
           * Prints outputs to the command window
@@ -868,29 +1717,40 @@ public class NeuralNets
     * Therefore, to get to the desired weight in the weight array,
     * the index must be (k * NUM_HIDDEN + j) for kj weights.
     * 
+    * The hidden sums go in theta_j and the outputs in outputs, the arrays 
+    * forward() uses, so nothing is allocated per glyph; the array returned is 
+    * outputs itself, which the next call (or forward()) writes over.
+    * 
     * @return       array of outputs
     */
    public double[] findOutput() 
    {
-      double[] outputs = new double[NUM_OUTPUTS];
-      
-      int indkj = 0;                  // index of weightskj array
+      double[] propagationj = theta_j;  // result of propagation rule for j-layer
       
       /*
-       * Finding the values of the hidden nodes
+       * Finding the values of the hidden nodes, with k outside so that the
+       * k-j weights are read in the order they are stored, and only for the 
+       * inputs that are not 0 (see forward())
        */
+      findActiveInputs();
+      
       for (int j = 0; j < NUM_HIDDEN; j++)
       {
-         double propagationj = 0.0;   // result of propagation rule for j-layer
-         
-         for (int k = 0; k < NUM_INPUTS; k++)
-         {
-            indkj = k * NUM_HIDDEN + j;
-            propagationj += weightskj[indkj] * inputs[k];
-         }
+         propagationj[j] = 0.0;
+      }
+      
+      for (int active = 0; active < numActive; active++)
+      {
+         int k = activeInputs[active];
+         int indkj = k * NUM_HIDDEN;  // index of wk0 in weightskj array
          
-         hidden[j] = activationFunction(propagationj);
-      }                               // for (int j = 0; j<NUM_HIDDEN; j++)
+         kernels.axpy(inputs[k], weightskj, indkj, propagationj, 0, NUM_HIDDEN);
+      }
+      
+      for (int j = 0; j < NUM_HIDDEN; j++)
+      {
+         hidden[j] = activationFunction(propagationj[j]);
+      }
             
        
      
@@ -919,7 +1779,9 @@ public class NeuralNets
    
    /*
     * Returns the result of the activation function given the propagation 
-    * value, in this case the sigmoid function.
+    * value, in this case the sigmoid function. If fastSigmoid is set, the 
+    * sigmoid is looked up in the table of FastSigmoid, to within 
+    * FastSigmoid.MAX_ERROR, instead of being found with Math.exp.
     * 
     * @param propagation     propagation value
     * 
@@ -927,6 +1789,11 @@ public class NeuralNets
     */
    public double activationFunction(double propagation)
    {
+      if (fastSigmoid)
+      {
+         return FastSigmoid.sigmoid(propagation);
+      }
+      
       return 1.0 / (1.0 + Math.exp(-propagation));
    }
    
@@ -0,0 +1,264 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class ParallelTrainer, which trains a NeuralNets network on
+ * mini-batches spread over a pool of threads (data parallel training).
+ *
+ * Methods in this file:
+ *  public ParallelTrainer(NeuralNets net, int numThreads)
+ *  public double trainBatch(DataSet tests, int first, int numCases)
+ *  public void close()
+ *  void findShardDerivs(int worker, DataSet tests)
+ *  void applyDerivs(int slice)
+ *  void runAll(List<Callable<Void>> tasks)
+ */
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Each mini-batch is split into numThreads shards of consecutive test cases, one per
+ * worker. A worker is a NeuralNets of its own that shares the weight arrays of net but
+ * has its own batch arrays and its own errorDerivskj and errorDerivsji, so the workers
+ * find the derivatives for their shards (forwardBatch and findBatchDerivs) at the same
+ * time without touching anything another worker writes.
+ *
+ * Once every worker is done, the derivatives are added together and the weights are
+ * changed. The k-j weights are split into numThreads slices and each thread adds up
+ * one slice, always in worker order (worker 0 + worker 1 + ...), so the sums -- and so
+ * the weights after every batch -- are the same from one run to the next no matter how
+ * the threads happen to be scheduled. (A different number of threads splits the batch
+ * differently, so the last bits of the sums can differ between thread counts.)
+ *
+ * The weights are only changed while no worker is reading them, since all the shards
+ * finish before any slice is changed and all the slices finish before trainBatch
+ * returns.
+ */
+public class ParallelTrainer
+{
+   final NeuralNets net;
+   final int numThreads;
+   final NeuralNets[] workers;
+   final int[] shardFirst, shardCases;
+   final double[] shardErrors;
+   final ExecutorService pool;
+
+   /*
+    * Creates the workers and the pool of threads.
+    *
+    * @param net          the network to train; its batchSize is the size of a batch
+    * @param numThreads   number of threads (and workers)
+    */
+   public ParallelTrainer(NeuralNets net, int numThreads)
+   {
+      this.net = net;
+      this.numThreads = numThreads;
+      this.workers = new NeuralNets[numThreads];
+      this.shardFirst = new int[numThreads];
+      this.shardCases = new int[numThreads];
+      this.shardErrors = new double[numThreads];
+
+      int maxShard = (net.batchSize + numThreads - 1) / numThreads;
+
+      for (int worker = 0; worker < numThreads; worker++)
+      {
+         workers[worker] = new NeuralNets(net.shouldTrain, net.weightskj,
+                                          net.weightsji);   // shared, only read
+         workers[worker].errorDerivskj = new double[net.numElementskj];
+         workers[worker].errorDerivsji = new double[net.numElementsji];
+         workers[worker].fastSigmoid = net.fastSigmoid;
+         workers[worker].batchSize = maxShard;
+         workers[worker].allocateBatch();
+      }
+
+      this.pool = Executors.newFixedThreadPool(numThreads);
+   }
+
+   /*
+    * Trains on one mini-batch: finds the derivatives of each shard on its own thread,
+    * then adds them up in worker order and changes the weights of net once, with the
+    * learning factors net has now. The outputs of the last test case are left in
+    * net.outputs.
+    *
+    * @param tests      the test cases
+    * @param first      index of the first test case in the batch
+    * @param numCases   number of test cases in the batch, at most net.batchSize
+    *
+    * @return           the error summed over the batch
+    */
+   public double trainBatch(final DataSet tests, int first, int numCases)
+   {
+      List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+      double error = 0.0;
+      int lastWorker = 0;
+
+      for (int worker = 0; worker < numThreads; worker++)
+      {
+         /*
+          * Consecutive shards, with sizes that differ by at most one
+          */
+         shardFirst[worker] = first + numCases * worker / numThreads;
+         shardCases[worker] = first + numCases * (worker + 1) / numThreads -
+                              shardFirst[worker];
+
+         if (shardCases[worker] > 0)
+         {
+            lastWorker = worker;
+         }
+
+         final int thisWorker = worker;
+
+         tasks.add(new Callable<Void>()
+         {
+            public Void call()
+            {
+               findShardDerivs(thisWorker, tests);
+               return null;
+            }
+         });
+      } // for (int worker = 0; worker < numThreads; worker++)
+
+      runAll(tasks);
+      tasks.clear();
+
+      for (int slice = 0; slice < numThreads; slice++)
+      {
+         final int thisSlice = slice;
+
+         tasks.add(new Callable<Void>()
+         {
+            public Void call()
+            {
+               applyDerivs(thisSlice);
+               return null;
+            }
+         });
+      }
+
+      runAll(tasks);
+
+      for (int worker = 0; worker < numThreads; worker++)
+      {
+         error += shardErrors[worker];
+      }
+
+      System.arraycopy(workers[lastWorker].outputs, 0, net.outputs, 0,
+                       NeuralNets.NUM_OUTPUTS);
+
+      return error;
+   } // public double trainBatch(DataSet tests, int first, int numCases)
+
+   /*
+    * Shuts the pool of threads down.
+    */
+   public void close()
+   {
+      pool.shutdown();
+
+      return;
+   }
+
+   /*
+    * Runs the forward loop on one worker's shard and finds its derivatives. A worker
+    * with no test cases (a batch smaller than numThreads) leaves its derivatives at 0.
+    *
+    * @param worker   index of the worker
+    * @param tests    the test cases
+    */
+   void findShardDerivs(int worker, DataSet tests)
+   {
+      NeuralNets shard = workers[worker];
+
+      if (shardCases[worker] == 0)
+      {
+         Arrays.fill(shard.errorDerivskj, 0.0);
+         Arrays.fill(shard.errorDerivsji, 0.0);
+         shardErrors[worker] = 0.0;
+
+         return;
+      }
+
+      shard.forwardBatch(tests, shardFirst[worker], shardCases[worker]);
+      shardErrors[worker] = shard.findBatchError(shardCases[worker]);
+      shard.findBatchDerivs(shardCases[worker]);
+
+      return;
+   }
+
+   /*
+    * Adds up the derivatives of every worker for one slice of the k-j weights, in
+    * worker order, and changes that slice of the weights. Slice 0 also does the j-i
+    * weights.
+    *
+    * @param slice   index of the slice, from 0 to numThreads - 1
+    */
+   void applyDerivs(int slice)
+   {
+      int numElementskj = net.numElementskj;
+      int start = (int)((long)numElementskj * slice / numThreads);
+      int end = (int)((long)numElementskj * (slice + 1) / numThreads);
+      double learningFactorkj = net.learningFactorkj;
+
+      for (int kj = start; kj < end; kj++)
+      {
+         double deriv = 0.0;
+
+         for (int worker = 0; worker < numThreads; worker++)
+         {
+            deriv += workers[worker].errorDerivskj[kj];
+         }
+
+         net.weightskj[kj] += -learningFactorkj * deriv;
+      }
+
+      if (slice == 0)
+      {
+         for (int ji = 0; ji < net.numElementsji; ji++)
+         {
+            double deriv = 0.0;
+
+            for (int worker = 0; worker < numThreads; worker++)
+            {
+               deriv += workers[worker].errorDerivsji[ji];
+            }
+
+            net.weightsji[ji] += -net.learningFactorji * deriv;
+         }
+      } // if (slice == 0)
+
+      return;
+   } // void applyDerivs(int slice)
+
+   /*
+    * Runs the tasks on the pool and waits for all of them. If one of them fails, the
+    * failure is thrown again here.
+    *
+    * @param tasks   the tasks to run
+    */
+   void runAll(List<Callable<Void>> tasks)
+   {
+      try
+      {
+         for (Future<Void> done : pool.invokeAll(tasks))
+         {
+            done.get();
+         }
+      }
+
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Training interrupted", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Training worker failed", e.getCause());
+      }
+
+      return;
+   } // void runAll(List<Callable<Void>> tasks)
+
+}  // public class ParallelTrainer
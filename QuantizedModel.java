@@ -0,0 +1,258 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class QuantizedModel, a trained NeuralNets network with its
+ * k-j weights rounded to 8 bit integers, which runs the network on 8 bit grayscale
+ * inputs with integer multiplies and sums.
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public QuantizedModel(double[] weightskj, double[] weightsji)
+ *  public void findOutput(byte[] glyph, double[] result)
+ *  public double getScale(int j)
+ *  public static int classify(double output)
+ */
+
+import java.io.*;
+
+/*
+ * The inputs are the unsigned 8 bit pels BitmapDump writes (see DataSet), so only the
+ * weights have to be rounded. Each hidden node j gets its own scale,
+ *
+ *    scale_j = (largest |wkj| over k) / MAX_QUANT
+ *
+ * and each k-j weight is stored as the byte round(wkj / scale_j), from -MAX_QUANT to
+ * MAX_QUANT, in the same order as NeuralNets.weightskj (k * NUM_HIDDEN + j). The sum
+ * for hidden node j is then
+ *
+ *    theta_j = scale_j * (sum over k of qkj * input_k)
+ *
+ * where the sum is taken in ints: each product is at most 127 * 255, and NUM_INPUTS
+ * of them are at most about 330 million, which fits in an int. The k-j weights take
+ * 1 MB instead of 8 MB, and as in NeuralNets only the inputs that are not 0 are run
+ * through the k loop. The j-i weights are few and are kept as doubles, and the
+ * sigmoids are found in double.
+ *
+ * Rounding moves each hidden sum by at most half a step of scale_j per input, so the
+ * outputs move a little; what matters is that they still fall on the same side of
+ * LOW_OUTPUT and HIGH_OUTPUT (see classify()). To compare the quantized outputs with
+ * NeuralNets for a weights file ("weights.out" if none is given, in the format
+ * printResults writes, or a file in the "weights.in" format) and the input set:
+ *
+ *    java QuantizedModel [weights file]
+ */
+public class QuantizedModel
+{
+   public static final int MAX_QUANT = 127;                  // largest byte weight
+   public static final double LOW_OUTPUT = 0.25;             // below this an output is 0
+   public static final double HIGH_OUTPUT = 0.75;            // above this it is 1
+   public static final int UNFAMILIAR = -1;                  // in between
+   public static final String DEFAULT_WEIGHTS_FILE = "weights.out";
+
+   final byte[] weightskj;
+   final double[] scalesj, weightsji;
+   final int[] sumsj, activeInputs;
+   final double[] hidden;
+
+   /*
+    * Reads the weights, runs NeuralNets and QuantizedModel over the input set and
+    * prints how far apart the outputs are and for how many glyphs the outputs are
+    * classified differently.
+    */
+   public static void main(String[] args) throws IOException
+   {
+      String weightsFile = DEFAULT_WEIGHTS_FILE;
+
+      if (args.length > 0)
+      {
+         weightsFile = args[0];
+      }
+
+      NeuralNets net = new NeuralNets(0);
+
+      Model.readWeightFile(weightsFile, net.weightskj, net.weightsji);
+
+      QuantizedModel model = new QuantizedModel(net.weightskj, net.weightsji);
+      DataSet inputSet = net.loadSet("OCR_inputset.in", "OCR_inputset.bin", 0);
+      byte[] glyph = new byte[NeuralNets.NUM_INPUTS];
+      double[] quantizedOutputs = new double[NeuralNets.NUM_OUTPUTS];
+      double maxDifference = 0.0;
+      int numDifferent = 0;
+
+      for (int inCount = 0; inCount < inputSet.getCount(); inCount++)
+      {
+         inputSet.getInputs(inCount, net.inputs);
+         inputSet.getInputs(inCount, glyph);
+
+         double[] outputs = net.findOutput();
+
+         model.findOutput(glyph, quantizedOutputs);
+
+         boolean sameClass = true;
+
+         for (int i = 0; i < NeuralNets.NUM_OUTPUTS; i++)
+         {
+            maxDifference = Math.max(maxDifference,
+                                     Math.abs(outputs[i] - quantizedOutputs[i]));
+
+            if (classify(outputs[i]) != classify(quantizedOutputs[i]))
+            {
+               sameClass = false;
+            }
+         }
+
+         if (!sameClass)
+         {
+            numDifferent++;
+         }
+      } // for (int inCount = 0; inCount < inputSet.getCount(); inCount++)
+
+      System.out.printf("%d glyphs: largest output difference %g, " +
+                        "%d glyphs classified differently\n",
+                        inputSet.getCount(), maxDifference, numDifferent);
+
+      return;
+   } // public static void main(String[] args)
+
+   /*
+    * Quantizes the weights of a trained network, finding the scale of each hidden
+    * node from its k-j weights.
+    *
+    * @param weightskj   the k-j weights, NUM_INPUTS * NUM_HIDDEN of them
+    * @param weightsji   the j-i weights, NUM_HIDDEN * NUM_OUTPUTS of them
+    */
+   public QuantizedModel(double[] weightskj, double[] weightsji)
+   {
+      int numHidden = NeuralNets.NUM_HIDDEN;
+
+      this.weightskj = new byte[NeuralNets.NUM_INPUTS * numHidden];
+      this.scalesj = new double[numHidden];
+      this.weightsji = weightsji.clone();
+      this.sumsj = new int[numHidden];
+      this.activeInputs = new int[NeuralNets.NUM_INPUTS];
+      this.hidden = new double[numHidden];
+
+      double[] maxWeights = new double[numHidden];
+
+      for (int k = 0; k < NeuralNets.NUM_INPUTS; k++)
+      {
+         for (int j = 0; j < numHidden; j++)
+         {
+            maxWeights[j] = Math.max(maxWeights[j],
+                                     Math.abs(weightskj[k * numHidden + j]));
+         }
+      }
+
+      for (int j = 0; j < numHidden; j++)
+      {
+         if (maxWeights[j] > 0.0)
+         {
+            scalesj[j] = maxWeights[j] / MAX_QUANT;
+         }
+         else
+         {
+            scalesj[j] = 1.0;    // all of node j's weights are 0
+         }
+      }
+
+      for (int k = 0; k < NeuralNets.NUM_INPUTS; k++)
+      {
+         for (int j = 0; j < numHidden; j++)
+         {
+            long quantized = Math.round(weightskj[k * numHidden + j] / scalesj[j]);
+
+            quantized = Math.max(-MAX_QUANT, Math.min(MAX_QUANT, quantized));
+            this.weightskj[k * numHidden + j] = (byte)quantized;
+         }
+      }
+   } // public QuantizedModel(double[] weightskj, double[] weightsji)
+
+   /*
+    * Runs the network on one glyph.
+    *
+    * @param glyph    the NUM_INPUTS unsigned 8 bit inputs
+    * @param result   array for the NUM_OUTPUTS outputs
+    */
+   public void findOutput(byte[] glyph, double[] result)
+   {
+      int numHidden = NeuralNets.NUM_HIDDEN;
+      int numActive = 0;
+
+      for (int k = 0; k < NeuralNets.NUM_INPUTS; k++)
+      {
+         if (glyph[k] != 0)
+         {
+            activeInputs[numActive++] = k;
+         }
+      }
+
+      for (int j = 0; j < numHidden; j++)
+      {
+         sumsj[j] = 0;
+      }
+
+      for (int active = 0; active < numActive; active++)
+      {
+         int k = activeInputs[active];
+         int indkj = k * numHidden;
+         int input = glyph[k] & DataSetFormat.MAX_INPUT;
+
+         for (int j = 0; j < numHidden; j++)
+         {
+            sumsj[j] += weightskj[indkj + j] * input;
+         }
+      }
+
+      for (int j = 0; j < numHidden; j++)
+      {
+         hidden[j] = 1.0 / (1.0 + Math.exp(-scalesj[j] * sumsj[j]));
+      }
+
+      for (int i = 0; i < NeuralNets.NUM_OUTPUTS; i++)
+      {
+         double propagationi = 0.0;
+
+         for (int j = 0; j < numHidden; j++)
+         {
+            propagationi += weightsji[j * NeuralNets.NUM_OUTPUTS + i] * hidden[j];
+         }
+
+         result[i] = 1.0 / (1.0 + Math.exp(-propagationi));
+      }
+
+      return;
+   } // public void findOutput(byte[] glyph, double[] result)
+
+   /*
+    * Returns the scale of the k-j weights of hidden node j.
+    */
+   public double getScale(int j)
+   {
+      return scalesj[j];
+   }
+
+   /*
+    * Returns 0 for an output below LOW_OUTPUT, 1 for one above HIGH_OUTPUT, and
+    * UNFAMILIAR for one in between.
+    *
+    * @param output   one output of the network
+    *
+    * @return         the class of the output
+    */
+   public static int classify(double output)
+   {
+      if (output < LOW_OUTPUT)
+      {
+         return 0;
+      }
+      else if (output > HIGH_OUTPUT)
+      {
+         return 1;
+      }
+
+      return UNFAMILIAR;
+   }
+
+}  // public class QuantizedModel
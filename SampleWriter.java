@@ -0,0 +1,27 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the interface SampleWriter, through which BitmapPipeline writes
+ * out the bitmaps it converts.
+ *
+ * Methods in this file:
+ *  void write(BitmapImage image, String target)
+ */
+
+import java.io.*;
+
+/*
+ * Something BitmapPipeline can write the converted bitmaps to, one sample at a time.
+ */
+public interface SampleWriter
+{
+   /*
+    * Writes one sample.
+    *
+    * @param image    the centered image, whose pels are the inputs
+    * @param target   line of expected outputs, or null for an input set
+    */
+   void write(BitmapImage image, String target) throws IOException;
+}
@@ -0,0 +1,590 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class WeightsFile, which reads and writes the weights of a
+ * NeuralNets network in a binary format, and converts weights between the binary
+ * format and the text format of "weights.in" and "weights.out".
+ *
+ * Methods in this file:
+ *  public static void main(String[] args)
+ *  public static void write(String fileName, double[] weightskj, double[] weightsji)
+ *  static void write(FileChannel channel, long start, double[] weightskj,
+ *                    double[] weightsji)
+ *  public static void read(String fileName, double[] weightskj, double[] weightsji)
+ *  public static void writeText(String fileName, double[] weightskj,
+ *                               double[] weightsji)
+ *  static int appendFixed(byte[] text, int position, double value)
+ *  static int appendLong(byte[] text, int position, long number)
+ *  static int appendString(byte[] text, int position, String string)
+ *  static FileChannel openForWriting(String fileName)
+ *  static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+ *  static ByteBuffer mapWeights(FileChannel channel, String fileName, long start,
+ *                               int numWeights)
+ *  static boolean isBinaryFile(String fileName)
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.*;
+
+/*
+ * The binary weights format is little endian, like the binary set format (see
+ * DataSetFormat), and is laid out as a header followed by the weights:
+ *
+ *    int      MAGIC          "OCRW"
+ *    int      VERSION
+ *    int      numInputs      NUM_INPUTS of the network
+ *    int      numHidden      NUM_HIDDEN
+ *    int      numOutputs     NUM_OUTPUTS
+ *    int      dtype          type of the weights, DTYPE_DOUBLE
+ *    int      checksum       CRC-32 of the bytes of the weights
+ *    int      0              so the weights start on a multiple of 8 bytes
+ *
+ *    double   weightskj[numInputs * numHidden]    in the order of NeuralNets.weightskj
+ *    double   weightsji[numHidden * numOutputs]   in the order of NeuralNets.weightsji
+ *
+ * The text format spends about 13 characters on each of the million or so weights
+ * and reads them back with a call to Double.parseDouble each, all from one line read
+ * into a single String. A binary file is mapped and its weights are copied straight
+ * into the weight arrays, to the bit, with no parsing. The layer sizes in the header
+ * are checked against the network's, and the checksum catches a file that was cut
+ * short or changed.
+ *
+ * The text format can still be written and converted to and from the binary format:
+ *
+ *    java WeightsFile -import <text weights file> <binary weights file>
+ *    java WeightsFile -export <binary weights file> <text weights file>
+ *
+ * The text file imported may be in the "weights.in" format or in the format
+ * printResults writes ("weights.out"); the text file exported is in the latter.
+ */
+public class WeightsFile
+{
+   public static final int MAGIC = 0x5752434F;            // "OCRW" in little endian
+   public static final int VERSION = 1;
+   public static final int HEADER_BYTES = 8 * 4;          // eight ints
+   public static final int DTYPE_DOUBLE = 1;              // 8 byte IEEE doubles
+   public static final int DOUBLE_BYTES = 8;
+   public static final int WRITE_BUFFER_BYTES = 1 << 16;
+   public static final int TEXT_DECIMALS = 10;            // "%.10f"
+   public static final long TEN_TO_DECIMALS = 10000000000L;
+   public static final double MAX_FAST_VALUE = 1e8;       // * 10^10 fits in a long
+   public static final long NEAR_HALF = TEN_TO_DECIMALS;  // one ulp, see appendFixed
+   public static final int MAX_TEXT_BYTES = 400;          // longest weight, with ' '
+   public static final boolean FAST_TEXT =                // see appendFixed
+                  String.format("%.10f", -12345.06789).equals("-12345.0678900000");
+
+   public static final String BINARY_EXTENSION = ".bin";
+   public static final String IMPORT_FLAG = "-import";
+   public static final String EXPORT_FLAG = "-export";
+
+   /*
+    * Converts weights from text to binary (-import) or from binary to text (-export).
+    */
+   public static void main(String[] args) throws IOException
+   {
+      double[] weightskj = new double[NeuralNets.NUM_INPUTS * NeuralNets.NUM_HIDDEN];
+      double[] weightsji = new double[NeuralNets.NUM_HIDDEN * NeuralNets.NUM_OUTPUTS];
+
+      if (args.length >= 3 && args[0].equals(IMPORT_FLAG))
+      {
+         Model.readWeightFile(args[1], weightskj, weightsji);
+         write(args[2], weightskj, weightsji);
+      }
+      else if (args.length >= 3 && args[0].equals(EXPORT_FLAG))
+      {
+         read(args[1], weightskj, weightsji);
+         writeText(args[2], weightskj, weightsji);
+      }
+      else
+      {
+         System.err.println("Usage: java WeightsFile " + IMPORT_FLAG +
+                            " <text weights file> <binary weights file>");
+         System.err.println("       java WeightsFile " + EXPORT_FLAG +
+                            " <binary weights file> <text weights file>");
+         return;
+      }
+
+      System.out.printf("Converted %d weights from %s to %s\n",
+                        weightskj.length + weightsji.length, args[1], args[2]);
+
+      return;
+   }
+
+   /*
+    * Writes the weights to a binary weights file.
+    *
+    * @param fileName    name of the binary weights file
+    * @param weightskj   the k-j weights, NUM_INPUTS * NUM_HIDDEN of them
+    * @param weightsji   the j-i weights, NUM_HIDDEN * NUM_OUTPUTS of them
+    */
+   public static void write(String fileName, double[] weightskj, double[] weightsji)
+                            throws IOException
+   {
+      FileChannel channel = openForWriting(fileName);
+
+      try
+      {
+         write(channel, 0, weightskj, weightsji);
+      }
+
+      finally
+      {
+         channel.close();
+      }
+
+      return;
+   } // public static void write(String fileName, double[] weightskj, ...)
+
+   /*
+    * Writes the weights in the binary format to a channel, starting at the given place
+    * in the file, so the weights can also follow other data in a file (see
+    * Checkpoint). The weights are copied into one buffer of WRITE_BUFFER_BYTES at a
+    * time and written out from it, and the header, with the checksum of all of them,
+    * is written last.
+    *
+    * @param channel     channel of the open file
+    * @param start       place in the file for the header
+    * @param weightskj   the k-j weights, NUM_INPUTS * NUM_HIDDEN of them
+    * @param weightsji   the j-i weights, NUM_HIDDEN * NUM_OUTPUTS of them
+    */
+   static void write(FileChannel channel, long start, double[] weightskj,
+                     double[] weightsji) throws IOException
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES)
+                                    .order(ByteOrder.LITTLE_ENDIAN);
+      CRC32 checksum = new CRC32();
+      long position = start + HEADER_BYTES;
+
+      for (double[] weights : new double[][] {weightskj, weightsji})
+      {
+         int index = 0;
+
+         while (index < weights.length)
+         {
+            int numDoubles = Math.min(weights.length - index,
+                                      WRITE_BUFFER_BYTES / DOUBLE_BYTES);
+
+            buffer.clear();
+            buffer.asDoubleBuffer().put(weights, index, numDoubles);
+            buffer.limit(numDoubles * DOUBLE_BYTES);
+            checksum.update(buffer.duplicate());
+            writeFully(channel, buffer, position);
+
+            index += numDoubles;
+            position += numDoubles * DOUBLE_BYTES;
+         } // while (index < weights.length)
+      } // for (double[] weights : new double[][] {weightskj, weightsji})
+
+      buffer.clear();
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+      buffer.putInt(NeuralNets.NUM_INPUTS);
+      buffer.putInt(NeuralNets.NUM_HIDDEN);
+      buffer.putInt(NeuralNets.NUM_OUTPUTS);
+      buffer.putInt(DTYPE_DOUBLE);
+      buffer.putInt((int)checksum.getValue());
+      buffer.putInt(0);
+      buffer.flip();
+      writeFully(channel, buffer, start);
+
+      return;
+   } // static void write(FileChannel channel, long start, double[] weightskj, ...)
+
+   /*
+    * Reads a binary weights file into the weight arrays, after checking its header and
+    * its checksum.
+    *
+    * @param fileName    name of the binary weights file
+    * @param weightskj   array for the k-j weights
+    * @param weightsji   array for the j-i weights
+    */
+   public static void read(String fileName, double[] weightskj, double[] weightsji)
+                           throws IOException
+   {
+      FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+
+      try
+      {
+         ByteBuffer weights = mapWeights(channel, fileName, 0,
+                                         weightskj.length + weightsji.length);
+         DoubleBuffer doubles = weights.asDoubleBuffer();
+
+         doubles.get(weightskj);
+         doubles.get(weightsji);
+      }
+
+      finally
+      {
+         channel.close();
+      }
+
+      return;
+   } // public static void read(String fileName, double[] weightskj, ...)
+
+   /*
+    * Writes the weights in the text format printResults writes: "k-j weights: ", a
+    * newline and the k-j weights, then "j-i weights: " and the j-i weights on the next
+    * line, each weight as "%.10f " would print it (see appendFixed()). The characters
+    * are put straight into a buffer of WRITE_BUFFER_BYTES, which is written out
+    * whenever it is nearly full, instead of going through a Formatter per weight.
+    *
+    * @param fileName    name of the text weights file
+    * @param weightskj   the k-j weights
+    * @param weightsji   the j-i weights
+    */
+   public static void writeText(String fileName, double[] weightskj, double[] weightsji)
+                                throws IOException
+   {
+      FileChannel channel = openForWriting(fileName);
+      byte[] text = new byte[WRITE_BUFFER_BYTES];
+      ByteBuffer buffer = ByteBuffer.wrap(text);
+      String[] labels = {"k-j weights: \n", "j-i weights: "};
+      double[][] weightArrays = {weightskj, weightsji};
+
+      try
+      {
+         int length = 0;
+
+         for (int array = 0; array < weightArrays.length; array++)
+         {
+            length = appendString(text, length, labels[array]);
+
+            for (double weight : weightArrays[array])
+            {
+               if (length > WRITE_BUFFER_BYTES - MAX_TEXT_BYTES)
+               {
+                  buffer.clear().limit(length);
+                  writeFully(channel, buffer, -1);
+                  length = 0;
+               }
+
+               length = appendFixed(text, length, weight);
+               text[length++] = ' ';
+            }
+
+            text[length++] = '\n';
+         } // for (int array = 0; array < weightArrays.length; array++)
+
+         buffer.clear().limit(length);
+         writeFully(channel, buffer, -1);
+      } // try
+
+      finally
+      {
+         channel.close();
+      }
+
+      return;
+   } // public static void writeText(String fileName, double[] weightskj, ...)
+
+   /*
+    * Puts value into text at position with TEXT_DECIMALS decimals, exactly as
+    * String.format("%.10f", value) would in the default locale.
+    *
+    * Formatter rounds half up -- not the value itself, but the shortest decimal that
+    * reads back as the value (the digits of Double.toString). The two round to the
+    * same 10 decimals unless the value is within one ulp of a halfway point
+    * d.dddddddddd5, so the value is multiplied by 10^10 exactly, in 128 bits, and
+    * rounded half up; the rare values near a halfway point, the values too large for
+    * a long once multiplied, and NaN and the infinities go through String.format.
+    * String.format is also used for every value if the default locale does not
+    * write numbers with '.' and the digits 0 to 9 (see FAST_TEXT).
+    *
+    * @param text       array for the characters, one byte each
+    * @param position   index in text of the first character
+    * @param value      the number
+    *
+    * @return           index in text after the last character
+    */
+   static int appendFixed(byte[] text, int position, double value)
+   {
+      long bits = Double.doubleToRawLongBits(value);
+      int biasedExponent = (int)((bits >>> 52) & 0x7FF);
+      long mantissa = bits & ((1L << 52) - 1);
+      int shift;                                     // value is mantissa / 2^shift
+
+      if (biasedExponent == 0)
+      {
+         shift = 1074;                               // subnormal
+      }
+      else
+      {
+         mantissa |= 1L << 52;
+         shift = 1075 - biasedExponent;
+      }
+
+      if (!FAST_TEXT || Math.abs(value) >= MAX_FAST_VALUE || Double.isNaN(value))
+      {
+         return appendString(text, position, String.format("%.10f", value));
+      }
+
+      /*
+       * The product mantissa * 10^10, at most 2^53 * 2^34, as two longs
+       */
+      long productHigh = Math.multiplyHigh(mantissa, TEN_TO_DECIMALS);
+      long productLow = mantissa * TEN_TO_DECIMALS;
+      long scaled;                                   // floor(|value| * 10^10)
+      int compareHalf;                               // remainder vs 1/2, -1, 0 or 1
+
+      if (shift >= 128)
+      {
+         scaled = 0;
+         compareHalf = -1;
+      }
+      else if (shift > 64)
+      {
+         int highShift = shift - 64;                 // from 1 to 63
+         long remainderHigh = productHigh & ((1L << highShift) - 1);
+         long halfHigh = 1L << (highShift - 1);
+
+         scaled = productHigh >>> highShift;
+
+         if (remainderHigh == halfHigh)              // remainder - half = productLow
+         {
+            compareHalf = Long.compareUnsigned(productLow, NEAR_HALF) <= 0 ? 0 : 1;
+         }
+         else if (remainderHigh == halfHigh - 1)     // half - remainder = -productLow
+         {
+            compareHalf = (productLow != 0 &&
+                           Long.compareUnsigned(-productLow, NEAR_HALF) <= 0) ? 0 : -1;
+         }
+         else
+         {
+            compareHalf = remainderHigh > halfHigh ? 1 : -1;
+         }
+      } // else if (shift > 64)
+      else
+      {
+         long remainder = (shift == 64) ? productLow :
+                                          productLow & ((1L << shift) - 1);
+         long fromHalf = remainder - (1L << (shift - 1));
+
+         scaled = (shift == 64) ? productHigh :
+                                  (productHigh << (64 - shift)) | (productLow >>> shift);
+
+         if (Math.abs(fromHalf) <= NEAR_HALF)
+         {
+            compareHalf = 0;
+         }
+         else
+         {
+            compareHalf = fromHalf > 0 ? 1 : -1;
+         }
+      } // else
+
+      if (compareHalf == 0)
+      {
+         return appendString(text, position, String.format("%.10f", value));
+      }
+
+      if (compareHalf > 0)
+      {
+         scaled++;
+      }
+
+      if (bits < 0)                                  // Formatter keeps the sign of -0
+      {
+         text[position++] = '-';
+      }
+
+      position = appendLong(text, position, scaled / TEN_TO_DECIMALS);
+      text[position++] = '.';
+
+      long decimals = scaled % TEN_TO_DECIMALS;
+
+      for (int digit = position + TEXT_DECIMALS - 1; digit >= position; digit--)
+      {
+         text[digit] = (byte)('0' + decimals % 10);
+         decimals /= 10;
+      }
+
+      return position + TEXT_DECIMALS;
+   } // static int appendFixed(byte[] text, int position, double value)
+
+   /*
+    * Puts the decimal digits of a number that is not negative into text.
+    *
+    * @param text       array for the characters
+    * @param position   index in text of the first character
+    * @param number     the number, 0 or more
+    *
+    * @return           index in text after the last character
+    */
+   static int appendLong(byte[] text, int position, long number)
+   {
+      int numDigits = 1;
+
+      for (long rest = number / 10; rest > 0; rest /= 10)
+      {
+         numDigits++;
+      }
+
+      for (int digit = position + numDigits - 1; digit >= position; digit--)
+      {
+         text[digit] = (byte)('0' + number % 10);
+         number /= 10;
+      }
+
+      return position + numDigits;
+   }
+
+   /*
+    * Puts the characters of a string into text, one byte each; they must all be
+    * ASCII.
+    *
+    * @param text       array for the characters
+    * @param position   index in text of the first character
+    * @param string     the string
+    *
+    * @return           index in text after the last character
+    */
+   static int appendString(byte[] text, int position, String string)
+   {
+      for (int index = 0; index < string.length(); index++)
+      {
+         text[position++] = (byte)string.charAt(index);
+      }
+
+      return position;
+   }
+
+   /*
+    * Opens a file for writing, making it if it does not exist and emptying it if it
+    * does.
+    *
+    * @param fileName   name of the file
+    *
+    * @return           channel of the open file
+    */
+   static FileChannel openForWriting(String fileName) throws IOException
+   {
+      return FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.TRUNCATE_EXISTING);
+   }
+
+   /*
+    * Writes everything from buffer's position to its limit to the channel, either at
+    * its current position (if position is -1) or at the given position.
+    *
+    * @param channel    the channel to write to
+    * @param buffer     the bytes to write
+    * @param position   place in the file, or -1 for the channel's position
+    */
+   static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+                          throws IOException
+   {
+      while (buffer.hasRemaining())
+      {
+         if (position < 0)
+         {
+            channel.write(buffer);
+         }
+         else
+         {
+            position += channel.write(buffer, position);
+         }
+      }
+
+      return;
+   }
+
+   /*
+    * Checks the header of a binary weights file and maps its weights read-only, after
+    * checking that their checksum is the one in the header. Nothing is copied: the
+    * buffer returned reads the file's pages.
+    *
+    * @param channel      channel of the open file
+    * @param fileName     name of the file, for the error messages
+    * @param start        place in the file of the header, 0 for a weights file
+    * @param numWeights   number of weights the network has, k-j and j-i together
+    *
+    * @return             the weights, little endian
+    */
+   static ByteBuffer mapWeights(FileChannel channel, String fileName, long start,
+                                int numWeights) throws IOException
+   {
+      if (channel.size() < start + HEADER_BYTES)
+      {
+         throw new IOException(fileName + " is not a binary weights file.");
+      }
+
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, start, HEADER_BYTES)
+                                 .order(ByteOrder.LITTLE_ENDIAN);
+
+      if (header.getInt() != MAGIC)
+      {
+         throw new IOException(fileName + " is not a binary weights file.");
+      }
+
+      int version = header.getInt();
+
+      if (version != VERSION)
+      {
+         throw new IOException(fileName + " has version " + version + ", expected " +
+                               VERSION);
+      }
+
+      int numInputs = header.getInt();
+      int numHidden = header.getInt();
+      int numOutputs = header.getInt();
+
+      if (numInputs != NeuralNets.NUM_INPUTS || numHidden != NeuralNets.NUM_HIDDEN ||
+          numOutputs != NeuralNets.NUM_OUTPUTS)
+      {
+         throw new IOException(fileName + " is for a " + numInputs + "-" + numHidden +
+                               "-" + numOutputs + " network, expected " +
+                               NeuralNets.NUM_INPUTS + "-" + NeuralNets.NUM_HIDDEN +
+                               "-" + NeuralNets.NUM_OUTPUTS);
+      }
+
+      int dtype = header.getInt();
+
+      if (dtype != DTYPE_DOUBLE)
+      {
+         throw new IOException(fileName + " has weights of type " + dtype +
+                               ", expected " + DTYPE_DOUBLE);
+      }
+
+      int expectedChecksum = header.getInt();
+      long weightBytes = (long)numWeights * DOUBLE_BYTES;
+
+      if (channel.size() < start + HEADER_BYTES + weightBytes)
+      {
+         throw new EOFException(fileName + " is shorter than its " + numWeights +
+                                " weights");
+      }
+
+      ByteBuffer weights = channel.map(FileChannel.MapMode.READ_ONLY,
+                                       start + HEADER_BYTES, weightBytes)
+                                  .order(ByteOrder.LITTLE_ENDIAN);
+      CRC32 checksum = new CRC32();
+
+      checksum.update(weights.duplicate());
+
+      if ((int)checksum.getValue() != expectedChecksum)
+      {
+         throw new IOException(fileName + " has a bad checksum; it may be damaged.");
+      }
+
+      return weights;
+   } // static ByteBuffer mapWeights(FileChannel channel, String fileName, ...)
+
+   /*
+    * Returns whether fileName names weights in the binary format (by its extension).
+    *
+    * @param fileName   name of the weights file
+    *
+    * @return           true for binary weights, false for text weights
+    */
+   static boolean isBinaryFile(String fileName)
+   {
+      return fileName.endsWith(BINARY_EXTENSION);
+   }
+
+}  // public class WeightsFile
@@ -0,0 +1,62 @@
+/*
+ * @author Helen Wu
+ *
+ * @version 05/13/15
+ *
+ * This file contains the class VectorKernels, the kernels of Kernels written with the
+ * vector API of the jdk.incubator.vector module, so that each instruction works on as
+ * many doubles as the processor's widest vector registers hold.
+ *
+ * Methods in this file:
+ *  public void axpy(double a, double[] x, int xOffset, double[] y, int yOffset,
+ *                   int length)
+ *  public String getName()
+ *
+ * It is kept apart from the other files because it needs the incubator module both to
+ * compile and to run, so it is compiled on its own, after them:
+ *
+ *    javac --add-modules jdk.incubator.vector -d . simd/VectorKernels.java
+ *    java --add-modules jdk.incubator.vector NeuralNets
+ *
+ * Without it (or without the module at run time) Kernels uses ScalarKernels instead.
+ */
+
+import jdk.incubator.vector.*;
+
+public class VectorKernels extends Kernels
+{
+   static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+   /*
+    * y += a * x, SPECIES.length() elements at a time, then the elements left over one
+    * at a time (see Kernels.axpy). The product and the sum are two separate roundings,
+    * as in ScalarKernels, not one fused multiply-add, so the results are the same.
+    */
+   public void axpy(double a, double[] x, int xOffset, double[] y, int yOffset, int length)
+   {
+      DoubleVector factor = DoubleVector.broadcast(SPECIES, a);
+      int vectorEnd = SPECIES.loopBound(length);
+      int n = 0;
+
+      for (; n < vectorEnd; n += SPECIES.length())
+      {
+         DoubleVector xs = DoubleVector.fromArray(SPECIES, x, xOffset + n);
+         DoubleVector ys = DoubleVector.fromArray(SPECIES, y, yOffset + n);
+
+         ys.add(factor.mul(xs)).intoArray(y, yOffset + n);
+      }
+
+      for (; n < length; n++)
+      {
+         y[yOffset + n] += a * x[xOffset + n];
+      }
+
+      return;
+   } // public void axpy(...)
+
+   public String getName()
+   {
+      return "vector (" + SPECIES.length() + " doubles)";
+   }
+
+}  // public class VectorKernels